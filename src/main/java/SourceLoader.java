@@ -0,0 +1,53 @@
+package j2script;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// Loads source files for the compiler driver.
+// Small files are bulk-read onto the heap, large ones are memory-mapped;
+// either way the bytes are decoded exactly once.
+public class SourceLoader {
+    // files at least this large are memory-mapped rather than read
+    public static final long MAP_THRESHOLD = 1 << 20;
+
+    public static CharBuffer load(final File file) throws IOException {
+        return decode(readBytes(file));
+    }
+
+    public static ByteBuffer readBytes(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Source file too large: " + file);
+            } else if (size >= MAP_THRESHOLD) {
+                // the mapping stays valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                final ByteBuffer buffer = ByteBuffer.allocate((int)size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading
+                }
+                buffer.flip();
+                return buffer;
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    public static CharBuffer decode(final ByteBuffer bytes) throws IOException {
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return decoder.decode(bytes);
+    }
+}
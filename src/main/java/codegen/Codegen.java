@@ -42,6 +42,17 @@ public class Codegen{
         variables = new HashMap<Variable,Exp>();
         objToClass = new HashMap<String,ClassName>();
     }
+    // A method or constructor body, or the main statement, parsed or built
+    // first if the program came from Parser.parseSkeleton() or
+    // FlatAst.toSkeleton()
+    private static Statement expandBody(final Statement body) {
+        try {
+            return LazyStatement.expand(body);
+        } catch (final ParserException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
     public void compileExp(Exp exp){
         if (exp instanceof BinopExp){
             compileBinOpExp((BinopExp)exp);
@@ -66,9 +77,10 @@ public class Codegen{
         for (ClassDef cls : prog.classDefs) {
             compileClass(cls);
         }
-        if (prog.statement instanceof Block){
+        final Statement main = expandBody(prog.statement);
+        if (main instanceof Block){
             // System.out.println("Working it is");
-            Block b = (Block) prog.statement;
+            Block b = (Block) main;
             for(Statement stmt: b.statements){
                 compileStatement(stmt);
             }
@@ -77,7 +89,7 @@ public class Codegen{
         else{
             // System.out.println("Working");
 
-            compileStatement(prog.statement);
+            compileStatement(main);
         }
         // System.out.println("this is the endof the program");
         for(String item : Code){
@@ -109,14 +121,15 @@ public class Codegen{
                 method +="self) {";
                 Code.add(method);
             }
-            if ( md.body instanceof Block){
-                Block b = (Block) md.body;
+            final Statement body = expandBody(md.body);
+            if ( body instanceof Block){
+                Block b = (Block) body;
                 for (int i =0 ; i < b.statements.size();i++){
                     compileStatement(b.statements.get(i));
                 }
             }
             else{
-                compileStatement(md.body);
+                compileStatement(body);
             }
             method = "};";
             Code.add(method);
@@ -252,7 +265,13 @@ public class Codegen{
             compileChildClass(cls);
         }
     }
-    public void compileStatement(Statement stmt){
+    public void compileStatement(final Statement stmt){
+        DeepRecursion.call(() -> {
+            compileStatementHere(stmt);
+            return null;
+        });
+    }
+    private void compileStatementHere(Statement stmt){
         // System.out.println("in compile statement");
         if (stmt instanceof IfStatement){
             compileIfStmt((IfStatement)stmt);
@@ -387,9 +406,15 @@ public class Codegen{
         //Just run through the constructor
         // System.out.println("start of compileobj");
         // System.out.println(vt.theClass);
-        if (vt.theClass.constructor.body instanceof Block){
+        // once per class, however many new expressions and subclasses
+        // reach it, as a deferred body rebuilds its tree on every expand
+        if (vt.constructorBody == null) {
+            vt.constructorBody = expandBody(vt.theClass.constructor.body);
+        }
+        final Statement body = vt.constructorBody;
+        if (body instanceof Block){
             // System.out.println("start of compileobj if");
-            Block b = (Block) vt.theClass.constructor.body;
+            Block b = (Block) body;
             for (int j=0; j < b.statements.size();j++){
                 Statement s = b.statements.get(j);
                 if (s instanceof SuperStatement){
@@ -422,7 +447,7 @@ public class Codegen{
             // actualCode += "\n}";
         }
         else{
-            Statement s = vt.theClass.constructor.body;
+            Statement s = body;
             // System.out.println("start of compileobj else");
             if (s instanceof SuperStatement){
                 // System.out.println("start of seccompileobj else");
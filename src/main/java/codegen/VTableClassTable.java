@@ -20,6 +20,8 @@ public class VTableClassTable{
     public ClassDef theClass;
     public Map<MethodName, MethodDef> methodMap;
     public Map<MethodName, Integer> offsets;
+    //The constructor's body, expanded the first time a new expression needs it
+    public Statement constructorBody;
 
 
     public VTableClassTable(List<String> vTable, ClassDef theclass,Map<MethodName, MethodDef> methodMap, Map<MethodName,Integer> offsets){
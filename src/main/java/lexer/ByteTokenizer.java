@@ -0,0 +1,242 @@
+package j2script;
+
+import j2script.tokens.NumberToken;
+import j2script.tokens.Token;
+import j2script.tokens.TokenKind;
+import j2script.tokens.VariableToken;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Lexes UTF-8 bytes directly, without decoding the file into chars first.
+// Keywords, operators, digits and ASCII letters are classified with a
+// 256-entry byte table; a code point is only decoded when a non-ASCII byte
+// shows up.  Produces the same tokens as Tokenizer on the decoded text
+// (except that letters outside the BMP are accepted, where Tokenizer sees
+// two surrogates), but positions are byte offsets.
+public class ByteTokenizer {
+    private static final LexerDfa DFA = Tokenizer.dfa();
+
+    private final ByteBuffer input;
+    private int inputPos;
+    private final int inputEnd;
+    // end of the token found by the last scan()
+    private int tokenEnd;
+    // whether that token contains any non-ASCII code point
+    private boolean tokenNonAscii;
+    // end of the code point read by the last decode()
+    private int decodedEnd;
+    // line starts seen so far
+    private final LineIndex lines;
+
+    // Lexes the bytes between the buffer's position and limit.  Heap and
+    // mapped buffers both work; the buffer's position is not changed.
+    public ByteTokenizer(final ByteBuffer input) {
+        this(input, null);
+    }
+
+    // As above; diagnostics name the given file
+    public ByteTokenizer(final ByteBuffer input, final String file) {
+        this.input = input;
+        this.inputPos = input.position();
+        this.inputEnd = input.limit();
+        this.lines = new LineIndex(file, input);
+    }
+
+    // Lines seen so far.  Complete once the whole input has been lexed.
+    public LineIndex lines() {
+        return lines;
+    }
+
+    // Decodes the UTF-8 sequence starting at pos and sets decodedEnd.
+    // Malformed input decodes to -1.
+    private int decode(final int pos) {
+        final int lead = input.get(pos) & 0xFF;
+        final int length;
+        int cp;
+        if (lead >= 0xF0 && lead < 0xF8) {
+            length = 4;
+            cp = lead & 0x07;
+        } else if (lead >= 0xE0) {
+            length = lead < 0xF0 ? 3 : 1;
+            cp = lead & 0x0F;
+        } else if (lead >= 0xC2) {
+            length = 2;
+            cp = lead & 0x1F;
+        } else {
+            length = 1;
+            cp = lead < 0x80 ? lead : -1;
+        }
+        decodedEnd = pos + 1;
+        if (length == 1 || pos + length > inputEnd) {
+            return length == 1 && lead < 0x80 ? cp : -1;
+        }
+        for (int i = 1; i < length; i++) {
+            final int b = input.get(pos + i) & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                return -1;
+            }
+            cp = (cp << 6) | (b & 0x3F);
+        }
+        decodedEnd = pos + length;
+        return cp <= Character.MAX_CODE_POINT ? cp : -1;
+    }
+
+    // Class of the character at pos; sets decodedEnd to the end of it
+    private int classAt(final int pos) {
+        final int cls = DFA.classOfByte(input.get(pos) & 0xFF);
+        if (cls != LexerDfa.CLASS_NON_ASCII) {
+            decodedEnd = pos + 1;
+            return cls;
+        }
+        final int cp = decode(pos);
+        return cp < 0 ? LexerDfa.CLASS_INVALID : DFA.classOfCodePoint(cp);
+    }
+
+    private void skipWhitespace() {
+        while (inputPos < inputEnd && classAt(inputPos) == LexerDfa.CLASS_SKIP) {
+            if (input.get(inputPos) == '\n') {
+                lines.addLine(inputPos + 1);
+            }
+            inputPos = decodedEnd;
+        }
+    }
+
+    // Same as Tokenizer.scan(), one byte at a time on the ASCII path
+    private int scan() {
+        int state = LexerDfa.START;
+        int pos = inputPos;
+        int acceptState = LexerDfa.DEAD;
+        boolean nonAscii = false;
+
+        while (pos < inputEnd) {
+            int cls = DFA.classOfByte(input.get(pos) & 0xFF);
+            int next = pos + 1;
+            if (cls == LexerDfa.CLASS_NON_ASCII) {
+                cls = classAt(pos);
+                next = decodedEnd;
+                nonAscii = true;
+            }
+            if (cls < 0) {
+                break;
+            }
+            final int target = DFA.step(state, cls);
+            if (target == LexerDfa.DEAD) {
+                break;
+            }
+            state = target;
+            pos = next;
+            if (DFA.accepts(state) != LexerDfa.ACCEPT_NONE) {
+                acceptState = state;
+                tokenEnd = pos;
+                tokenNonAscii = nonAscii;
+            }
+        }
+        return acceptState;
+    }
+
+    private String text(final int start, final int end) {
+        final byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = input.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int parseNumber(final int start, final int end) throws TokenizerException {
+        int value = 0;
+        int pos = start;
+        while (pos < end) {
+            final int b = input.get(pos) & 0xFF;
+            final int digit;
+            if (b < 0x80) {
+                digit = b - '0';
+                pos++;
+            } else {
+                digit = Character.digit(decode(pos), 10);
+                pos = decodedEnd;
+            }
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                throw new TokenizerException("Integer literal out of range at " +
+                                             lines.describe(start));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private TokenizerException invalidCharacter() {
+        final int cp = decode(inputPos);
+        return new TokenizerException("Invalid character " +
+                (cp < 0 ? "\uFFFD" : new String(Character.toChars(cp))) +
+                " at " +
+                lines.describe(inputPos));
+    }
+
+    // returns null if there are no more tokens
+    public Token tokenizeSingle() throws TokenizerException {
+        skipWhitespace();
+        if (inputPos >= inputEnd) {
+            return null;
+        }
+        final int start = inputPos;
+        final int acceptState = scan();
+        if (acceptState == LexerDfa.DEAD) {
+            throw invalidCharacter();
+        }
+        inputPos = tokenEnd;
+        switch (DFA.accepts(acceptState)) {
+            case LexerDfa.ACCEPT_VARIABLE:
+                return new VariableToken(text(start, tokenEnd));
+            case LexerDfa.ACCEPT_NUMBER:
+                return new NumberToken(parseNumber(start, tokenEnd));
+            default:
+                return DFA.fixedToken(acceptState);
+        }
+    }
+
+    public List<Token> tokenize() throws TokenizerException {
+        final List<Token> list = new ArrayList<Token>();
+        Token current = null;
+
+        while ((current = tokenizeSingle()) != null) {
+            list.add(current);
+        }
+
+        return list;
+    }
+
+    // Lexes the whole input into a packed TokenBuffer with byte offsets.
+    // ASCII identifiers are interned straight from the bytes.
+    public TokenBuffer tokenizeToBuffer() throws TokenizerException {
+        final NameTable names = new NameTable();
+        final TokenBuffer buffer = new TokenBuffer(names, lines);
+
+        skipWhitespace();
+        while (inputPos < inputEnd) {
+            final int start = inputPos;
+            final int acceptState = scan();
+            if (acceptState == LexerDfa.DEAD) {
+                throw invalidCharacter();
+            }
+            final int length = tokenEnd - start;
+            switch (DFA.accepts(acceptState)) {
+                case LexerDfa.ACCEPT_VARIABLE:
+                    buffer.add(TokenKind.VARIABLE, start, length,
+                               tokenNonAscii ?
+                               names.intern(text(start, tokenEnd)) :
+                               names.internAscii(input, start, length));
+                    break;
+                case LexerDfa.ACCEPT_NUMBER:
+                    buffer.add(TokenKind.NUMBER, start, length, parseNumber(start, tokenEnd));
+                    break;
+                default:
+                    buffer.add(DFA.fixedToken(acceptState).kind(), start, length, 0);
+            }
+            inputPos = tokenEnd;
+            skipWhitespace();
+        }
+        return buffer;
+    }
+}
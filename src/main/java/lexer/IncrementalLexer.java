@@ -0,0 +1,94 @@
+package j2script;
+
+// Re-lexes a TokenBuffer after a text edit.
+// Only tokens near the edit are lexed again.  A token's lexing depends only
+// on the text from its start onward, so lexing can stop at the first new
+// token that starts past the edit where an old token (shifted by the edit)
+// also started; everything from there on is copied from the old buffer.
+public class IncrementalLexer {
+    // The new token sequence plus the range that changed:
+    // old tokens [first, oldEnd) were replaced by new tokens [first, newEnd).
+    // Tokens before first are unchanged; tokens from oldEnd onward are
+    // unchanged apart from their source offsets moving by the edit's delta.
+    public static class Result {
+        public final TokenBuffer tokens;
+        public final int first;
+        public final int oldEnd;
+        public final int newEnd;
+
+        public Result(final TokenBuffer tokens, final int first,
+                      final int oldEnd, final int newEnd) {
+            this.tokens = tokens;
+            this.first = first;
+            this.oldEnd = oldEnd;
+            this.newEnd = newEnd;
+        }
+    }
+
+    // Replaces removed characters at offset with inserted and re-lexes the
+    // damaged region.  The old buffer is not modified, and the new buffer
+    // shares its NameTable, so name ids stay comparable across edits.
+    public static Result edit(final TokenBuffer old,
+                              final int offset,
+                              final int removed,
+                              final String inserted) throws TokenizerException {
+        final char[] oldSource = old.source();
+        if (oldSource == null) {
+            throw new IllegalArgumentException("Only buffers lexed from chars can be edited");
+        } else if (offset < 0 || removed < 0 || offset + removed > oldSource.length) {
+            throw new IllegalArgumentException("Edit of " + removed + " characters at " + offset +
+                                               " is outside the source");
+        }
+        final int delta = inserted.length() - removed;
+        final int editEnd = offset + inserted.length(); // in the new source
+
+        final char[] source = new char[oldSource.length + delta];
+        System.arraycopy(oldSource, 0, source, 0, offset);
+        inserted.getChars(0, inserted.length(), source, offset);
+        System.arraycopy(oldSource, offset + removed, source, editEnd,
+                         oldSource.length - offset - removed);
+
+        // The DFA looks one character past the end of a token to see that
+        // it stops, so a token ending right at the edit may change too.
+        final int oldSize = old.size();
+        int first = 0;
+        int high = oldSize;
+        while (first < high) {
+            final int mid = (first + high) >>> 1;
+            if (old.start(mid) + old.length(mid) < offset) {
+                first = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        final TokenBuffer tokens = new TokenBuffer(source, old.names(),
+                                                 old.lines().edit(offset, removed, inserted));
+        tokens.append(old, 0, first, 0);
+
+        final int restart = first < oldSize ? Math.min(old.start(first), offset) : offset;
+        final Tokenizer tokenizer = new Tokenizer(source, restart, source.length);
+
+        // old tokens from oldEnd on are the resynchronization candidates
+        int oldEnd = first;
+        while (true) {
+            final int start = tokenizer.nextTokenStart();
+            if (start >= editEnd) {
+                while (oldEnd < oldSize && old.start(oldEnd) + delta < start) {
+                    oldEnd++;
+                }
+                if (oldEnd < oldSize && old.start(oldEnd) + delta == start) {
+                    break;
+                }
+            }
+            if (!tokenizer.lexInto(tokens)) {
+                oldEnd = oldSize;
+                break;
+            }
+        }
+
+        final int newEnd = tokens.size();
+        tokens.append(old, oldEnd, oldSize - oldEnd, delta);
+        return new Result(tokens, first, oldEnd, newEnd);
+    }
+}
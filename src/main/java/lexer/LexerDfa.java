@@ -0,0 +1,169 @@
+package j2script;
+
+import j2script.tokens.Token;
+import java.util.Arrays;
+import java.util.Map;
+
+// Table-driven DFA used by the tokenizer.
+// Every fixed token string (keywords and operators) is compiled into a trie
+// over character classes.  Identifiers and numbers are catch-all states
+// hanging off that trie, so a single left-to-right pass per token gives
+// longest-match semantics (int vs int64, = vs ==).
+class LexerDfa {
+    public static final int DEAD = -1;
+    public static final int START = 0;
+    public static final int IDENTIFIER = 1;
+    public static final int NUMBER = 2;
+
+    // what a state accepts
+    public static final int ACCEPT_NONE = 0;
+    public static final int ACCEPT_VARIABLE = 1;
+    public static final int ACCEPT_NUMBER = 2;
+    public static final int ACCEPT_FIXED = 3;
+
+    // character classes; anything >= 0 is a column in the transition table
+    public static final int CLASS_INVALID = -1;
+    public static final int CLASS_SKIP = -2; // whitespace and '.'
+    public static final int CLASS_NON_ASCII = -3; // byte that starts or continues a UTF-8 sequence
+    public static final int CLASS_LETTER = 0; // letter not used in any fixed token
+    public static final int CLASS_DIGIT = 1;
+
+    private static final int ASCII = 128;
+
+    private final int[] charClasses;
+    private final int[] byteClasses;
+    private final boolean[] letterClass;
+    private final int numClasses;
+
+    private int[] transitions; // state * numClasses + class
+    private int[] accepts;
+    private Token[] fixedTokens;
+    private int numStates;
+
+    public LexerDfa(final Map<String, Token> fixed) {
+        charClasses = new int[ASCII];
+        for (char c = 0; c < ASCII; c++) {
+            if (Character.isWhitespace(c) || c == '.') {
+                charClasses[c] = CLASS_SKIP;
+            } else if (Character.isLetter(c)) {
+                charClasses[c] = CLASS_LETTER;
+            } else if (Character.isDigit(c)) {
+                charClasses[c] = CLASS_DIGIT;
+            } else {
+                charClasses[c] = CLASS_INVALID;
+            }
+        }
+
+        // every character used by a fixed token gets its own column
+        int next = CLASS_DIGIT + 1;
+        final boolean[] isLetter = new boolean[ASCII + CLASS_DIGIT + 1];
+        isLetter[CLASS_LETTER] = true;
+        for (final String key : fixed.keySet()) {
+            for (int i = 0; i < key.length(); i++) {
+                final char c = key.charAt(i);
+                if (charClasses[c] == CLASS_LETTER) {
+                    isLetter[next] = true;
+                    charClasses[c] = next++;
+                } else if (charClasses[c] == CLASS_INVALID) {
+                    charClasses[c] = next++;
+                }
+            }
+        }
+        numClasses = next;
+        letterClass = Arrays.copyOf(isLetter, numClasses);
+
+        byteClasses = new int[256];
+        System.arraycopy(charClasses, 0, byteClasses, 0, ASCII);
+        Arrays.fill(byteClasses, ASCII, byteClasses.length, CLASS_NON_ASCII);
+
+        transitions = new int[0];
+        accepts = new int[0];
+        fixedTokens = new Token[0];
+        numStates = 0;
+
+        newState(false, ACCEPT_NONE);           // START
+        newState(true, ACCEPT_VARIABLE);        // IDENTIFIER
+        newState(false, ACCEPT_NUMBER);         // NUMBER
+        for (int cls = 0; cls < numClasses; cls++) {
+            if (letterClass[cls]) {
+                setTransition(START, cls, IDENTIFIER);
+            }
+        }
+        setTransition(START, CLASS_DIGIT, NUMBER);
+        setTransition(NUMBER, CLASS_DIGIT, NUMBER);
+
+        for (final Map.Entry<String, Token> entry : fixed.entrySet()) {
+            final String key = entry.getKey();
+            int state = START;
+            for (int i = 0; i < key.length(); i++) {
+                final int cls = charClasses[key.charAt(i)];
+                int target = transitions[state * numClasses + cls];
+                if (target == DEAD || target == IDENTIFIER) {
+                    // letters keep lexing as an identifier if the keyword
+                    // doesn't pan out; operators just stop
+                    target = letterClass[cls] ?
+                        newState(true, ACCEPT_VARIABLE) :
+                        newState(false, ACCEPT_NONE);
+                    setTransition(state, cls, target);
+                }
+                state = target;
+            }
+            accepts[state] = ACCEPT_FIXED;
+            fixedTokens[state] = entry.getValue();
+        }
+    }
+
+    // Adds a state.  Identifier-like states continue on any letter or digit.
+    private int newState(final boolean identifierLike, final int accept) {
+        final int state = numStates++;
+        transitions = Arrays.copyOf(transitions, numStates * numClasses);
+        accepts = Arrays.copyOf(accepts, numStates);
+        fixedTokens = Arrays.copyOf(fixedTokens, numStates);
+        for (int cls = 0; cls < numClasses; cls++) {
+            transitions[state * numClasses + cls] =
+                (identifierLike && (letterClass[cls] || cls == CLASS_DIGIT)) ? IDENTIFIER : DEAD;
+        }
+        accepts[state] = accept;
+        return state;
+    }
+
+    private void setTransition(final int state, final int cls, final int target) {
+        transitions[state * numClasses + cls] = target;
+    }
+
+    public int classOf(final char c) {
+        return c < ASCII ? charClasses[c] : classOfCodePoint(c);
+    }
+
+    // Class of an unsigned byte of UTF-8 input; CLASS_NON_ASCII means the
+    // caller has to decode the code point and use classOfCodePoint
+    public int classOfByte(final int b) {
+        return byteClasses[b];
+    }
+
+    public int classOfCodePoint(final int c) {
+        if (c < ASCII) {
+            return charClasses[c];
+        } else if (Character.isWhitespace(c)) {
+            return CLASS_SKIP;
+        } else if (Character.isLetter(c)) {
+            return CLASS_LETTER;
+        } else if (Character.isDigit(c)) {
+            return CLASS_DIGIT;
+        } else {
+            return CLASS_INVALID;
+        }
+    }
+
+    public int step(final int state, final int cls) {
+        return transitions[state * numClasses + cls];
+    }
+
+    public int accepts(final int state) {
+        return accepts[state];
+    }
+
+    public Token fixedToken(final int state) {
+        return fixedTokens[state];
+    }
+}
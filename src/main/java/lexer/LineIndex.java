@@ -0,0 +1,123 @@
+package j2script;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Start offset of every line of a source, recorded by the lexer as it skips
+// newlines.  Maps an offset to a line and column with a binary search, so
+// diagnostics never have to re-scan the source.
+public class LineIndex {
+    private final String file; // null if the source has no file name
+    private final ByteBuffer utf8; // set when offsets are UTF-8 byte offsets
+    private int[] lineStarts;
+    private int size;
+
+    public LineIndex() {
+        this(null, null);
+    }
+
+    public LineIndex(final String file) {
+        this(file, null);
+    }
+
+    // With utf8 set, columns count code points rather than bytes
+    public LineIndex(final String file, final ByteBuffer utf8) {
+        this.file = file;
+        this.utf8 = utf8;
+        this.lineStarts = new int[64];
+        this.size = 1; // line 1 starts at offset 0
+    }
+
+    public String file() {
+        return file;
+    }
+
+    // Records that a line starts at the given offset.  Offsets at or before
+    // the last recorded line are ignored, so re-lexing a region is harmless.
+    public void addLine(final int start) {
+        if (start > lineStarts[size - 1]) {
+            if (size == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, size * 2);
+            }
+            lineStarts[size++] = start;
+        }
+    }
+
+    // Records every line of another index, which must cover a later part of
+    // the same source
+    public void addLines(final LineIndex other) {
+        for (int i = 1; i < other.size; i++) {
+            addLine(other.lineStarts[i]);
+        }
+    }
+
+    public int lines() {
+        return size;
+    }
+
+    // 1-based line containing the offset
+    public int line(final int offset) {
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (lineStarts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low + 1;
+    }
+
+    public int lineStart(final int line) {
+        return lineStarts[line - 1];
+    }
+
+    // 1-based column of the offset within its line
+    public int column(final int offset) {
+        final int start = lineStart(line(offset));
+        if (utf8 == null) {
+            return offset - start + 1;
+        }
+        int column = 1;
+        for (int i = start; i < offset; i++) {
+            // continuation bytes don't start a new column
+            if ((utf8.get(i) & 0xC0) != 0x80) {
+                column++;
+            }
+        }
+        return column;
+    }
+
+    // file:line:column when the file is known, otherwise "line L, column C"
+    public String describe(final int offset) {
+        if (file == null) {
+            return "line " + line(offset) + ", column " + column(offset);
+        } else {
+            return file + ":" + line(offset) + ":" + column(offset);
+        }
+    }
+
+    // The index of the source after replacing removed characters at offset
+    // with inserted.  Lines before the edit are kept and later ones shifted.
+    public LineIndex edit(final int offset, final int removed, final CharSequence inserted) {
+        final LineIndex result = new LineIndex(file, utf8);
+        int line = 1;
+        while (line < size && lineStarts[line] <= offset) {
+            result.addLine(lineStarts[line++]);
+        }
+        for (int i = 0; i < inserted.length(); i++) {
+            if (inserted.charAt(i) == '\n') {
+                result.addLine(offset + i + 1);
+            }
+        }
+        final int delta = inserted.length() - removed;
+        for (; line < size; line++) {
+            if (lineStarts[line] > offset + removed) {
+                result.addLine(lineStarts[line] + delta);
+            }
+        }
+        return result;
+    }
+}
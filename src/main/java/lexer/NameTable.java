@@ -0,0 +1,137 @@
+package j2script;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Interns identifier names straight out of the source text.
+// Each distinct name is turned into a String once, however often it appears,
+// and is identified by a dense int id from then on.
+public class NameTable {
+    private static final int EMPTY = -1;
+
+    private String[] names;
+    private int[] hashes;
+    private int size;
+    private int[] slots; // open addressing; holds name ids
+
+    public NameTable() {
+        names = new String[64];
+        hashes = new int[64];
+        slots = new int[128];
+        Arrays.fill(slots, EMPTY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String name(final int id) {
+        return names[id];
+    }
+
+    public int intern(final String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    public int intern(final char[] chars, final int start, final int length) {
+        // same hash as String.hashCode()
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        final int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != EMPTY) {
+            final int id = slots[slot];
+            if (hashes[id] == hash && sameChars(names[id], chars, start, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return add(new String(chars, start, length), hash, slot);
+    }
+
+    // Interns a name made of ASCII bytes, without decoding it first
+    public int internAscii(final ByteBuffer bytes, final int start, final int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + bytes.get(i);
+        }
+
+        final int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != EMPTY) {
+            final int id = slots[slot];
+            if (hashes[id] == hash && sameBytes(names[id], bytes, start, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char)bytes.get(start + i);
+        }
+        return add(new String(chars), hash, slot);
+    }
+
+    private static boolean sameBytes(final String name, final ByteBuffer bytes,
+                                     final int start, final int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != bytes.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameChars(final String name, final char[] chars,
+                                     final int start, final int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int add(final String name, final int hash, final int slot) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        final int id = size++;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[slot] = id;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY);
+        final int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    // spreads the low bits, since String hashes of short names cluster
+    private static int mix(final int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
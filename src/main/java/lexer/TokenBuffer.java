@@ -0,0 +1,142 @@
+package j2script;
+
+import j2script.tokens.NumberToken;
+import j2script.tokens.Token;
+import j2script.tokens.TokenKind;
+import j2script.tokens.VariableToken;
+import java.util.Arrays;
+
+// Packed, struct-of-arrays token sequence.
+// Token i is described by kinds[i], starts[i] and lengths[i] (offsets into
+// the source), plus values[i], which holds the value of a number or the
+// NameTable id of an identifier.  A million tokens cost a few int arrays
+// instead of a million objects.
+public class TokenBuffer implements TokenSource {
+    private static final TokenKind[] KINDS = TokenKind.values();
+
+    private final char[] source;
+    private final LineIndex lines;
+    private final NameTable names;
+    private int[] kinds;
+    private int[] starts;
+    private int[] lengths;
+    private int[] values;
+    private int size;
+
+    // A buffer whose offsets index UTF-8 bytes rather than a char[] source
+    public TokenBuffer(final NameTable names, final LineIndex lines) {
+        this(null, names, lines);
+    }
+
+    public TokenBuffer(final char[] source, final NameTable names, final LineIndex lines) {
+        this.source = source;
+        this.lines = lines;
+        this.names = names;
+        this.kinds = new int[256];
+        this.starts = new int[256];
+        this.lengths = new int[256];
+        this.values = new int[256];
+    }
+
+    public void add(final TokenKind kind, final int start, final int length, final int value) {
+        ensureCapacity(size + 1);
+        kinds[size] = kind.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        values[size] = value;
+        size++;
+    }
+
+    // Appends count tokens of another buffer starting at pos, moving their
+    // source offsets by shift.  Both buffers must share a NameTable.
+    void append(final TokenBuffer from, final int pos, final int count, final int shift) {
+        ensureCapacity(size + count);
+        System.arraycopy(from.kinds, pos, kinds, size, count);
+        System.arraycopy(from.lengths, pos, lengths, size, count);
+        System.arraycopy(from.values, pos, values, size, count);
+        for (int i = 0; i < count; i++) {
+            starts[size + i] = from.starts[pos + i] + shift;
+        }
+        size += count;
+    }
+
+    private void ensureCapacity(final int needed) {
+        if (needed > kinds.length) {
+            final int capacity = Math.max(needed, kinds.length * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // null when the tokens were lexed from bytes
+    public char[] source() {
+        return source;
+    }
+
+    public NameTable names() {
+        return names;
+    }
+
+    public LineIndex lines() {
+        return lines;
+    }
+
+    public TokenKind kind(final int pos) {
+        return KINDS[kinds[checkIndex(pos)]];
+    }
+
+    public int start(final int pos) {
+        return starts[checkIndex(pos)];
+    }
+
+    public int length(final int pos) {
+        return lengths[checkIndex(pos)];
+    }
+
+    // number value, or the name id of an identifier
+    public int value(final int pos) {
+        return values[checkIndex(pos)];
+    }
+
+    public String name(final int pos) {
+        return names.name(value(pos));
+    }
+
+    // Materializes a token object for callers that still want one.
+    // Keywords and operators come back as the shared instances.
+    public Token get(final int pos) {
+        switch (kind(pos)) {
+            case VARIABLE:
+                return new VariableToken(name(pos));
+            case NUMBER:
+                return new NumberToken(values[pos]);
+            default:
+                return Tokenizer.fixedToken(kind(pos));
+        }
+    }
+
+    public boolean hasToken(final int pos) {
+        return pos < size;
+    }
+
+    // Line and column of the given token, for diagnostics
+    public String describe(final int pos) {
+        if (pos >= size) {
+            return "end of input";
+        }
+        return lines.describe(starts[pos]);
+    }
+
+    private int checkIndex(final int pos) {
+        if (pos >= size) {
+            throw new IndexOutOfBoundsException("No token at position " + pos);
+        }
+        return pos;
+    }
+}
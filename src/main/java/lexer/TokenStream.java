@@ -0,0 +1,154 @@
+package j2script;
+
+import j2script.tokens.Token;
+import j2script.tokens.TokenKind;
+import java.io.IOException;
+import java.io.Reader;
+
+// Lazily lexes tokens from a Reader.
+// Only a window of characters and a ring of recently lexed tokens are kept,
+// so memory is proportional to the lookahead rather than to the input size.
+public class TokenStream implements TokenSource {
+    public static final int DEFAULT_LOOKAHEAD = 256;
+    private static final int DEFAULT_WINDOW = 8192;
+
+    private final Reader reader;
+    private final Tokenizer tokenizer;
+
+    // characters not yet lexed live in window[windowPos, windowEnd)
+    private char[] window;
+    private int windowPos;
+    private int windowEnd;
+    private int windowOffset; // absolute offset of window[0]
+    private boolean eof;
+
+    // ring of the most recently lexed tokens; token i lives at ring[i & mask]
+    private final Token[] ring;
+    private final int[] ringStarts;
+    private final int[] ringLengths;
+    private final int mask;
+    private int lexed;
+    private boolean exhausted;
+
+    public TokenStream(final Reader reader) {
+        this(reader, DEFAULT_LOOKAHEAD);
+    }
+
+    public TokenStream(final Reader reader, final int lookahead) {
+        int capacity = 1;
+        while (capacity < lookahead) {
+            capacity <<= 1;
+        }
+        this.reader = reader;
+        this.ring = new Token[capacity];
+        this.ringStarts = new int[capacity];
+        this.ringLengths = new int[capacity];
+        this.mask = capacity - 1;
+        this.window = new char[DEFAULT_WINDOW];
+        this.tokenizer = new Tokenizer(window, 0, 0);
+    }
+
+    public Token get(final int pos) throws ParserException {
+        if (!fill(pos)) {
+            throw new IndexOutOfBoundsException("No token at position " + pos);
+        }
+        return ring[pos & mask];
+    }
+
+    public boolean hasToken(final int pos) throws ParserException {
+        return fill(pos);
+    }
+
+    public String describe(final int pos) {
+        if (pos < lexed && pos >= lexed - ring.length) {
+            return tokenizer.lines().describe(ringStarts[pos & mask]);
+        } else {
+            return "position " + pos;
+        }
+    }
+
+    public TokenKind kind(final int pos) throws ParserException {
+        return get(pos).kind();
+    }
+
+    public int start(final int pos) throws ParserException {
+        get(pos);
+        return ringStarts[pos & mask];
+    }
+
+    public int length(final int pos) throws ParserException {
+        get(pos);
+        return ringLengths[pos & mask];
+    }
+
+    public LineIndex lines() {
+        return tokenizer.lines();
+    }
+
+    // Lexes until the token at pos is available.  Returns false if the input
+    // ends first.
+    private boolean fill(final int pos) throws ParserException {
+        if (pos < lexed - ring.length) {
+            throw new IllegalStateException("Token " + pos + " is no longer buffered; only the last " +
+                                            ring.length + " tokens are kept");
+        }
+        try {
+            while (lexed <= pos && !exhausted) {
+                final Token token = lexNext();
+                if (token == null) {
+                    exhausted = true;
+                } else {
+                    ring[lexed & mask] = token;
+                    ringStarts[lexed & mask] = windowOffset + tokenizer.tokenStart();
+                    ringLengths[lexed & mask] = tokenizer.position() - tokenizer.tokenStart();
+                    lexed++;
+                }
+            }
+        } catch (final TokenizerException e) {
+            throw new ParserException(e.getMessage(), e);
+        } catch (final IOException e) {
+            throw new ParserException("Could not read input: " + e.getMessage(), e);
+        }
+        return pos < lexed;
+    }
+
+    private Token lexNext() throws TokenizerException, IOException {
+        while (true) {
+            tokenizer.reset(window, windowPos, windowEnd, windowOffset);
+            final Token token = tokenizer.tokenizeSingle();
+            // a token touching the end of the window may continue past it,
+            // and trailing whitespace may be followed by more tokens
+            if (!eof && (token == null || tokenizer.position() == windowEnd)) {
+                if (token == null) {
+                    windowPos = tokenizer.position();
+                }
+                refill();
+            } else {
+                windowPos = tokenizer.position();
+                return token;
+            }
+        }
+    }
+
+    // Moves the unlexed characters to the front of the window and reads more
+    private void refill() throws IOException {
+        final int remaining = windowEnd - windowPos;
+        if (remaining == window.length) {
+            final char[] bigger = new char[window.length * 2];
+            System.arraycopy(window, windowPos, bigger, 0, remaining);
+            window = bigger;
+        } else {
+            System.arraycopy(window, windowPos, window, 0, remaining);
+        }
+        windowOffset += windowPos;
+        windowPos = 0;
+        windowEnd = remaining;
+
+        final int read = reader.read(window, windowEnd, window.length - windowEnd);
+        if (read < 0) {
+            eof = true;
+        } else {
+            windowEnd += read;
+        }
+    }
+}
@@ -1,14 +1,28 @@
 package j2script;
 
 import j2script.tokens.*;
+import java.nio.CharBuffer;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class Tokenizer {
-    private final char[] input;
+    private char[] input;
     private int inputPos;
+    private int inputEnd;
+    // absolute offset of input[0]; non-zero when lexing a window of a stream
+    private int baseOffset;
+    // start and end of the token found by the last scan()
+    private int tokenStart;
+    private int tokenEnd;
+    // line starts seen so far, as absolute offsets
+    private LineIndex lines;
 
     private static Map<String, Token> TOKEN_MAPPING =
         new HashMap<String, Token>() {
@@ -47,123 +61,183 @@ public class Tokenizer {
             put(">", new GreaterThanToken());
         }
     };
+    private static final LexerDfa DFA = new LexerDfa(TOKEN_MAPPING);
+    // inputs are not split into chunks smaller than this
+    private static final int MIN_PARALLEL_CHUNK = 1 << 16;
+    private static final Map<TokenKind, Token> FIXED_TOKENS =
+        new EnumMap<TokenKind, Token>(TokenKind.class) {
+        {
+            for (final Token token : TOKEN_MAPPING.values()) {
+                put(token.kind(), token);
+            }
+        }
+    };
+
     public Tokenizer(final char[] input) {
+        this(input, 0, input.length);
+    }
+
+    // Lexes input[start, end)
+    public Tokenizer(final char[] input, final int start, final int end) {
+        reset(input, start, end, 0);
+        this.lines = new LineIndex();
+    }
+
+    // Lexes the remaining characters of the buffer without copying them
+    // when the buffer is array-backed
+    public Tokenizer(final CharBuffer input) {
+        this(input, null);
+    }
+
+    // As above; diagnostics name the given file
+    public Tokenizer(final CharBuffer input, final String file) {
+        this(charsOf(input), charsStart(input), charsStart(input) + input.remaining());
+        this.lines = new LineIndex(file);
+    }
+
+    private static char[] charsOf(final CharBuffer buffer) {
+        if (buffer.hasArray()) {
+            return buffer.array();
+        } else {
+            final char[] copy = new char[buffer.remaining()];
+            buffer.duplicate().get(copy);
+            return copy;
+        }
+    }
+
+    private static int charsStart(final CharBuffer buffer) {
+        return buffer.hasArray() ? buffer.arrayOffset() + buffer.position() : 0;
+    }
+
+    // Points the tokenizer at a new window of input.  Used by TokenStream
+    // when it refills its buffer.
+    void reset(final char[] input, final int start, final int end, final int baseOffset) {
         this.input = input;
-        inputPos = 0;
+        this.inputPos = start;
+        this.inputEnd = end;
+        this.baseOffset = baseOffset;
+    }
+
+    // current position, relative to the start of the input array
+    int position() {
+        return inputPos;
+    }
+
+    // start of the last token lexed, relative to the start of the input array
+    int tokenStart() {
+        return tokenStart;
+    }
+
+    // Lines seen so far.  Complete once the whole input has been lexed.
+    public LineIndex lines() {
+        return lines;
+    }
+
+    // the shared DFA, for the other lexer front ends
+    static LexerDfa dfa() {
+        return DFA;
     }
 
     public static boolean isTokenString(final String input) {
         return TOKEN_MAPPING.containsKey(input);
     }
 
+    // The shared instance for a keyword or operator kind
+    public static Token fixedToken(final TokenKind kind) {
+        return FIXED_TOKENS.get(kind);
+    }
+
     private void skipWhitespace() {
-        //Advances input position past whitespace
-        while (inputPos < input.length && (Character.isWhitespace(input[inputPos]) || input[inputPos] == '.')) {
+        //Advances input position past whitespace, noting where lines start
+        while (inputPos < inputEnd && DFA.classOf(input[inputPos]) == LexerDfa.CLASS_SKIP) {
+            if (input[inputPos] == '\n') {
+                lines.addLine(baseOffset + inputPos + 1);
+            }
             inputPos++;
         }
     }
 
-    private Token tryTokenizeOther() {
-        for (final Map.Entry<String, Token> entry : TOKEN_MAPPING.entrySet()) {
-            final String key = entry.getKey();
-            //check if the input is equal to any key.
-            if (prefixCharsEqual(key)) {
-                inputPos += key.length();               
-                return entry.getValue();
+    // Runs the DFA from inputPos and returns the accepting state of the
+    // longest token found, or LexerDfa.DEAD if no token starts here.
+    // The token ends at tokenEnd; inputPos is left untouched.
+    private int scan() {
+        int state = LexerDfa.START;
+        int pos = inputPos;
+        int acceptState = LexerDfa.DEAD;
+
+        while (pos < inputEnd) {
+            final int cls = DFA.classOf(input[pos]);
+            if (cls < 0) {
+                break;
+            }
+            final int next = DFA.step(state, cls);
+            if (next == LexerDfa.DEAD) {
+                break;
+            }
+            state = next;
+            pos++;
+            if (DFA.accepts(state) != LexerDfa.ACCEPT_NONE) {
+                acceptState = state;
+                tokenEnd = pos;
             }
         }
-        return null;
-    }
-
-    private boolean prefixCharsEqual(final String probe) {
-        //Get the current input index.
-        int targetPos = inputPos;
-        //Start index of key at 0
-        int probePos = 0;
-        //Check if the current input is equal to this key (probe)
-        while (targetPos < input.length &&
-                probePos < probe.length() &&
-                probe.charAt(probePos) == input[targetPos]) {
-            probePos++;
-            targetPos++;
-        }
-        //return whether or not there is a prefix match.
-        return probePos == probe.length();
-        /*(!) Note: Would fail if we had a keyword that was 
-        a prefix of another keyword, i.e. int int64
-        */
-    }
-
-    private NumberToken tryTokenizeNumber() {
-        final int initialInputPos = inputPos;
-        String digits = "";
- 
-        while (inputPos < input.length &&
-               Character.isDigit(input[inputPos])) {
-            digits += input[inputPos];
-            inputPos++;
-        }
- 
-        if (digits.length() > 0) {
-            return new NumberToken(Integer.parseInt(digits));
-        } else {
-            // reset position
-            inputPos = initialInputPos;
+        return acceptState;
+    }
+
+    // Lexes the token starting at inputPos, or returns null if none does
+    private Token scanToken() throws TokenizerException {
+        final int start = inputPos;
+        tokenStart = start;
+        final int acceptState = scan();
+        if (acceptState == LexerDfa.DEAD) {
             return null;
         }
+        inputPos = tokenEnd;
+        switch (DFA.accepts(acceptState)) {
+            case LexerDfa.ACCEPT_VARIABLE:
+                return new VariableToken(new String(input, start, tokenEnd - start));
+            case LexerDfa.ACCEPT_NUMBER:
+                return new NumberToken(parseNumber(start, tokenEnd));
+            default:
+                return DFA.fixedToken(acceptState);
+        }
     }
 
-    private VariableToken tryTokenizeVariable() {
-        final int initialInputPos = inputPos;
-        String name = "";
-
-        if (Character.isLetter(input[inputPos])) {
-            name += input[inputPos];
-            inputPos++;            
-            while (inputPos < input.length &&
-                   Character.isLetterOrDigit(input[inputPos])) {
-                name += input[inputPos];
-                inputPos++;
+    private int parseNumber(final int start, final int end) throws TokenizerException {
+        int value = 0;
+        for (int pos = start; pos < end; pos++) {
+            final int digit = Character.digit(input[pos], 10);
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                throw new TokenizerException("Integer literal out of range at " +
+                                             lines.describe(baseOffset + start));
             }
-        } else {
-            // reset position
-            inputPos = initialInputPos;
-            return null;
+            value = value * 10 + digit;
         }
+        return value;
+    }
 
-        if (isTokenString(name)) {
-            // reset position
-            inputPos = initialInputPos;
-            return null;
-        } else {
-            return new VariableToken(name);
-}
-    }    
-    
     // returns null if there are no more tokens
     public Token tokenizeSingle() throws TokenizerException {
-        VariableToken var = null;
-        NumberToken num = null;
-        Token otherToken = null;
+        Token token = null;
 
         skipWhitespace();
 
-        if (inputPos >= input.length) {
+        if (inputPos >= inputEnd) {
             return null;
-        } else if ((var = tryTokenizeVariable()) != null) {
-            return var;
-        } else if ((num = tryTokenizeNumber()) != null) {
-            return num;
-        } else if ((otherToken = tryTokenizeOther()) != null) {
-            return otherToken;
+        } else if ((token = scanToken()) != null) {
+            return token;
         } else {
-            throw new TokenizerException("Invalid character " +
-                    input[inputPos] +
-                    " at position " +
-                    inputPos);
+            throw invalidCharacter();
         }
     }
 
+    private TokenizerException invalidCharacter() {
+        return new TokenizerException("Invalid character " +
+                input[inputPos] +
+                " at " +
+                lines.describe(baseOffset + inputPos));
+    }
+
     public List<Token> tokenize() throws TokenizerException {
         List<Token> list = new ArrayList<Token>();
         Token current = null;
@@ -174,4 +248,133 @@ public class Tokenizer {
 
         return list;
     }
-}
\ No newline at end of file
+
+    // Lexes the input in chunks on a ForkJoinPool and concatenates the
+    // results.  j2script has no multi-line strings or comments, so no token
+    // can contain whitespace: chunks are cut at whitespace and each one lexes
+    // exactly as it would in a sequential pass.  Output, lines and errors
+    // match tokenize().
+    public List<Token> tokenizeParallel() throws TokenizerException {
+        return tokenizeParallel(ForkJoinPool.commonPool());
+    }
+
+    // Lexes using the threads of pool, one chunk per thread.  The pool is
+    // the caller's, so repeated calls share its threads.
+    public List<Token> tokenizeParallel(final ForkJoinPool pool) throws TokenizerException {
+        final int[] bounds = chunkBounds(pool.getParallelism());
+        final int chunks = bounds.length - 1;
+        if (chunks <= 1) {
+            return tokenize();
+        }
+
+        final List<Future<List<Token>>> results = new ArrayList<Future<List<Token>>>(chunks);
+        try {
+            final Tokenizer[] tokenizers = new Tokenizer[chunks];
+            for (int i = 0; i < chunks; i++) {
+                final Tokenizer chunk = new Tokenizer(input, bounds[i], bounds[i + 1]);
+                chunk.reset(input, bounds[i], bounds[i + 1], baseOffset);
+                tokenizers[i] = chunk;
+                results.add(pool.submit(chunk::tokenize));
+            }
+
+            final List<Token> list = new ArrayList<Token>();
+            for (int i = 0; i < chunks; i++) {
+                list.addAll(results.get(i).get());
+                lines.addLines(tokenizers[i].lines);
+            }
+            inputPos = inputEnd;
+            return list;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TokenizerException("Interrupted while tokenizing");
+        } catch (final ExecutionException e) {
+            // ForkJoinPool wraps checked exceptions from a Callable in a
+            // RuntimeException, so dig for the original.  A chunk only knows
+            // its own lines, so the error is found again sequentially to
+            // report the right line and column.
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof TokenizerException) {
+                    inputPos = bounds[0];
+                    lines = new LineIndex(lines.file());
+                    return tokenize();
+                }
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // after an error, don't leave chunks nobody will look at
+            // queued on the caller's pool
+            for (final Future<List<Token>> result : results) {
+                result.cancel(false);
+            }
+        }
+    }
+
+    // Picks up to parallelism + 1 chunk boundaries.  Every interior boundary
+    // sits on a whitespace character, so no token straddles two chunks; a
+    // chunk with no whitespace after its target split point is merged into
+    // the next one.
+    private int[] chunkBounds(final int parallelism) {
+        final int length = inputEnd - inputPos;
+        final int chunks = Math.max(1, Math.min(parallelism, length / MIN_PARALLEL_CHUNK));
+        final int[] bounds = new int[chunks + 1];
+        int count = 0;
+        bounds[count++] = inputPos;
+        for (int i = 1; i < chunks; i++) {
+            int split = Math.max(inputPos + (int)((long)length * i / chunks), bounds[count - 1]);
+            while (split < inputEnd && DFA.classOf(input[split]) != LexerDfa.CLASS_SKIP) {
+                split++;
+            }
+            if (split > bounds[count - 1] && split < inputEnd) {
+                bounds[count++] = split;
+            }
+        }
+        bounds[count++] = inputEnd;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    // Lexes the whole input into a packed TokenBuffer.  Unlike tokenize(),
+    // this allocates no per-token objects: identifiers are interned once
+    // and everything else is stored in parallel int arrays.
+    public TokenBuffer tokenizeToBuffer() throws TokenizerException {
+        final TokenBuffer buffer = new TokenBuffer(input, new NameTable(), lines);
+        while (lexInto(buffer)) {
+            // every token is appended by lexInto
+        }
+        return buffer;
+    }
+
+    // Lexes the next token onto the end of the buffer, interning names in
+    // the buffer's NameTable.  Returns false once the input is exhausted.
+    boolean lexInto(final TokenBuffer buffer) throws TokenizerException {
+        skipWhitespace();
+        if (inputPos >= inputEnd) {
+            return false;
+        }
+        final int start = inputPos;
+        final int acceptState = scan();
+        if (acceptState == LexerDfa.DEAD) {
+            throw invalidCharacter();
+        }
+        final int length = tokenEnd - start;
+        switch (DFA.accepts(acceptState)) {
+            case LexerDfa.ACCEPT_VARIABLE:
+                buffer.add(TokenKind.VARIABLE, start, length,
+                           buffer.names().intern(input, start, length));
+                break;
+            case LexerDfa.ACCEPT_NUMBER:
+                buffer.add(TokenKind.NUMBER, start, length, parseNumber(start, tokenEnd));
+                break;
+            default:
+                buffer.add(DFA.fixedToken(acceptState).kind(), start, length, 0);
+        }
+        inputPos = tokenEnd;
+        return true;
+    }
+
+    // Skips whitespace and returns where the next token starts, or the end
+    // of the input if there are no more tokens
+    int nextTokenStart() {
+        skipWhitespace();
+        return inputPos;
+    }
+}
@@ -8,6 +8,10 @@ public class AddToken implements Token {
         return obj instanceof AddToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.ADD;
+    }
+
     public String toString() {
         return "+";
     }
@@ -9,6 +9,10 @@ public class BooleanEqualsToken implements Token {
         return obj instanceof BooleanEqualsToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.BOOLEAN_EQUALS;
+    }
+
     public String toString() {
         return "==";
     }
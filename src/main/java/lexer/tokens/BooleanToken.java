@@ -8,6 +8,10 @@ public class BooleanToken implements Token {
         return obj instanceof BooleanToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.BOOLEAN;
+    }
+
     public String toString() {
         return "boolean";
     }
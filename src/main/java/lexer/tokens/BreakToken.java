@@ -8,6 +8,10 @@ public class BreakToken implements Token {
         return obj instanceof BreakToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.BREAK;
+    }
+
     public String toString() {
         return "break";
     }
@@ -8,6 +8,10 @@ public class ClassToken implements Token {
         return obj instanceof ClassToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.CLASS;
+    }
+
     public String toString() {
         return "Class";
     }
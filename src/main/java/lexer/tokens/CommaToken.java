@@ -8,6 +8,10 @@ public class CommaToken implements Token {
         return obj instanceof CommaToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.COMMA;
+    }
+
     public String toString() {
         return ",";
     }
@@ -8,6 +8,10 @@ public class ConstructorToken implements Token {
         return obj instanceof ConstructorToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.CONSTRUCTOR;
+    }
+
     public String toString() {
         return "constructor";
     }
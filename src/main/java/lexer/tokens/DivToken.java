@@ -8,6 +8,10 @@ public class DivToken implements Token {
         return obj instanceof DivToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.DIV;
+    }
+
     public String toString() {
         return "/";
     }
@@ -8,6 +8,10 @@ public class ElseToken implements Token {
         return obj instanceof ElseToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.ELSE;
+    }
+
     public String toString() {
         return "else";
     }
@@ -8,6 +8,10 @@ public class EqualToken implements Token {
         return obj instanceof EqualToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.EQUAL;
+    }
+
     public String toString() {
         return "=";
     }
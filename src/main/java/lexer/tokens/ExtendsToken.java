@@ -8,6 +8,10 @@ public class ExtendsToken implements Token {
         return obj instanceof ExtendsToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.EXTENDS;
+    }
+
     public String toString() {
         return "extends";
     }
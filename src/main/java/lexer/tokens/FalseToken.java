@@ -9,6 +9,10 @@ public class FalseToken implements Token {
         return obj instanceof FalseToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.FALSE;
+    }
+
     public String toString() {
         return "false";
     }
@@ -9,6 +9,10 @@ public class GreaterThanToken implements Token {
         return obj instanceof GreaterThanToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.GREATER_THAN;
+    }
+
     public String toString() {
         return ">";
     }
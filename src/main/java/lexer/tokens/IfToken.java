@@ -8,6 +8,10 @@ public class IfToken implements Token {
         return obj instanceof IfToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.IF;
+    }
+
     public String toString() {
         return "if";
     }
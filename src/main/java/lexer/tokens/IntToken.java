@@ -8,6 +8,10 @@ public class IntToken implements Token {
         return obj instanceof IntToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.INT;
+    }
+
     public String toString() {
         return "int";
     }
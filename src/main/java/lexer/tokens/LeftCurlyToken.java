@@ -8,6 +8,10 @@ public class LeftCurlyToken implements Token {
         return obj instanceof LeftCurlyToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.LEFT_CURLY;
+    }
+
     public String toString() {
         return "{";
     }
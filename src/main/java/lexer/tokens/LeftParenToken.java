@@ -8,6 +8,10 @@ public class LeftParenToken implements Token {
         return obj instanceof LeftParenToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.LEFT_PAREN;
+    }
+
     public String toString() {
         return "(";
     }
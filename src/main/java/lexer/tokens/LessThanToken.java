@@ -9,6 +9,10 @@ public class LessThanToken implements Token {
         return obj instanceof LessThanToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.LESS_THAN;
+    }
+
     public String toString() {
         return "<";
     }
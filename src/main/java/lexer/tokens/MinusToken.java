@@ -8,6 +8,10 @@ public class MinusToken implements Token {
         return obj instanceof MinusToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.MINUS;
+    }
+
     public String toString() {
         return "-";
     }
@@ -8,6 +8,10 @@ public class MultiplyToken implements Token {
         return obj instanceof MultiplyToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.MULTIPLY;
+    }
+
     public String toString() {
         return "*";
     }
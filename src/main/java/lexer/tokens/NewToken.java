@@ -8,6 +8,10 @@ public class NewToken implements Token {
         return obj instanceof NewToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.NEW;
+    }
+
     public String toString() {
         return "new";
     }
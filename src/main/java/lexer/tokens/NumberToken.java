@@ -7,6 +7,10 @@ public class NumberToken implements Token {
         this.number = number;
     }
 
+    public TokenKind kind() {
+        return TokenKind.NUMBER;
+    }
+
     public String toString() {
         return Integer.toString(this.number);
     }
@@ -16,7 +20,7 @@ public class NumberToken implements Token {
                 ((NumberToken)other).number == number);
     }
 
-        public int hashCode() {
-        return 22;
+    public int hashCode() {
+        return number;
     }
 }
@@ -8,6 +8,10 @@ public class PrintToken implements Token {
         return obj instanceof PrintToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.PRINT;
+    }
+
     public String toString() {
         return "println";
     }
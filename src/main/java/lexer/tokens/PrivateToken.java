@@ -8,6 +8,10 @@ public class PrivateToken implements Token {
         return obj instanceof PrivateToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.PRIVATE;
+    }
+
     public String toString() {
         return "private";
     }
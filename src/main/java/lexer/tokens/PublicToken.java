@@ -8,6 +8,10 @@ public class PublicToken implements Token {
         return obj instanceof PublicToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.PUBLIC;
+    }
+
     public String toString() {
         return "public";
     }
@@ -8,6 +8,10 @@ public class ReturnToken implements Token {
         return obj instanceof ReturnToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.RETURN;
+    }
+
     public String toString() {
         return "return";
     }
@@ -8,6 +8,10 @@ public class RightCurlyToken implements Token {
         return obj instanceof RightCurlyToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.RIGHT_CURLY;
+    }
+
     public String toString() {
         return "}";
     }
@@ -8,6 +8,10 @@ public class RightParenToken implements Token {
         return obj instanceof RightParenToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.RIGHT_PAREN;
+    }
+
     public String toString() {
         return ")";
     }
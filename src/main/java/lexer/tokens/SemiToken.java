@@ -8,6 +8,10 @@ public class SemiToken implements Token {
         return obj instanceof SemiToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.SEMI;
+    }
+
     public String toString() {
         return ";";
     }
@@ -5,7 +5,11 @@ public class StringToken implements Token {
     }
 
     public boolean equals(Object obj) {
-        return obj instanceof AddToken;
+        return obj instanceof StringToken;
+    }
+
+    public TokenKind kind() {
+        return TokenKind.STRING;
     }
 
     public String toString() {
@@ -9,6 +9,10 @@ public class SuperToken implements Token {
         return obj instanceof SuperToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.SUPER;
+    }
+
     public String toString() {
         return "super";
     }
@@ -5,4 +5,5 @@ public interface Token {
     public int hashCode();
     public boolean equals(Object other);
     public String toString();
+    public TokenKind kind();
 }
@@ -0,0 +1,41 @@
+package j2script.tokens;
+
+// One constant per token class, so the lexer and parser can classify
+// tokens without instanceof chains or allocating probe tokens.
+public enum TokenKind {
+    ADD,
+    BOOLEAN,
+    BOOLEAN_EQUALS,
+    BREAK,
+    CLASS,
+    COMMA,
+    CONSTRUCTOR,
+    DIV,
+    ELSE,
+    EQUAL,
+    EXTENDS,
+    FALSE,
+    GREATER_THAN,
+    IF,
+    INT,
+    LEFT_CURLY,
+    LEFT_PAREN,
+    LESS_THAN,
+    MINUS,
+    MULTIPLY,
+    NEW,
+    NUMBER,
+    PRINT,
+    PRIVATE,
+    PUBLIC,
+    RETURN,
+    RIGHT_CURLY,
+    RIGHT_PAREN,
+    SEMI,
+    STRING,
+    SUPER,
+    TRUE,
+    VARIABLE,
+    VOID,
+    WHILE
+}
@@ -9,6 +9,10 @@ public class TrueToken implements Token {
         return obj instanceof TrueToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.TRUE;
+    }
+
     public String toString() {
         return "true";
     }
@@ -11,11 +11,20 @@ public class VariableToken implements Token {
     }
 
     public int hashCode() {
-        return 32;
+        return (name == null) ? 32 : name.hashCode();
     }
 
     public boolean equals(Object obj) {
-        return obj instanceof VariableToken;
+        if (obj instanceof VariableToken) {
+            final String otherName = ((VariableToken)obj).name;
+            return (name == null) ? otherName == null : name.equals(otherName);
+        } else {
+            return false;
+        }
+    }
+
+    public TokenKind kind() {
+        return TokenKind.VARIABLE;
     }
 
     public String toString() {
@@ -8,6 +8,10 @@ public class VoidToken implements Token {
         return obj instanceof VoidToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.VOID;
+    }
+
     public String toString() {
         return "void";
     }
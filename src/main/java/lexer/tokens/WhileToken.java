@@ -8,6 +8,10 @@ public class WhileToken implements Token {
         return obj instanceof WhileToken;
     }
 
+    public TokenKind kind() {
+        return TokenKind.WHILE;
+    }
+
     public String toString() {
         return "while";
     }
@@ -10,7 +10,6 @@ import j2script.TypeChecker;
 
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Scanner;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.File;
@@ -19,18 +18,6 @@ import java.io.BufferedWriter;
 import java.io.PrintWriter;
 
 public class main {
-    private static char[] readFile(File f) throws FileNotFoundException {
-        String theString = "";
-        Scanner scanner = new Scanner(f);
-
-        theString = scanner.nextLine();
-        while (scanner.hasNextLine()) {
-            theString = theString + "\n" + scanner.nextLine();
-        }
-        char[] charArray = theString.toCharArray();
-        return charArray;
-    }
-
     private static void createHTML(File dir) throws IOException{
         File f = new File(dir, "index.html");
         if(!f.exists() && !f.isDirectory()) { 
@@ -59,14 +46,14 @@ public class main {
     public static void main(String[] args) throws FileNotFoundException, ParserException, TokenizerException,
                                                   TypeErrorException, IOException {
         File inputFile = new File(args[0]);
-        // lexer reads file in as char[] returns arraylist of tokens
-        Tokenizer tokenizer = new Tokenizer(readFile(inputFile));
-        final List<Token> tokens = tokenizer.tokenize();
+        // lexer reads the raw UTF-8 file contents and returns a packed token buffer
+        ByteTokenizer tokenizer = new ByteTokenizer(SourceLoader.readBytes(inputFile), inputFile.getPath());
+        final TokenBuffer tokens = tokenizer.tokenizeToBuffer();
         // create parser with tokens as input then call parseMe returns a Program
         Parser parser = new Parser(tokens);
         final Program program = parser.parseMe();
-        // call parse program with Program object
-        TypeChecker.typecheckProgram(program);
+        // call parse program with Program object; errors point into the source
+        TypeChecker.typecheckProgram(program, parser.spans());
         // Create new file object for output
         File dir = new File ("output/");
         File outputFile = new File(dir, inputFile.getName().substring(0, (inputFile.getName()).length() - 4) + ".js");
@@ -0,0 +1,43 @@
+package j2script;
+
+// One constant per node of a FlatAst.  Comments give each node's payload
+// and children, in order.
+public enum AstKind {
+    NULL,               // stands in for a missing child
+    LIST,               // the elements
+    PROGRAM,            // class defs, then the statement
+    CLASS_DEF,          // name; LIST of type variables, EXTENDS or NULL,
+                        // CONSTRUCTOR, LIST of fields, LIST of methods
+    EXTENDS,            // class name; types
+    CONSTRUCTOR,        // LIST of parameters, body
+    METHOD_DEF,         // name; ACCESS, return type, LIST of parameters, body
+    ACCESS,             // 0 for public, 1 for private
+    VAR_DEC,            // variable name; type
+
+    INT_TYPE,
+    BOOLEAN_TYPE,
+    VOID_TYPE,
+    TYPE_VARIABLE,      // name
+    CLASS_TYPE,         // class name; type arguments
+
+    NUMBER,             // value
+    BOOL,               // 0 or 1
+    VARIABLE,           // name
+    BINOP,              // operator code; left, right
+    CLASS_EXP,          // class name; LIST of types, then the arguments
+    METHOD_EXP,         // method name; arguments
+    METHOD_CALL,        // method name; arguments
+    VAR_METHOD,         // method name; VARIABLE receiver, then the arguments
+
+    BLOCK,              // statements
+    BREAK,
+    EXP_STATEMENT,      // exp
+    IF,                 // guard, then, else
+    PRINT,              // exp
+    RETURN_EXP,         // exp
+    RETURN_VOID,
+    SUPER,              // arguments
+    VAR_ASSIGN,         // variable name; exp
+    VAR_DEC_ASSIGN,     // VAR_DEC, exp
+    WHILE               // guard, body
+}
@@ -0,0 +1,105 @@
+package j2script;
+
+import j2script.expressions.BinopExp;
+import j2script.expressions.Exp;
+import j2script.statements.Block;
+import j2script.statements.IfStatement;
+import j2script.statements.Statement;
+import j2script.statements.WhileStatement;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+// toString() and emit() for the nodes that nest: binops, ifs, whiles and
+// blocks.  Children are kept on an explicit stack and written into one
+// StringBuilder, so printing neither recurses once per level nor copies
+// the text of each subtree into its parent.  The output is exactly what
+// the nodes' own string concatenations produced.  Leaf nodes still print
+// themselves.
+public final class AstPrinter {
+    // A pending exp that prints with emit() rather than toString()
+    private static final class Emit {
+        final Exp exp;
+        Emit(final Exp exp) {
+            this.exp = exp;
+        }
+    }
+
+    private final StringBuilder out = new StringBuilder();
+    // Strings, nodes to print with toString() and Emits, next one on top
+    private final Deque<Object> pending = new ArrayDeque<Object>();
+
+    private AstPrinter() {}
+
+    public static String print(final Object node) {
+        final AstPrinter printer = new AstPrinter();
+        printer.push(node);
+        printer.run();
+        return printer.out.toString();
+    }
+
+    public static String emit(final Exp exp) {
+        return print(new Emit(exp));
+    }
+
+    private void run() {
+        while (!pending.isEmpty()) {
+            final Object next = pending.pop();
+            if (next instanceof String) {
+                out.append((String)next);
+            } else if (next instanceof Emit) {
+                final Exp exp = ((Emit)next).exp;
+                if (exp instanceof BinopExp) {
+                    // a binop emits the same as it prints
+                    expand(exp);
+                } else {
+                    out.append(exp.emit());
+                }
+            } else if (!expand(next)) {
+                out.append(next.toString());
+            }
+        }
+    }
+
+    // Pushes the pieces of a nesting node, last piece first.  Returns
+    // false for any other node.
+    private boolean expand(final Object node) {
+        if (node instanceof BinopExp) {
+            final BinopExp binop = (BinopExp)node;
+            push(binop.right);
+            push(" " + binop.op.toString() + " ");
+            push(binop.left);
+        } else if (node instanceof IfStatement) {
+            final IfStatement ifStmt = (IfStatement)node;
+            push("}");
+            push(ifStmt.ifFalse);
+            push(" } else { ");
+            push(ifStmt.ifTrue);
+            push(") { ");
+            push(new Emit(ifStmt.guard));
+            push("if (");
+        } else if (node instanceof WhileStatement) {
+            final WhileStatement whileStmt = (WhileStatement)node;
+            push("}");
+            push(whileStmt.stmt);
+            push(") {");
+            push(new Emit(whileStmt.condition));
+            push("while(");
+        } else if (node instanceof Block) {
+            final List<Statement> statements = ((Block)node).statements;
+            for (int i = statements.size() - 1; i >= 0; i--) {
+                push("\n");
+                push(statements.get(i));
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    // String concatenation prints a missing child as "null"
+    private void push(final Object piece) {
+        pending.push((piece == null) ? "null" : piece);
+    }
+}
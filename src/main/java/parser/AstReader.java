@@ -0,0 +1,437 @@
+package j2script;
+
+import j2script.access.*;
+import j2script.declarations.*;
+import j2script.expressions.*;
+import j2script.names.*;
+import j2script.statements.*;
+import j2script.types.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Loads ASTs that AstWriter wrote.  Reads straight out of the buffer, so
+// a memory-mapped cache file is never copied: opening one only reads the
+// trailer, strings are decoded the first time a node names them, and each
+// class is decoded when asked for.  Expressions and types come out shared
+// through a HashCons.  Every offset in the trailer is checked against the
+// buffer when it is opened, and no read goes past the bytes it belongs
+// in, so a corrupt file is an IOException rather than a runtime one.  Not
+// thread safe.
+public class AstReader {
+    private static final AstKind[] KINDS = AstKind.values();
+
+    private final ByteBuffer buffer;
+    // where the next read() happens
+    private int pos;
+    // read() fails at this position: the footer while the trailer is read,
+    // the trailer after that
+    private int readLimit;
+
+    private final int[] stringStarts;
+    private final int[] stringLengths;
+    private final String[] strings;
+    private final int[] classNames;
+    private final int[] classStarts;
+    private final int[] classEnds;
+    private final int statementStart;
+    private final int statementEnd;
+    private final HashCons nodes = new HashCons();
+
+    public AstReader(final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.slice();
+        final int limit = this.buffer.limit();
+        if (limit < AstWriter.MAGIC.length + 5) {
+            throw new IOException("Not a j2script AST: only " + limit + " bytes");
+        }
+        for (int i = 0; i < AstWriter.MAGIC.length; i++) {
+            if (this.buffer.get(i) != AstWriter.MAGIC[i]) {
+                throw new IOException("Not a j2script AST");
+            }
+        }
+        pos = AstWriter.MAGIC.length;
+        readLimit = limit - 4;
+        final int version = readVarint();
+        if (version != AstWriter.VERSION) {
+            throw new IOException("AST format version " + version + ", expected " + AstWriter.VERSION);
+        }
+        final int trailer = this.buffer.getInt(limit - 4);
+        if (trailer < pos || trailer > limit - 4) {
+            throw new IOException("Corrupt AST: trailer at " + trailer);
+        }
+
+        // nodes lie between the header and the trailer
+        final int nodesStart = pos;
+        pos = trailer;
+        final int stringCount = readCount();
+        stringStarts = new int[stringCount];
+        stringLengths = new int[stringCount];
+        strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            stringLengths[i] = readVarint();
+            stringStarts[i] = pos;
+            if (stringLengths[i] < 0 || stringLengths[i] > readLimit - pos) {
+                throw new IOException("Corrupt AST: string " + i + " of " + stringLengths[i] +
+                                      " bytes at " + pos);
+            }
+            pos += stringLengths[i];
+        }
+        final int classCount = readCount();
+        classNames = new int[classCount];
+        classStarts = new int[classCount];
+        classEnds = new int[classCount];
+        for (int i = 0; i < classCount; i++) {
+            classNames[i] = readVarint();
+            if (classNames[i] < 0 || classNames[i] >= stringCount) {
+                throw new IOException("Corrupt AST: class " + i + " named by no string " + classNames[i]);
+            }
+            classStarts[i] = readVarint();
+            classEnds[i] = checkRange("class " + i, classStarts[i], readVarint(), nodesStart, trailer);
+        }
+        statementStart = readVarint();
+        statementEnd = checkRange("statement", statementStart, readVarint(), nodesStart, trailer);
+        if (pos != limit - 4) {
+            throw new IOException("Corrupt AST: trailer ends at " + pos + ", not " + (limit - 4));
+        }
+        readLimit = trailer;
+    }
+
+    // The end of the range of length bytes at start, which must lie within
+    // [low, high)
+    private static int checkRange(final String what,
+                                  final int start,
+                                  final int length,
+                                  final int low,
+                                  final int high) throws IOException {
+        if (start < low || length <= 0 || start > high - length) {
+            throw new IOException("Corrupt AST: " + what + " at " + start + " for " + length +
+                                  " bytes, outside " + low + " to " + high);
+        }
+        return start + length;
+    }
+
+    public int classCount() {
+        return classNames.length;
+    }
+
+    public String className(final int index) {
+        return string(classNames[index]);
+    }
+
+    // Index of the named class, or -1
+    public int classIndex(final ClassName name) {
+        for (int i = 0; i < classNames.length; i++) {
+            if (string(classNames[i]).equals(name.name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public Program readProgram() throws IOException {
+        final List<ClassDef> classDefs = new ArrayList<ClassDef>(classCount());
+        for (int i = 0; i < classCount(); i++) {
+            classDefs.add(readClass(i));
+        }
+        return new Program(classDefs, readStatement());
+    }
+
+    public Statement readStatement() throws IOException {
+        pos = statementStart;
+        final Statement stmt = readStatementNode();
+        checkEnd(statementEnd);
+        return stmt;
+    }
+
+    public ClassDef readClass(final int index) throws IOException {
+        pos = classStarts[index];
+        final ClassName name = new ClassName(readString());
+        final List<TypeVariable> typeVariables = new ArrayList<TypeVariable>();
+        for (int count = readCount(); count > 0; count--) {
+            typeVariables.add(nodes.typeVariable(readString()));
+        }
+        Extends extendedClass = null;
+        if (readKind() == AstKind.EXTENDS) {
+            final ClassName extendsName = new ClassName(readString());
+            extendedClass = new Extends(extendsName, readTypes());
+        }
+        Constructor constructor = null;
+        if (readKind() == AstKind.CONSTRUCTOR) {
+            final List<VarDec> parameters = readVarDecs();
+            constructor = new Constructor(parameters, readStatementNode());
+        }
+        final List<VarDec> instanceVars = readVarDecs();
+        final int methodCount = readCount();
+        final List<MethodDef> methodDefs = new ArrayList<MethodDef>(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            final MethodName methodName = new MethodName(readString());
+            final Access access = (read() == 1) ? new PrivateAccess() : new PublicAccess();
+            final Type returnType = readType();
+            final List<VarDec> varDecs = readVarDecs();
+            methodDefs.add(new MethodDef(access, returnType, methodName, varDecs, readStatementNode()));
+        }
+        checkEnd(classEnds[index]);
+        return new ClassDef(name, constructor, extendedClass, instanceVars, methodDefs, typeVariables);
+    }
+
+    private void checkEnd(final int end) throws IOException {
+        if (pos != end) {
+            throw new IOException("Corrupt AST: node ends at " + pos + ", not " + end);
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos >= readLimit) {
+            throw new IOException("Corrupt AST: read past " + readLimit);
+        }
+        return buffer.get(pos++) & 0xFF;
+    }
+
+    // A number of things that follow, each at least a byte long
+    private int readCount() throws IOException {
+        final int count = readVarint();
+        if (count < 0 || count > readLimit - pos) {
+            throw new IOException("Corrupt AST: count " + count + " at " + pos);
+        }
+        return count;
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = read();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt AST: varint too long at " + pos);
+    }
+
+    private AstKind readKind() throws IOException {
+        final int ordinal = read();
+        if (ordinal >= KINDS.length) {
+            throw new IOException("Corrupt AST: no node kind " + ordinal + " at " + (pos - 1));
+        }
+        return KINDS[ordinal];
+    }
+
+    private String string(final int id) {
+        if (strings[id] == null) {
+            final byte[] utf8 = new byte[stringLengths[id]];
+            final ByteBuffer source = buffer.duplicate();
+            source.position(stringStarts[id]);
+            source.get(utf8);
+            strings[id] = new String(utf8, StandardCharsets.UTF_8);
+        }
+        return strings[id];
+    }
+
+    private String readString() throws IOException {
+        final int id = readVarint();
+        if (id < 0 || id >= strings.length) {
+            throw new IOException("Corrupt AST: no string " + id + " at " + pos);
+        }
+        return string(id);
+    }
+
+    private List<VarDec> readVarDecs() throws IOException {
+        final int count = readCount();
+        final List<VarDec> varDecs = new ArrayList<VarDec>(count);
+        for (int i = 0; i < count; i++) {
+            varDecs.add(readVarDec());
+        }
+        return varDecs;
+    }
+
+    private VarDec readVarDec() throws IOException {
+        final Variable var = new Variable(readString());
+        return new VarDec(readType(), var);
+    }
+
+    private List<Type> readTypes() throws IOException {
+        // one more than the number of types, 0 for none at all
+        final int count = readVarint();
+        if (count < 0 || count - 1 > readLimit - pos) {
+            throw new IOException("Corrupt AST: count " + count + " at " + pos);
+        }
+        if (count == 0) {
+            return null;
+        }
+        final List<Type> types = new ArrayList<Type>(count - 1);
+        for (int i = 1; i < count; i++) {
+            types.add(readType());
+        }
+        return types;
+    }
+
+    private Type readType() throws IOException {
+        final AstKind kind = readKind();
+        switch (kind) {
+            case NULL:
+                return null;
+            case INT_TYPE:
+                return nodes.intType();
+            case BOOLEAN_TYPE:
+                return nodes.booleanType();
+            case VOID_TYPE:
+                return nodes.voidType();
+            case TYPE_VARIABLE:
+                return nodes.typeVariable(readString());
+            case CLASS_TYPE: {
+                final ClassName name = new ClassName(readString());
+                return nodes.classType(name, readTypes());
+            }
+            default:
+                throw new IOException("Corrupt AST: " + kind + " where a type belongs at " + (pos - 1));
+        }
+    }
+
+    private Statement readStatementNode() throws IOException {
+        return DeepRecursion.call(() -> readStatementHere());
+    }
+
+    private Statement readStatementHere() throws IOException {
+        final AstKind kind = readKind();
+        switch (kind) {
+            case NULL:
+                return null;
+            case BLOCK: {
+                final int count = readCount();
+                final List<Statement> statements = new ArrayList<Statement>(count);
+                for (int i = 0; i < count; i++) {
+                    statements.add(readStatementNode());
+                }
+                return new Block(statements);
+            }
+            case BREAK:
+                return new BreakStatement();
+            case EXP_STATEMENT:
+                return new ExpStatement(readExp());
+            case IF: {
+                final Exp guard = readExp();
+                final Statement ifTrue = readStatementNode();
+                return new IfStatement(guard, ifTrue, readStatementNode());
+            }
+            case PRINT:
+                return new PrintStatement(readExp());
+            case RETURN_EXP:
+                return new ReturnExpStatement(readExp());
+            case RETURN_VOID:
+                return new ReturnVoidStatement();
+            case SUPER:
+                return new SuperStatement(readExps());
+            case VAR_ASSIGN: {
+                final Variable variable = new Variable(readString());
+                return new VarAssignment(variable, readExp());
+            }
+            case VAR_DEC_ASSIGN: {
+                final VarDec varDec = readVarDec();
+                return new VarDecAssignment(varDec, readExp());
+            }
+            case WHILE: {
+                final Exp condition = readExp();
+                return new WhileStatement(condition, readStatementNode());
+            }
+            default:
+                return readExpAfter(kind);
+        }
+    }
+
+    private List<Exp> readExps() throws IOException {
+        final int count = readCount();
+        final List<Exp> exps = new ArrayList<Exp>(count);
+        for (int i = 0; i < count; i++) {
+            exps.add(readExp());
+        }
+        return exps;
+    }
+
+    private Exp readExp() throws IOException {
+        final AstKind kind = readKind();
+        switch (kind) {
+            case NULL:
+            case NUMBER:
+            case BOOL:
+            case VARIABLE:
+                // leaves, most of the nodes, can't nest any deeper
+                return readExpAfter(kind);
+            default:
+                return DeepRecursion.call(() -> readExpAfter(kind));
+        }
+    }
+
+    // Operators always have both operands
+    private Exp readOperand() throws IOException {
+        final int start = pos;
+        final Exp exp = readExp();
+        if (exp == null) {
+            throw new IOException("Corrupt AST: missing operand at " + start);
+        }
+        return exp;
+    }
+
+    // The expression whose kind byte was just read
+    private Exp readExpAfter(final AstKind kind) throws IOException {
+        switch (kind) {
+            case NULL:
+                return null;
+            case NUMBER: {
+                final int zigzag = readVarint();
+                return nodes.number((zigzag >>> 1) ^ -(zigzag & 1));
+            }
+            case BOOL:
+                return nodes.bool(read() != 0);
+            case VARIABLE:
+                return nodes.variable(readString());
+            case BINOP: {
+                // the operators of a left spine come first; see AstWriter
+                int[] ops = new int[8];
+                int spine = 0;
+                while (true) {
+                    if (spine == ops.length) {
+                        ops = Arrays.copyOf(ops, spine * 2);
+                    }
+                    final int op = read();
+                    if (op >= FlatAst.OPS.length) {
+                        throw new IOException("Corrupt AST: no operator " + op + " at " + (pos - 1));
+                    }
+                    ops[spine++] = op;
+                    if (pos >= readLimit || buffer.get(pos) != AstKind.BINOP.ordinal()) {
+                        break;
+                    }
+                    pos++;
+                }
+                Exp exp = readOperand();
+                while (spine > 0) {
+                    exp = nodes.binop(exp, FlatAst.OPS[ops[--spine]], readOperand());
+                }
+                return exp;
+            }
+            case CLASS_EXP: {
+                final ClassName name = new ClassName(readString());
+                final List<Type> types = readTypes();
+                return new ClassExp(name, types, readExps());
+            }
+            case METHOD_EXP: {
+                final MethodName name = new MethodName(readString());
+                return new MethodExp(name, readExps());
+            }
+            case METHOD_CALL: {
+                final MethodName name = new MethodName(readString());
+                return new Methodcall(name, readExps());
+            }
+            case VAR_METHOD: {
+                final MethodName name = new MethodName(readString());
+                final Variable var = new Variable(readString());
+                return new VarMethodExp(var, name, readExps());
+            }
+            default:
+                throw new IOException("Corrupt AST: " + kind + " where an expression belongs at " + (pos - 1));
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package j2script;
+
+import j2script.access.*;
+import j2script.declarations.*;
+import j2script.expressions.*;
+import j2script.names.*;
+import j2script.statements.*;
+import j2script.types.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes a Program in the binary form AstReader loads, so a parse can be
+// cached and loaded later without lexing or parsing again.  The layout:
+//
+//   header   "J2AS", format version
+//   body     each class, then the program's statement
+//   trailer  string table; class index of (name, start, length); the
+//            statement's start and length
+//   footer   where the trailer starts, as 4 big-endian bytes
+//
+// Counts, lengths, offsets and string ids are unsigned varints, numbers
+// are zigzag varints.  A node is its AstKind ordinal as one byte followed
+// by its payload and children in the order AstKind gives; a list is a
+// count followed by its elements.  Names are string ids, so each name is
+// stored once, and the index lets AstReader load one class without
+// touching the others.  Classes are written out as they come, and the
+// strings and index, which aren't known until the end, go last.
+public class AstWriter {
+    public static final byte[] MAGIC = { 'J', '2', 'A', 'S' };
+    public static final int VERSION = 1;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int buffered;
+    // bytes written so far, buffered ones included
+    private int position;
+
+    private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+    private final List<int[]> classIndex = new ArrayList<int[]>();
+    private int statementStart = -1;
+    private int statementLength;
+
+    public AstWriter(final OutputStream out) throws IOException {
+        this.out = out;
+        for (final byte b : MAGIC) {
+            writeByte(b);
+        }
+        writeVarint(VERSION);
+    }
+
+    // The whole program, encoded
+    public static byte[] encode(final Program program) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            final AstWriter writer = new AstWriter(bytes);
+            writer.writeProgram(program);
+            writer.finish();
+        } catch (final IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public void writeProgram(final Program program) throws IOException {
+        for (final ClassDef classDef : program.classDefs) {
+            writeClass(classDef);
+        }
+        writeStatement(program.statement);
+    }
+
+    public void writeClass(final ClassDef classDef) throws IOException {
+        if (statementStart >= 0) {
+            throw new IllegalStateException("Classes go before the statement");
+        }
+        final int start = position;
+        final int name = stringId(classDef.name.name);
+        writeVarint(name);
+        writeVarint(classDef.typeVariables.size());
+        for (final TypeVariable typeVariable : classDef.typeVariables) {
+            writeString(typeVariable.name);
+        }
+        if (classDef.extendedClass == null) {
+            writeKind(AstKind.NULL);
+        } else {
+            writeKind(AstKind.EXTENDS);
+            writeString(classDef.extendedClass.extendsName.name);
+            writeTypes(classDef.extendedClass.types);
+        }
+        if (classDef.constructor == null) {
+            writeKind(AstKind.NULL);
+        } else {
+            writeKind(AstKind.CONSTRUCTOR);
+            writeVarDecs(classDef.constructor.parameters);
+            writeStatementNode(classDef.constructor.body);
+        }
+        writeVarDecs(classDef.instanceVars);
+        writeVarint(classDef.methodDefs.size());
+        for (final MethodDef methodDef : classDef.methodDefs) {
+            writeString(methodDef.name.name);
+            writeByte(methodDef.access instanceof PrivateAccess ? 1 : 0);
+            writeType(methodDef.returnType);
+            writeVarDecs(methodDef.varDecs);
+            writeStatementNode(methodDef.body);
+        }
+        classIndex.add(new int[] { name, start, position - start });
+    }
+
+    // The program's statement, after all of its classes
+    public void writeStatement(final Statement stmt) throws IOException {
+        if (statementStart >= 0) {
+            throw new IllegalStateException("The statement is already written");
+        }
+        statementStart = position;
+        writeStatementNode(stmt);
+        statementLength = position - statementStart;
+    }
+
+    // Writes the trailer and footer and flushes; nothing can follow
+    public void finish() throws IOException {
+        if (statementStart < 0) {
+            throw new IllegalStateException("The statement hasn't been written");
+        }
+        final int trailer = position;
+        writeVarint(strings.size());
+        for (final String string : strings) {
+            final byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            for (final byte b : utf8) {
+                writeByte(b);
+            }
+        }
+        writeVarint(classIndex.size());
+        for (final int[] entry : classIndex) {
+            writeVarint(entry[0]);
+            writeVarint(entry[1]);
+            writeVarint(entry[2]);
+        }
+        writeVarint(statementStart);
+        writeVarint(statementLength);
+        writeByte(trailer >>> 24);
+        writeByte(trailer >>> 16);
+        writeByte(trailer >>> 8);
+        writeByte(trailer);
+        out.write(buffer, 0, buffered);
+        buffered = 0;
+        out.flush();
+    }
+
+    private void writeByte(final int b) throws IOException {
+        if (buffered == buffer.length) {
+            out.write(buffer, 0, buffered);
+            buffered = 0;
+        }
+        buffer[buffered++] = (byte)b;
+        position++;
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+
+    private void writeKind(final AstKind kind) throws IOException {
+        writeByte(kind.ordinal());
+    }
+
+    private int stringId(final String string) {
+        Integer id = stringIds.get(string);
+        if (id == null) {
+            id = strings.size();
+            stringIds.put(string, id);
+            strings.add(string);
+        }
+        return id;
+    }
+
+    private void writeString(final String string) throws IOException {
+        writeVarint(stringId(string));
+    }
+
+    private void writeVarDecs(final List<VarDec> varDecs) throws IOException {
+        writeVarint(varDecs.size());
+        for (final VarDec varDec : varDecs) {
+            writeVarDec(varDec);
+        }
+    }
+
+    private void writeVarDec(final VarDec varDec) throws IOException {
+        writeString(varDec.var.name);
+        writeType(varDec.type);
+    }
+
+    // A missing list, which ClassTypes can have, is a count of 0; the
+    // others are stored one higher
+    private void writeTypes(final List<Type> types) throws IOException {
+        if (types == null) {
+            writeVarint(0);
+            return;
+        }
+        writeVarint(types.size() + 1);
+        for (final Type type : types) {
+            writeType(type);
+        }
+    }
+
+    private void writeType(final Type type) throws IOException {
+        if (type == null) {
+            writeKind(AstKind.NULL);
+        } else if (type instanceof IntType) {
+            writeKind(AstKind.INT_TYPE);
+        } else if (type instanceof BooleanType) {
+            writeKind(AstKind.BOOLEAN_TYPE);
+        } else if (type instanceof VoidType) {
+            writeKind(AstKind.VOID_TYPE);
+        } else if (type instanceof TypeVariable) {
+            writeKind(AstKind.TYPE_VARIABLE);
+            writeString(((TypeVariable)type).name);
+        } else if (type instanceof ClassType) {
+            final ClassType classType = (ClassType)type;
+            writeKind(AstKind.CLASS_TYPE);
+            writeString(classType.name.name);
+            writeTypes(classType.types);
+        } else {
+            throw new IllegalArgumentException("Unknown type: " + type);
+        }
+    }
+
+    private void writeStatementNode(final Statement stmt) throws IOException {
+        DeepRecursion.call(() -> {
+            writeStatementHere(stmt);
+            return null;
+        });
+    }
+
+    private void writeStatementHere(final Statement stmt) throws IOException {
+        if (stmt == null) {
+            writeKind(AstKind.NULL);
+        } else if (stmt instanceof DeferredStatement) {
+            try {
+                writeStatementHere(((DeferredStatement)stmt).expand());
+            } catch (final ParserException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        } else if (stmt instanceof Exp) {
+            writeExp((Exp)stmt);
+        } else if (stmt instanceof Block) {
+            final List<Statement> statements = ((Block)stmt).statements;
+            writeKind(AstKind.BLOCK);
+            writeVarint(statements.size());
+            for (final Statement inner : statements) {
+                writeStatementNode(inner);
+            }
+        } else if (stmt instanceof BreakStatement) {
+            writeKind(AstKind.BREAK);
+        } else if (stmt instanceof ExpStatement) {
+            writeKind(AstKind.EXP_STATEMENT);
+            writeExp(((ExpStatement)stmt).exp);
+        } else if (stmt instanceof IfStatement) {
+            final IfStatement ifStmt = (IfStatement)stmt;
+            writeKind(AstKind.IF);
+            writeExp(ifStmt.guard);
+            writeStatementNode(ifStmt.ifTrue);
+            writeStatementNode(ifStmt.ifFalse);
+        } else if (stmt instanceof PrintStatement) {
+            writeKind(AstKind.PRINT);
+            writeExp(((PrintStatement)stmt).exp);
+        } else if (stmt instanceof ReturnExpStatement) {
+            writeKind(AstKind.RETURN_EXP);
+            writeExp(((ReturnExpStatement)stmt).exp);
+        } else if (stmt instanceof ReturnVoidStatement) {
+            writeKind(AstKind.RETURN_VOID);
+        } else if (stmt instanceof SuperStatement) {
+            writeKind(AstKind.SUPER);
+            writeExps(((SuperStatement)stmt).exp);
+        } else if (stmt instanceof VarAssignment) {
+            final VarAssignment assignment = (VarAssignment)stmt;
+            writeKind(AstKind.VAR_ASSIGN);
+            writeString(assignment.variable.name);
+            writeExp(assignment.exp);
+        } else if (stmt instanceof VarDecAssignment) {
+            final VarDecAssignment assignment = (VarDecAssignment)stmt;
+            writeKind(AstKind.VAR_DEC_ASSIGN);
+            writeVarDec(assignment.varDec);
+            writeExp(assignment.exp);
+        } else if (stmt instanceof WhileStatement) {
+            final WhileStatement whileStmt = (WhileStatement)stmt;
+            writeKind(AstKind.WHILE);
+            writeExp(whileStmt.condition);
+            writeStatementNode(whileStmt.stmt);
+        } else {
+            throw new IllegalArgumentException("Unknown statement: " + stmt);
+        }
+    }
+
+    private void writeExps(final List<Exp> exps) throws IOException {
+        writeVarint(exps.size());
+        for (final Exp exp : exps) {
+            writeExp(exp);
+        }
+    }
+
+    private void writeExp(final Exp exp) throws IOException {
+        DeepRecursion.call(() -> {
+            writeExpHere(exp);
+            return null;
+        });
+    }
+
+    private void writeExpHere(final Exp exp) throws IOException {
+        if (exp == null) {
+            writeKind(AstKind.NULL);
+        } else if (exp instanceof NumberExp) {
+            final int number = ((NumberExp)exp).number;
+            writeKind(AstKind.NUMBER);
+            writeVarint((number << 1) ^ (number >> 31));
+        } else if (exp instanceof BoolExp) {
+            writeKind(AstKind.BOOL);
+            writeByte(((BoolExp)exp).value ? 1 : 0);
+        } else if (exp instanceof VariableExp) {
+            writeKind(AstKind.VARIABLE);
+            writeString(((VariableExp)exp).var.name);
+        } else if (exp instanceof BinopExp) {
+            // a left spine comes out as all of its operators, the
+            // innermost left operand, then the right operands from the
+            // inside out: the same bytes recursion would give, written
+            // with loops
+            final List<BinopExp> spine = new ArrayList<BinopExp>();
+            Exp left = exp;
+            while (left instanceof BinopExp) {
+                final BinopExp binop = (BinopExp)left;
+                spine.add(binop);
+                writeKind(AstKind.BINOP);
+                writeByte(FlatAst.opCode(binop.op));
+                left = binop.left;
+            }
+            writeExp(left);
+            for (int i = spine.size() - 1; i >= 0; i--) {
+                writeExp(spine.get(i).right);
+            }
+        } else if (exp instanceof ClassExp) {
+            final ClassExp classExp = (ClassExp)exp;
+            writeKind(AstKind.CLASS_EXP);
+            writeString(classExp.name.name);
+            writeTypes(classExp.types);
+            writeExps(classExp.parameters);
+        } else if (exp instanceof MethodExp) {
+            final MethodExp methodExp = (MethodExp)exp;
+            writeKind(AstKind.METHOD_EXP);
+            writeString(methodExp.methodName.name);
+            writeExps(methodExp.parameters);
+        } else if (exp instanceof Methodcall) {
+            final Methodcall call = (Methodcall)exp;
+            writeKind(AstKind.METHOD_CALL);
+            writeString(call.methodName.name);
+            writeExps(call.parameters);
+        } else if (exp instanceof VarMethodExp) {
+            final VarMethodExp varMethod = (VarMethodExp)exp;
+            writeKind(AstKind.VAR_METHOD);
+            writeString(varMethod.methodName.name);
+            writeString(varMethod.var.name);
+            writeExps(varMethod.parameters);
+        } else {
+            throw new IllegalArgumentException("Unknown expression: " + exp);
+        }
+    }
+}
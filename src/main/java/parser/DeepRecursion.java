@@ -0,0 +1,80 @@
+package j2script;
+
+// Keeps recursive passes over deeply nested programs off the end of the
+// thread stack.  Each recursive entry point (parseStatement, typeofExp,
+// compileStatement, ...) runs its body through call().  Once a thread is
+// more than its limit of levels deep, the call continues on a new thread
+// with a large, empty stack while the old thread waits for it.  Only one
+// thread runs at a time, so passes need no extra synchronization, and
+// stack memory grows linearly with nesting depth instead of overflowing.
+public final class DeepRecursion {
+    // Levels allowed on a thread we didn't start, whose stack may be small
+    private static final int CALLER_LEVELS = 256;
+    // Levels, and stack bytes, for the threads started here
+    private static final int OVERFLOW_LEVELS = 8192;
+    private static final long OVERFLOW_STACK_BYTES = 64L << 20;
+
+    // { levels in use, limit } for the current thread
+    private static final ThreadLocal<int[]> LEVELS = new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            return new int[] { 0, CALLER_LEVELS };
+        }
+    };
+
+    // One level of a recursive pass
+    public interface Level<A, E extends Exception> {
+        public A run() throws E;
+    }
+
+    private DeepRecursion() {}
+
+    public static <A, E extends Exception> A call(final Level<A, E> level) throws E {
+        final int[] levels = LEVELS.get();
+        if (levels[0] < levels[1]) {
+            levels[0]++;
+            try {
+                return level.run();
+            } finally {
+                levels[0]--;
+            }
+        }
+        return callOnNewStack(level);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <A, E extends Exception> A callOnNewStack(final Level<A, E> level) throws E {
+        final Object[] result = new Object[1];
+        final Throwable[] failure = new Throwable[1];
+        final Thread thread = new Thread(null, () -> {
+            LEVELS.get()[1] = OVERFLOW_LEVELS;
+            try {
+                result[0] = level.run();
+            } catch (final Throwable e) {
+                failure[0] = e;
+            }
+        }, "deep-recursion", OVERFLOW_STACK_BYTES);
+        thread.start();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (final InterruptedException e) {
+                // the nested level still owns the pass; wait for it
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] instanceof RuntimeException) {
+            throw (RuntimeException)failure[0];
+        } else if (failure[0] instanceof Error) {
+            throw (Error)failure[0];
+        } else if (failure[0] != null) {
+            // only run() throws checked exceptions, and it throws E
+            throw (E)failure[0];
+        }
+        return (A)result[0];
+    }
+}
@@ -0,0 +1,12 @@
+package j2script;
+
+import j2script.statements.Statement;
+
+// A method or constructor body, or a main statement, kept in some other
+// form until a pass needs it: one Parser.parseSkeleton() skipped, or one
+// still in a FlatAst.  Passes go through LazyStatement.expand() rather
+// than looking for these themselves.
+public interface DeferredStatement extends Statement {
+    // The statement itself, parsed or built if need be
+    Statement expand() throws ParserException;
+}
@@ -0,0 +1,582 @@
+package j2script;
+
+import j2script.access.*;
+import j2script.declarations.*;
+import j2script.expressions.*;
+import j2script.names.*;
+import j2script.operators.*;
+import j2script.statements.*;
+import j2script.types.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Compact, read-only form of a Program.
+// Node i is kinds[i], its links firstChild[i] and nextSibling[i], and one
+// int of payload: a number, a boolean, an operator code or the NameTable id
+// of a name.  Names are interned once and every node costs 13 bytes of
+// primitive arrays, where the object AST spends a header, a List and often
+// a Name and a String per node.  Node 0 is the PROGRAM.
+//
+// Parser.parseFlat() builds one without ever holding the whole object AST,
+// and toSkeleton() hands the checker and code generator classes whose
+// bodies are built from here each time they're expanded, so those passes
+// don't hold it either.  Read only once built, so safe to share between
+// threads.
+public class FlatAst {
+    public static final int NONE = -1;
+    static final int ROOT = 0;
+    private static final AstKind[] KINDS = AstKind.values();
+    // operator codes are indexes into this table; AstWriter uses them too
+    static final Op[] OPS = {
+        new PlusOp(), new MinusOp(), new MultOp(), new DivOp(), new LessThanOp(), new EqualsOp()
+    };
+
+    private final NameTable names;
+    private byte[] kinds;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] payloads;
+    private int size;
+    // last child of each node; only needed while building
+    private int[] lastChild;
+
+    // An empty PROGRAM to add classes and then the statement to, ended by
+    // finish()
+    FlatAst(final NameTable names) {
+        this.names = names;
+        this.kinds = new byte[256];
+        this.firstChild = new int[256];
+        this.nextSibling = new int[256];
+        this.payloads = new int[256];
+        this.lastChild = new int[256];
+        add(NONE, AstKind.PROGRAM, 0);
+    }
+
+    public static FlatAst of(final Program program) throws ParserException {
+        return of(program, new NameTable());
+    }
+
+    // Names are interned into the given table, so ids can be shared with a
+    // TokenBuffer lexed with the same table.  A body Parser.parseSkeleton()
+    // skipped is parsed on the way, and may fail to.
+    public static FlatAst of(final Program program, final NameTable names) throws ParserException {
+        final FlatAst ast = new FlatAst(names);
+        for (final ClassDef classDef : program.classDefs) {
+            ast.addClassDef(ROOT, classDef);
+        }
+        ast.addStatement(ROOT, program.statement);
+        return ast.finish();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public NameTable names() {
+        return names;
+    }
+
+    public AstKind kind(final int node) {
+        return KINDS[kinds[node]];
+    }
+
+    // First child of the node, or NONE
+    public int firstChild(final int node) {
+        return firstChild[node];
+    }
+
+    // Next child of the node's parent, or NONE
+    public int nextSibling(final int node) {
+        return nextSibling[node];
+    }
+
+    public int childCount(final int node) {
+        int count = 0;
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            count++;
+        }
+        return count;
+    }
+
+    // The index'th child of the node, or NONE
+    public int child(final int node, final int index) {
+        int child = firstChild[node];
+        for (int i = 0; i < index && child != NONE; i++) {
+            child = nextSibling[child];
+        }
+        return child;
+    }
+
+    public int payload(final int node) {
+        return payloads[node];
+    }
+
+    public int number(final int node) {
+        return payloads[node];
+    }
+
+    public boolean bool(final int node) {
+        return payloads[node] != 0;
+    }
+
+    public String name(final int node) {
+        return names.name(payloads[node]);
+    }
+
+    public Op op(final int node) {
+        return OPS[payloads[node]];
+    }
+
+    // Approximate heap used by the node arrays
+    public long bytes() {
+        return (long)kinds.length + 4L * (firstChild.length + nextSibling.length + payloads.length);
+    }
+
+    // Adds a node as the last child of parent (or as the root, if parent is
+    // NONE) and returns it
+    int add(final int parent, final AstKind kind, final int payload) {
+        if (size == kinds.length) {
+            final int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+            lastChild = Arrays.copyOf(lastChild, capacity);
+        }
+        final int node = size++;
+        kinds[node] = (byte)kind.ordinal();
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        payloads[node] = payload;
+        lastChild[node] = NONE;
+        if (parent != NONE) {
+            if (lastChild[parent] == NONE) {
+                firstChild[parent] = node;
+            } else {
+                nextSibling[lastChild[parent]] = node;
+            }
+            lastChild[parent] = node;
+        }
+        return node;
+    }
+
+    private int addName(final int parent, final AstKind kind, final Name name) {
+        return add(parent, kind, names.intern(name.name));
+    }
+
+    // Trims the arrays; nothing can be added after
+    FlatAst finish() {
+        kinds = Arrays.copyOf(kinds, size);
+        firstChild = Arrays.copyOf(firstChild, size);
+        nextSibling = Arrays.copyOf(nextSibling, size);
+        payloads = Arrays.copyOf(payloads, size);
+        lastChild = null;
+        return this;
+    }
+
+    void addClassDef(final int parent, final ClassDef classDef) throws ParserException {
+        final int node = addName(parent, AstKind.CLASS_DEF, classDef.name);
+        final int typeVariables = add(node, AstKind.LIST, 0);
+        for (final TypeVariable typeVariable : classDef.typeVariables) {
+            addType(typeVariables, typeVariable);
+        }
+        if (classDef.extendedClass == null) {
+            add(node, AstKind.NULL, 0);
+        } else {
+            final int extended = addName(node, AstKind.EXTENDS, classDef.extendedClass.extendsName);
+            addTypes(extended, classDef.extendedClass.types);
+        }
+        if (classDef.constructor == null) {
+            add(node, AstKind.NULL, 0);
+        } else {
+            final int constructor = add(node, AstKind.CONSTRUCTOR, 0);
+            addVarDecs(add(constructor, AstKind.LIST, 0), classDef.constructor.parameters);
+            addStatement(constructor, classDef.constructor.body);
+        }
+        addVarDecs(add(node, AstKind.LIST, 0), classDef.instanceVars);
+        final int methods = add(node, AstKind.LIST, 0);
+        for (final MethodDef methodDef : classDef.methodDefs) {
+            final int method = addName(methods, AstKind.METHOD_DEF, methodDef.name);
+            add(method, AstKind.ACCESS, methodDef.access instanceof PrivateAccess ? 1 : 0);
+            addType(method, methodDef.returnType);
+            addVarDecs(add(method, AstKind.LIST, 0), methodDef.varDecs);
+            addStatement(method, methodDef.body);
+        }
+    }
+
+    private void addVarDecs(final int parent, final List<VarDec> varDecs) {
+        for (final VarDec varDec : varDecs) {
+            addVarDec(parent, varDec);
+        }
+    }
+
+    private void addVarDec(final int parent, final VarDec varDec) {
+        addType(addName(parent, AstKind.VAR_DEC, varDec.var), varDec.type);
+    }
+
+    private void addTypes(final int parent, final List<Type> types) {
+        for (final Type type : types) {
+            addType(parent, type);
+        }
+    }
+
+    private void addType(final int parent, final Type type) {
+        if (type == null) {
+            add(parent, AstKind.NULL, 0);
+        } else if (type instanceof IntType) {
+            add(parent, AstKind.INT_TYPE, 0);
+        } else if (type instanceof BooleanType) {
+            add(parent, AstKind.BOOLEAN_TYPE, 0);
+        } else if (type instanceof VoidType) {
+            add(parent, AstKind.VOID_TYPE, 0);
+        } else if (type instanceof TypeVariable) {
+            add(parent, AstKind.TYPE_VARIABLE, names.intern(((TypeVariable)type).name));
+        } else if (type instanceof ClassType) {
+            final ClassType classType = (ClassType)type;
+            addTypes(addName(parent, AstKind.CLASS_TYPE, classType.name), classType.types);
+        } else {
+            throw new IllegalArgumentException("Unknown type: " + type);
+        }
+    }
+
+    void addStatement(final int parent, final Statement stmt) throws ParserException {
+        if (stmt == null) {
+            add(parent, AstKind.NULL, 0);
+        } else if (stmt instanceof DeferredStatement) {
+            addStatement(parent, ((DeferredStatement)stmt).expand());
+        } else if (stmt instanceof Exp) {
+            addExp(parent, (Exp)stmt);
+        } else if (stmt instanceof Block) {
+            final int node = add(parent, AstKind.BLOCK, 0);
+            for (final Statement inner : ((Block)stmt).statements) {
+                addStatement(node, inner);
+            }
+        } else if (stmt instanceof BreakStatement) {
+            add(parent, AstKind.BREAK, 0);
+        } else if (stmt instanceof ExpStatement) {
+            addExp(add(parent, AstKind.EXP_STATEMENT, 0), ((ExpStatement)stmt).exp);
+        } else if (stmt instanceof IfStatement) {
+            final IfStatement ifStmt = (IfStatement)stmt;
+            final int node = add(parent, AstKind.IF, 0);
+            addExp(node, ifStmt.guard);
+            addStatement(node, ifStmt.ifTrue);
+            addStatement(node, ifStmt.ifFalse);
+        } else if (stmt instanceof PrintStatement) {
+            addExp(add(parent, AstKind.PRINT, 0), ((PrintStatement)stmt).exp);
+        } else if (stmt instanceof ReturnExpStatement) {
+            addExp(add(parent, AstKind.RETURN_EXP, 0), ((ReturnExpStatement)stmt).exp);
+        } else if (stmt instanceof ReturnVoidStatement) {
+            add(parent, AstKind.RETURN_VOID, 0);
+        } else if (stmt instanceof SuperStatement) {
+            addExps(add(parent, AstKind.SUPER, 0), ((SuperStatement)stmt).exp);
+        } else if (stmt instanceof VarAssignment) {
+            final VarAssignment assignment = (VarAssignment)stmt;
+            addExp(addName(parent, AstKind.VAR_ASSIGN, assignment.variable), assignment.exp);
+        } else if (stmt instanceof VarDecAssignment) {
+            final VarDecAssignment assignment = (VarDecAssignment)stmt;
+            final int node = add(parent, AstKind.VAR_DEC_ASSIGN, 0);
+            addVarDec(node, assignment.varDec);
+            addExp(node, assignment.exp);
+        } else if (stmt instanceof WhileStatement) {
+            final WhileStatement whileStmt = (WhileStatement)stmt;
+            final int node = add(parent, AstKind.WHILE, 0);
+            addExp(node, whileStmt.condition);
+            addStatement(node, whileStmt.stmt);
+        } else {
+            throw new IllegalArgumentException("Unknown statement: " + stmt);
+        }
+    }
+
+    private void addExps(final int parent, final List<Exp> exps) {
+        for (final Exp exp : exps) {
+            addExp(parent, exp);
+        }
+    }
+
+    private void addExp(final int parent, final Exp exp) {
+        if (exp == null) {
+            add(parent, AstKind.NULL, 0);
+        } else if (exp instanceof NumberExp) {
+            add(parent, AstKind.NUMBER, ((NumberExp)exp).number);
+        } else if (exp instanceof BoolExp) {
+            add(parent, AstKind.BOOL, ((BoolExp)exp).value ? 1 : 0);
+        } else if (exp instanceof VariableExp) {
+            addName(parent, AstKind.VARIABLE, ((VariableExp)exp).var);
+        } else if (exp instanceof BinopExp) {
+            addBinop(parent, (BinopExp)exp);
+        } else if (exp instanceof ClassExp) {
+            final ClassExp classExp = (ClassExp)exp;
+            final int node = addName(parent, AstKind.CLASS_EXP, classExp.name);
+            addTypes(add(node, AstKind.LIST, 0), classExp.types);
+            addExps(node, classExp.parameters);
+        } else if (exp instanceof MethodExp) {
+            final MethodExp methodExp = (MethodExp)exp;
+            addExps(addName(parent, AstKind.METHOD_EXP, methodExp.methodName), methodExp.parameters);
+        } else if (exp instanceof Methodcall) {
+            final Methodcall call = (Methodcall)exp;
+            addExps(addName(parent, AstKind.METHOD_CALL, call.methodName), call.parameters);
+        } else if (exp instanceof VarMethodExp) {
+            final VarMethodExp varMethod = (VarMethodExp)exp;
+            final int node = addName(parent, AstKind.VAR_METHOD, varMethod.methodName);
+            addName(node, AstKind.VARIABLE, varMethod.var);
+            addExps(node, varMethod.parameters);
+        } else {
+            throw new IllegalArgumentException("Unknown expression: " + exp);
+        }
+    }
+
+    // Chains like a + b + c nest to the left, so the left spine is walked
+    // with a loop rather than recursion
+    private void addBinop(final int parent, final BinopExp top) {
+        final List<BinopExp> spine = new ArrayList<BinopExp>();
+        int node = parent;
+        Exp exp = top;
+        while (exp instanceof BinopExp) {
+            final BinopExp binop = (BinopExp)exp;
+            spine.add(binop);
+            node = add(node, AstKind.BINOP, opCode(binop.op));
+            exp = binop.left;
+        }
+        addExp(node, exp);
+        // node is the innermost binop; its ancestors on the spine precede it
+        for (int i = spine.size() - 1; i >= 0; i--, node--) {
+            addExp(node, spine.get(i).right);
+        }
+    }
+
+    static int opCode(final Op op) {
+        for (int i = 0; i < OPS.length; i++) {
+            if (OPS[i].equals(op)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operator: " + op);
+    }
+
+    // Rebuilds the object AST, for passes that work on it
+    public Program toProgram() {
+        return toProgram(false);
+    }
+
+    // The classes, with their fields and signatures, as objects.  Method
+    // and constructor bodies and the main statement are DeferredStatements
+    // that build their objects from here when expanded and don't keep
+    // them, so only the bodies a pass is working on are ever objects.
+    public Program toSkeleton() {
+        return toProgram(true);
+    }
+
+    private Program toProgram(final boolean deferred) {
+        final List<ClassDef> classDefs = new ArrayList<ClassDef>();
+        int child = firstChild[ROOT];
+        while (kinds[child] == AstKind.CLASS_DEF.ordinal()) {
+            classDefs.add(toClassDef(child, deferred));
+            child = nextSibling[child];
+        }
+        return new Program(classDefs, toBody(child, deferred));
+    }
+
+    private Statement toBody(final int node, final boolean deferred) {
+        return (deferred && kind(node) != AstKind.NULL) ? new Body(node) : toStatement(node);
+    }
+
+    // A body toSkeleton() left here.  Equal only to a Body for the same
+    // node, as what it expands to is new each time.
+    private class Body implements DeferredStatement {
+        private final int node;
+
+        private Body(final int node) {
+            this.node = node;
+        }
+
+        public Statement expand() {
+            return toStatement(node);
+        }
+
+        public int hashCode() {
+            return node;
+        }
+
+        public boolean equals(final Object other) {
+            return (other instanceof Body &&
+                    ((Body)other).node == node &&
+                    ((Body)other).ast() == FlatAst.this);
+        }
+
+        private FlatAst ast() {
+            return FlatAst.this;
+        }
+
+        public String toString() {
+            return expand().toString();
+        }
+    } // Body
+
+    private ClassDef toClassDef(final int node, final boolean deferred) {
+        int child = firstChild[node];
+        final List<TypeVariable> typeVariables = new ArrayList<TypeVariable>();
+        for (int typeVariable = firstChild[child]; typeVariable != NONE; typeVariable = nextSibling[typeVariable]) {
+            typeVariables.add((TypeVariable)toType(typeVariable));
+        }
+        child = nextSibling[child];
+        final Extends extendedClass = kind(child) == AstKind.NULL ? null :
+            new Extends(new ClassName(name(child)), toTypes(firstChild[child]));
+        child = nextSibling[child];
+        Constructor constructor = null;
+        if (kind(child) == AstKind.CONSTRUCTOR) {
+            final int parameters = firstChild[child];
+            constructor = new Constructor(toVarDecs(firstChild[parameters]),
+                                          toBody(nextSibling[parameters], deferred));
+        }
+        child = nextSibling[child];
+        final List<VarDec> instanceVars = toVarDecs(firstChild[child]);
+        child = nextSibling[child];
+        final List<MethodDef> methodDefs = new ArrayList<MethodDef>();
+        for (int method = firstChild[child]; method != NONE; method = nextSibling[method]) {
+            final int access = firstChild[method];
+            final int returnType = nextSibling[access];
+            final int parameters = nextSibling[returnType];
+            methodDefs.add(new MethodDef(payloads[access] == 1 ? new PrivateAccess() : new PublicAccess(),
+                                         toType(returnType),
+                                         new MethodName(name(method)),
+                                         toVarDecs(firstChild[parameters]),
+                                         toBody(nextSibling[parameters], deferred)));
+        }
+        return new ClassDef(new ClassName(name(node)), constructor, extendedClass,
+                            instanceVars, methodDefs, typeVariables);
+    }
+
+    // VarDecs from the given node to the end of its siblings
+    private List<VarDec> toVarDecs(final int first) {
+        final List<VarDec> varDecs = new ArrayList<VarDec>();
+        for (int node = first; node != NONE; node = nextSibling[node]) {
+            varDecs.add(toVarDec(node));
+        }
+        return varDecs;
+    }
+
+    private VarDec toVarDec(final int node) {
+        return new VarDec(toType(firstChild[node]), new Variable(name(node)));
+    }
+
+    private List<Type> toTypes(final int first) {
+        final List<Type> types = new ArrayList<Type>();
+        for (int node = first; node != NONE; node = nextSibling[node]) {
+            types.add(toType(node));
+        }
+        return types;
+    }
+
+    private Type toType(final int node) {
+        switch (kind(node)) {
+            case NULL:
+                return null;
+            case INT_TYPE:
+                return Types.intType();
+            case BOOLEAN_TYPE:
+                return Types.booleanType();
+            case VOID_TYPE:
+                return Types.voidType();
+            case TYPE_VARIABLE:
+                return Types.typeVariable(name(node));
+            case CLASS_TYPE:
+                return Types.classType(new ClassName(name(node)), toTypes(firstChild[node]));
+            default:
+                throw new IllegalStateException("Not a type: " + kind(node));
+        }
+    }
+
+    private Statement toStatement(final int node) {
+        switch (kind(node)) {
+            case NULL:
+                return null;
+            case BLOCK: {
+                final List<Statement> statements = new ArrayList<Statement>();
+                for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+                    statements.add(toStatement(child));
+                }
+                return new Block(statements);
+            }
+            case BREAK:
+                return new BreakStatement();
+            case EXP_STATEMENT:
+                return new ExpStatement(toExp(firstChild[node]));
+            case IF: {
+                final int guard = firstChild[node];
+                final int ifTrue = nextSibling[guard];
+                return new IfStatement(toExp(guard), toStatement(ifTrue), toStatement(nextSibling[ifTrue]));
+            }
+            case PRINT:
+                return new PrintStatement(toExp(firstChild[node]));
+            case RETURN_EXP:
+                return new ReturnExpStatement(toExp(firstChild[node]));
+            case RETURN_VOID:
+                return new ReturnVoidStatement();
+            case SUPER:
+                return new SuperStatement(toExps(firstChild[node]));
+            case VAR_ASSIGN:
+                return new VarAssignment(new Variable(name(node)), toExp(firstChild[node]));
+            case VAR_DEC_ASSIGN: {
+                final int varDec = firstChild[node];
+                return new VarDecAssignment(toVarDec(varDec), toExp(nextSibling[varDec]));
+            }
+            case WHILE: {
+                final int guard = firstChild[node];
+                return new WhileStatement(toExp(guard), toStatement(nextSibling[guard]));
+            }
+            default:
+                return toExp(node);
+        }
+    }
+
+    private List<Exp> toExps(final int first) {
+        final List<Exp> exps = new ArrayList<Exp>();
+        for (int node = first; node != NONE; node = nextSibling[node]) {
+            exps.add(toExp(node));
+        }
+        return exps;
+    }
+
+    private Exp toExp(final int node) {
+        switch (kind(node)) {
+            case NULL:
+                return null;
+            case NUMBER:
+                return new NumberExp(payloads[node]);
+            case BOOL:
+                return new BoolExp(payloads[node] != 0);
+            case VARIABLE:
+                return new VariableExp(new Variable(name(node)));
+            case BINOP: {
+                // addBinop stores a left spine as consecutive nodes, so it
+                // can be rebuilt bottom up with a loop
+                int innermost = node;
+                while (kind(firstChild[innermost]) == AstKind.BINOP) {
+                    innermost = firstChild[innermost];
+                }
+                Exp exp = toExp(firstChild[innermost]);
+                for (int binop = innermost; binop >= node; binop--) {
+                    exp = new BinopExp(exp, op(binop), toExp(nextSibling[firstChild[binop]]));
+                }
+                return exp;
+            }
+            case CLASS_EXP: {
+                final int types = firstChild[node];
+                return new ClassExp(new ClassName(name(node)), toTypes(firstChild[types]),
+                                    toExps(nextSibling[types]));
+            }
+            case METHOD_EXP:
+                return new MethodExp(new MethodName(name(node)), toExps(firstChild[node]));
+            case METHOD_CALL:
+                return new Methodcall(new MethodName(name(node)), toExps(firstChild[node]));
+            case VAR_METHOD: {
+                final int receiver = firstChild[node];
+                return new VarMethodExp(new Variable(name(receiver)), new MethodName(name(node)),
+                                        toExps(nextSibling[receiver]));
+            }
+            default:
+                throw new IllegalStateException("Not an expression: " + kind(node));
+        }
+    }
+}
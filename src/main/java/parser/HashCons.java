@@ -0,0 +1,168 @@
+package j2script;
+
+import j2script.expressions.BinopExp;
+import j2script.expressions.BoolExp;
+import j2script.expressions.Exp;
+import j2script.expressions.NumberExp;
+import j2script.expressions.VariableExp;
+import j2script.names.ClassName;
+import j2script.names.Variable;
+import j2script.operators.Op;
+import j2script.types.ClassType;
+import j2script.types.Type;
+import j2script.types.TypeVariable;
+import j2script.types.Types;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Hands out one shared instance per distinct expression.  Children
+// are built first, so they are already shared, and a node is found by its
+// own fields plus the identities of its children: finding one costs the
+// same however big it is, and nothing is allocated when it's already
+// there.  Shared trees compare and hash by reference for the shared parts,
+// which keeps maps keyed on expressions fast on large programs.  Types
+// come from Types, which shares them between parsers too.
+//
+// The nodes live in one open-addressed table, hashed the same way their
+// hashCode()s are.  Not thread safe; each Parser has its own.
+public class HashCons {
+    private final BoolExp trueExp = new BoolExp(true);
+    private final BoolExp falseExp = new BoolExp(false);
+
+    // the shared nodes; null for a free slot
+    private Object[] slots = new Object[256];
+    private int size;
+
+    // Distinct nodes handed out so far, not counting the two booleans
+    public int size() {
+        return size;
+    }
+
+    // Forgets every node handed out, so they can be collected once nothing
+    // else holds them; later ones aren't shared with them
+    public void clear() {
+        slots = new Object[256];
+        size = 0;
+    }
+
+    // Index of the first slot to look at for a hash
+    private int home(final int hash) {
+        // Fibonacci hashing spreads runs of small hashes, like numbers
+        return (hash * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(slots.length) + 1);
+    }
+
+    private int next(final int slot) {
+        return (slot + 1) & (slots.length - 1);
+    }
+
+    // Puts a new node into the free slot a lookup ended at
+    private <A> A add(final int slot, final A node) {
+        slots[slot] = node;
+        if (++size * 2 > slots.length) {
+            final Object[] old = slots;
+            slots = new Object[old.length * 2];
+            for (final Object existing : old) {
+                if (existing != null) {
+                    int i = home(existing.hashCode());
+                    while (slots[i] != null) {
+                        i = next(i);
+                    }
+                    slots[i] = existing;
+                }
+            }
+        }
+        return node;
+    }
+
+    public Exp number(final int number) {
+        int slot = home(number);
+        for (Object node; (node = slots[slot]) != null; slot = next(slot)) {
+            if (node instanceof NumberExp && ((NumberExp)node).number == number) {
+                return (NumberExp)node;
+            }
+        }
+        return add(slot, new NumberExp(number));
+    }
+
+    public Exp bool(final boolean value) {
+        return value ? trueExp : falseExp;
+    }
+
+    public Exp variable(final String name) {
+        int slot = home(name.hashCode());
+        for (Object node; (node = slots[slot]) != null; slot = next(slot)) {
+            if (node instanceof VariableExp && ((VariableExp)node).var.name.equals(name)) {
+                return (VariableExp)node;
+            }
+        }
+        return add(slot, new VariableExp(new Variable(name)));
+    }
+
+    public Exp binop(final Exp left, final Op op, final Exp right) {
+        int slot = home(BinopExp.hash(left, op, right));
+        for (Object node; (node = slots[slot]) != null; slot = next(slot)) {
+            if (node instanceof BinopExp) {
+                final BinopExp binop = (BinopExp)node;
+                if (binop.left == left && binop.right == right && binop.op.equals(op)) {
+                    return binop;
+                }
+            }
+        }
+        return add(slot, new BinopExp(left, op, right));
+    }
+
+    public Type intType() {
+        return Types.intType();
+    }
+
+    public Type booleanType() {
+        return Types.booleanType();
+    }
+
+    public Type voidType() {
+        return Types.voidType();
+    }
+
+    public TypeVariable typeVariable(final String name) {
+        return Types.typeVariable(name);
+    }
+
+    public ClassType classType(final ClassName name, final List<Type> types) {
+        return Types.classType(name, types);
+    }
+
+    // The shared instance equal to a type built elsewhere
+    public Type intern(final Type type) {
+        return Types.intern(type);
+    }
+
+    // The shared instance equal to an expression built elsewhere.  Kinds
+    // of expression that aren't shared come back as they are.
+    public Exp intern(final Exp exp) {
+        if (exp instanceof NumberExp) {
+            return number(((NumberExp)exp).number);
+        } else if (exp instanceof BoolExp) {
+            return bool(((BoolExp)exp).value);
+        } else if (exp instanceof VariableExp) {
+            return variable(((VariableExp)exp).var.name);
+        } else if (exp instanceof BinopExp) {
+            // left spines can be long; share them from the bottom up
+            final List<BinopExp> spine = new ArrayList<BinopExp>();
+            Exp left = exp;
+            while (left instanceof BinopExp) {
+                spine.add((BinopExp)left);
+                left = ((BinopExp)left).left;
+            }
+            Exp shared = intern(left);
+            for (int i = spine.size() - 1; i >= 0; i--) {
+                final BinopExp binop = spine.get(i);
+                final Exp right = DeepRecursion.call(() -> intern(binop.right));
+                shared = binop(shared, binop.op, right);
+            }
+            return shared;
+        } else {
+            return exp;
+        }
+    }
+}
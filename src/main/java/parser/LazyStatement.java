@@ -0,0 +1,74 @@
+package j2script;
+
+import j2script.statements.Statement;
+
+// A method or constructor body that Parser.parseSkeleton() skipped.
+// Holds the token range of the body, found by brace matching, and parses
+// it the first time it is needed.  Passes that only look at signatures
+// never pay for the bodies.
+public class LazyStatement implements DeferredStatement {
+    private final Parser parser;
+    // tokens [start, end) hold the body, braces included
+    public final int start;
+    public final int end;
+    // written under the parser's lock, read without it by isParsed()
+    private volatile Statement parsed;
+
+    public LazyStatement(final Parser parser, final int start, final int end) {
+        this.parser = parser;
+        this.start = start;
+        this.end = end;
+    }
+
+    public boolean isParsed() {
+        return parsed != null;
+    }
+
+    // Parses the body if that hasn't happened yet
+    public Statement force() throws ParserException {
+        synchronized (parser) {
+            if (parsed == null) {
+                parsed = parser.parseBodyAt(start, end);
+            }
+            return parsed;
+        }
+    }
+
+    public Statement expand() throws ParserException {
+        return force();
+    }
+
+    // The statement itself, with a deferred one parsed or built first
+    public static Statement expand(final Statement stmt) throws ParserException {
+        return (stmt instanceof DeferredStatement) ? ((DeferredStatement)stmt).expand() : stmt;
+    }
+
+    // force() for callers that can't throw ParserException, such as
+    // equals(); a body that doesn't parse is an IllegalStateException
+    Statement forceUnchecked() {
+        try {
+            return force();
+        } catch (final ParserException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    public int hashCode() {
+        return forceUnchecked().hashCode();
+    }
+
+    // Equal to another skipped body that parses to the same statement.
+    // Never equal to a parsed statement, which knows nothing of this
+    // class; expand() this one first to compare with those.
+    public boolean equals(final Object other) {
+        if (other instanceof LazyStatement) {
+            return forceUnchecked().equals(((LazyStatement)other).forceUnchecked());
+        } else {
+            return false;
+        }
+    }
+
+    public String toString() {
+        return forceUnchecked().toString();
+    }
+}
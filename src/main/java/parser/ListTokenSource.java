@@ -0,0 +1,42 @@
+package j2script;
+
+import j2script.tokens.Token;
+import j2script.tokens.TokenKind;
+import java.util.List;
+
+// TokenSource over an already tokenized list
+public class ListTokenSource implements TokenSource {
+    private final List<Token> tokens;
+
+    public ListTokenSource(final List<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    public Token get(final int pos) {
+        return tokens.get(pos);
+    }
+
+    public TokenKind kind(final int pos) {
+        return tokens.get(pos).kind();
+    }
+
+    public boolean hasToken(final int pos) {
+        return pos < tokens.size();
+    }
+
+    public String describe(final int pos) {
+        return "position " + pos;
+    }
+
+    public int start(final int pos) {
+        return -1;
+    }
+
+    public int length(final int pos) {
+        return 0;
+    }
+
+    public LineIndex lines() {
+        return null;
+    }
+}
@@ -11,47 +11,100 @@ import j2script.types.*;
 import j2script.ParserException;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class Parser {
     // begin static variables
-    private static final Map<Token, Op> ADDITIVE_OP_MAP =
-      new HashMap<Token, Op>() {{
-          put(new AddToken(), new PlusOp());
-          put(new MinusToken(), new MinusOp());
+    // Binary operators, loosest first: == binds looser than <, which
+    // binds looser than + and -, which bind looser than * and /.
+    // All of them are left associative.
+    private static final Map<TokenKind, BinaryOperator> OPERATOR_MAP =
+      new EnumMap<TokenKind, BinaryOperator>(TokenKind.class) {{
+          put(TokenKind.BOOLEAN_EQUALS, new BinaryOperator(new EqualsOp(), 1, false));
+          put(TokenKind.LESS_THAN, new BinaryOperator(new LessThanOp(), 2, false));
+          put(TokenKind.ADD, new BinaryOperator(new PlusOp(), 3, false));
+          put(TokenKind.MINUS, new BinaryOperator(new MinusOp(), 3, false));
+          put(TokenKind.MULTIPLY, new BinaryOperator(new MultOp(), 4, false));
+          put(TokenKind.DIV, new BinaryOperator(new DivOp(), 4, false));
       }};
-    private static final Map<Token, Op> MULTIPLICATIVE_OP_MAP =
-      new HashMap<Token, Op>() {{
-          put(new MultiplyToken(), new MultOp());
-          put(new DivToken(), new DivOp());
+    private static final Map<TokenKind, Type> TYPE_MAP =
+      new EnumMap<TokenKind, Type>(TokenKind.class) {{
+          put(TokenKind.INT, Types.intType());
+          put(TokenKind.BOOLEAN, Types.booleanType());
       }};
-    private static final Map<Token, Type> TYPE_MAP =
-      new HashMap<Token, Type>() {{
-          put(new IntToken(), new IntType());
-          put(new BooleanToken(), new BooleanType());
+      private static final Map<TokenKind, Type> RETURNTYPE_MAP =
+      new EnumMap<TokenKind, Type>(TokenKind.class) {{
+          put(TokenKind.INT, Types.intType());
+          put(TokenKind.BOOLEAN, Types.booleanType());
+          put(TokenKind.VOID, Types.voidType());
       }};
-      private static final Map<Token, Type> RETURNTYPE_MAP =
-      new HashMap<Token, Type>() {{
-          put(new IntToken(), new IntType());
-          put(new BooleanToken(), new BooleanType());
-          put(new VoidToken(), new VoidType());
-      }};
-      private static final Map<Token, Access> ACCESS_MAP =
-      new HashMap<Token, Access>() {{
-          put(new PublicToken(), new PublicAccess());
-          put(new PrivateToken(), new PrivateAccess());
+      private static final Map<TokenKind, Access> ACCESS_MAP =
+      new EnumMap<TokenKind, Access>(TokenKind.class) {{
+          put(TokenKind.PUBLIC, new PublicAccess());
+          put(TokenKind.PRIVATE, new PrivateAccess());
       }};
 
+    // FIRST sets: the kinds a production can start with
+    private static final Set<TokenKind> STATEMENT_FIRST =
+      EnumSet.of(TokenKind.LEFT_CURLY, TokenKind.SUPER, TokenKind.VARIABLE, TokenKind.WHILE,
+                 TokenKind.INT, TokenKind.BOOLEAN, TokenKind.RETURN, TokenKind.BREAK,
+                 TokenKind.PRINT, TokenKind.IF);
+    // binop expressions start with a primary
+    private static final Set<TokenKind> BINOP_FIRST =
+      EnumSet.of(TokenKind.NUMBER, TokenKind.VARIABLE, TokenKind.LEFT_PAREN,
+                 TokenKind.TRUE, TokenKind.FALSE);
+    // types of a field or parameter declaration
+    private static final Set<TokenKind> VAR_DEC_TYPE_FIRST =
+      EnumSet.of(TokenKind.INT, TokenKind.BOOLEAN, TokenKind.STRING);
+    private static final Set<TokenKind> RETURN_TYPE_FIRST =
+      EnumSet.of(TokenKind.INT, TokenKind.BOOLEAN, TokenKind.STRING, TokenKind.VOID);
+    private static final Set<TokenKind> CONSTRUCTOR_PARAM_FIRST =
+      EnumSet.of(TokenKind.INT, TokenKind.BOOLEAN, TokenKind.VARIABLE);
+    private static final Set<TokenKind> PROGRAM_STATEMENT_FIRST =
+      EnumSet.of(TokenKind.LEFT_CURLY, TokenKind.VARIABLE, TokenKind.WHILE,
+                 TokenKind.INT, TokenKind.BOOLEAN, TokenKind.RETURN, TokenKind.BREAK,
+                 TokenKind.PRINT, TokenKind.IF);
+
+    // parseParallel() splits the classes into this many groups per thread
+    private static final int CLASS_GROUPS_PER_THREAD = 4;
+
     // end static variables
 
     //begin instance variables
-    private final List<Token> tokens;
+    private final TokenSource tokens;
+    // where each statement and declaration came from
+    private final SourceSpans spans;
+    // shares equal expressions and types between everything parsed here
+    private final HashCons nodes;
     //The stack is to keep track of curly braces, each entry counts as a left curly brace
     Stack<Integer> CurlyBraceStack = new Stack<Integer>();
+    // set by parseSkeleton(): skip method and constructor bodies
+    private boolean skeleton;
+    // set by parseFlat(): record no spans, as they would keep nodes alive
+    private boolean flat;
 
     // end instance variables
 
     public Parser(final List<Token> tokens) {
+        this(new ListTokenSource(tokens));
+    }
+
+    public Parser(final TokenSource tokens) {
         this.tokens = tokens;
+        this.spans = new SourceSpans(tokens.lines());
+        this.nodes = new HashCons();
+    }
+
+    // Spans of the statements and declarations parsed so far
+    public SourceSpans spans() {
+        return spans;
+    }
+
+    // The expressions and types parsed so far, one instance of each
+    public HashCons nodes() {
+        return nodes;
     }
 
     //The result of a parse.
@@ -65,94 +118,93 @@ public class Parser {
         }
     } // ParseResult
 
-    // handles something (op something)*
-    private abstract class ParseBinop {
-        private final Map<Token, Op> opMap;
-        public ParseBinop(final Map<Token, Op> opMap) {
-            this.opMap = opMap;
-        }
-
-        public abstract ParseResult<Exp> parseSomething(final int startPos) throws ParserException;
-        //
-        public ParseResult<Exp> parse(final int startPos) throws ParserException 
-        {
-            int pos = startPos;
-            ParseResult<Exp> finalResult = parseSomething(pos);
-            if (finalResult == null)
-                return null;            
-
-            ParseResult<Exp> currentResult = null;
-            while (finalResult.tokenPos < tokens.size()) 
-            {
-                final Op op = opMap.get(getToken(finalResult.tokenPos));
-                if (op != null) 
-                {
-                    // we have an op.  We MUST have a right; continue parsing.
-                    final ParseResult<Exp> right = parseSomething(finalResult.tokenPos + 1);
-                    finalResult = new ParseResult<Exp>(new BinopExp(finalResult.result,
-                                                                     op,
-                                                                     right.result),
-                                                                     right.tokenPos);
-                }
-                else
-                    // we don't have an op.  return whatever we have
-                    return finalResult;
-            }//end while there are tokens
-
-            return finalResult;
-        } // parse
-    } // ParseBinop
+    // Source offset where the token at pos starts, or -1 if unknown
+    private int startOffset(final int pos) throws ParserException {
+        return tokens.hasToken(pos) ? tokens.start(pos) : -1;
+    }
 
-    private class ParseAdditive extends ParseBinop {
-        public ParseAdditive() {
-            super(ADDITIVE_OP_MAP);
+    // Records that the parsed node runs from start to the end of the last
+    // token it consumed
+    private <A> ParseResult<A> spanned(final int start, final ParseResult<A> parsed) throws ParserException {
+        if (!flat && parsed != null && start >= 0 && parsed.tokenPos > 0) {
+            final int last = parsed.tokenPos - 1;
+            spans.record(parsed.result, start, tokens.start(last) + tokens.length(last));
         }
+        return parsed;
+    }
 
-        public ParseResult<Exp> parseSomething(final int startPos) throws ParserException {
-            return parseMultiplicative(startPos);
-            //=>ParseMultiplicative().parse(startPos)=>parseSomething(0)=>parsePrimary()wtf
-        }
-    }//Parse Additive
+    // Row of the operator table
+    private static class BinaryOperator {
+        public final Op op;
+        public final int precedence;
+        public final boolean rightAssociative;
 
-    private class ParseMultiplicative extends ParseBinop {
-        public ParseMultiplicative() {
-            super(MULTIPLICATIVE_OP_MAP);
+        public BinaryOperator(final Op op,
+                              final int precedence,
+                              final boolean rightAssociative) {
+            this.op = op;
+            this.precedence = precedence;
+            this.rightAssociative = rightAssociative;
         }
+    }
 
-        public ParseResult<Exp> parseSomething(final int startPos) throws ParserException {
-            return parsePrimary(startPos);
+    // Precedence climbing: handles primary (op primary)* where every op
+    // binds at least as tightly as minPrecedence.  Operators of the same
+    // precedence are folded in the loop, so recursion only goes as deep as
+    // the number of precedence levels, however long the chain is, and the
+    // only allocations are the BinopExp nodes and one result per operand.
+    private ParseResult<Exp> parseBinop(final int startPos, final int minPrecedence) throws ParserException {
+        final ParseResult<Exp> first = parsePrimary(startPos);
+        Exp left = first.result;
+        int pos = first.tokenPos;
+        while (tokens.hasToken(pos)) {
+            final BinaryOperator operator = OPERATOR_MAP.get(tokens.kind(pos));
+            if (operator == null || operator.precedence < minPrecedence) {
+                break;
+            }
+            // we have an op.  We MUST have a right; continue parsing.
+            final ParseResult<Exp> right =
+                parseBinop(pos + 1,
+                           operator.rightAssociative ? operator.precedence : operator.precedence + 1);
+            left = nodes.binop(left, operator.op, right.result);
+            pos = right.tokenPos;
         }
-    }//ParseMultiplicative
-
-    private ParseResult<Exp> parseAdditive(final int startPos) throws ParserException {
-        return new ParseAdditive().parse(startPos);
+        return (left == first.result) ? first : new ParseResult<Exp>(left, pos);
     }
-    
-    private ParseResult<Exp> parseMultiplicative(final int startPos) throws ParserException {
-        return new ParseMultiplicative().parse(startPos);
+
+    private ParseResult<Exp> parseBinop(final int startPos) throws ParserException {
+        return parseBinop(startPos, 0);
     }
 
     private ParseResult<Exp> parsePrimary(final int startPos) throws ParserException {
-        final Token current = getToken(startPos);
         Exp resultExp;
         int resultPos;
 
-        if (current instanceof NumberToken) {
-            resultExp = new NumberExp(((NumberToken)current).number);
-            resultPos = startPos + 1;
-        } 
-        else if (current instanceof VariableToken) {
-            resultExp = new VariableExp(new Variable(((VariableToken)current).name));
-            resultPos = startPos + 1;
-        }
-        else if (current instanceof LeftParenToken) {
-            final ParseResult<Exp> nested = parseExp(startPos + 1);
-            assertTokenAtPos(new RightParenToken(), nested.tokenPos);
-            resultExp = nested.result;
-            resultPos = nested.tokenPos + 1;
-        }
-        else {
-            throw new ParserException("Expected primary at " + startPos);
+        switch (kindAt(startPos)) {
+            case NUMBER:
+                resultExp = nodes.number(((NumberToken)tokens.get(startPos)).number);
+                resultPos = startPos + 1;
+                break;
+            case VARIABLE:
+                resultExp = nodes.variable(((VariableToken)tokens.get(startPos)).name);
+                resultPos = startPos + 1;
+                break;
+            case TRUE:
+                resultExp = nodes.bool(true);
+                resultPos = startPos + 1;
+                break;
+            case FALSE:
+                resultExp = nodes.bool(false);
+                resultPos = startPos + 1;
+                break;
+            case LEFT_PAREN:
+                final ParseResult<Exp> nested = parseExp(startPos + 1);
+                assertTokenAtPos(TokenKind.RIGHT_PAREN, nested.tokenPos);
+                resultExp = nested.result;
+                resultPos = nested.tokenPos + 1;
+                break;
+            default:
+                throw new ParserException("Expected primary at " + tokens.describe(startPos));
         }
         return new ParseResult<Exp>(resultExp, resultPos);
     }
@@ -160,35 +212,43 @@ public class Parser {
     // Gets the token at the given position
     private Token getToken(final int pos) throws ParserException {
         assert(pos >= 0);
-        if (pos < tokens.size()) {
+        if (tokens.hasToken(pos)) {
             return tokens.get(pos);
         } else {
-            throw new ParserException("No token at position " + pos);
+            throw new ParserException("No token at " + tokens.describe(pos));
         }
     }
 
-    // Asserts that the given token appears at the given position
-    private void assertTokenAtPos(final Token token, final int pos) throws ParserException {
-        if (!getToken(pos).equals(token)) {
-            throw new ParserException("Expected " + token.toString() + " at pos " + pos);
+    // Gets the kind of the token at the given position.  Lookahead only
+    // ever compares kinds, so it never allocates.
+    private TokenKind kindAt(final int pos) throws ParserException {
+        assert(pos >= 0);
+        if (tokens.hasToken(pos)) {
+            return tokens.kind(pos);
+        } else {
+            throw new ParserException("No token at " + tokens.describe(pos));
         }
     }
-    private void ensureTokenIs(final int position, final Token expected) throws ParserException {
-        final Token tokenHere = tokens.get(position);
-        if (!expected.equals(tokenHere)) {
-            throw new ParserException(expected.toString() + " expected at position: " + position + " but was " + tokenHere);
-        }
+
+    private static String kindName(final TokenKind kind) {
+        final Token fixed = Tokenizer.fixedToken(kind);
+        return (fixed == null) ? kind.toString() : fixed.toString();
     }
-    private boolean ensureToken(final int position, final Token expected) throws ParserException {
-        final Token tokenHere = tokens.get(position);
-        // System.out.println("We are in ensure token");
-        if (!expected.equals(tokenHere)) {
-            return false;
+
+    // Asserts that the given token appears at the given position
+    private void assertTokenAtPos(final TokenKind kind, final int pos) throws ParserException {
+        if (kindAt(pos) != kind) {
+            throw new ParserException("Expected " + kindName(kind) + " at " + tokens.describe(pos));
         }
-        else{
-            return true;
+    }
+    private void expect(final int position, final TokenKind expected) throws ParserException {
+        if (kindAt(position) != expected) {
+            throw new ParserException(kindName(expected) + " expected at " + tokens.describe(position) + " but was " + tokens.get(position));
         }
     }
+    private boolean is(final int position, final TokenKind expected) throws ParserException {
+        return kindAt(position) == expected;
+    }
     private boolean isSingleStmt(final List<Statement> stmt){
         //Single
         if (stmt.size() == 1){
@@ -199,186 +259,127 @@ public class Parser {
         }
     }
 
+    // True if a binop expression (rather than a call or another
+    // non-binop expression) starts at pos
+    private boolean startsBinop(final int pos) throws ParserException {
+        switch (kindAt(pos)) {
+            case VARIABLE:
+                return !is(pos + 1, TokenKind.LEFT_PAREN);
+            case LEFT_PAREN:
+            case NUMBER:
+            case TRUE:
+            case FALSE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // As startsBinop, for call arguments, where "x y" starts a method
+    // call on x
+    private boolean startsBinopArgument(final int pos) throws ParserException {
+        return startsBinop(pos) &&
+            !(is(pos, TokenKind.VARIABLE) && is(pos + 1, TokenKind.VARIABLE));
+    }
+
     /***************************************************
      Do not modify above lines unless adding static maps 
      ***************************************************/
 
     private ParseResult<Exp> parseExp(final int startPos) throws ParserException {
+        return DeepRecursion.call(() -> parseExpHere(startPos));
+    }
+
+    private ParseResult<Exp> parseExpHere(final int startPos) throws ParserException {
         //Parse additive/primary/binop
-        if((ensureToken(startPos, new VariableToken()) && !ensureToken(startPos + 1,new LeftParenToken()) ) 
-                || ensureToken(startPos, new LeftParenToken())
-                || tokens.get(startPos) instanceof NumberToken){
-            // System.out.println("its an additve");
-            return parseAdditive(startPos);
-        } 
+        if (startsBinop(startPos)) {
+            return parseBinop(startPos);
+        }
         return ParseExpNonBinop(startPos);
     }
 
-    private ParseResult<Exp> ParseExpNonBinop(final int startPos) throws ParserException {
+    // Parses call arguments up to and including the closing parenthesis
+    private ParseResult<List<Exp>> parseArguments(final int startPos,
+                                                  final boolean methodCall) throws ParserException {
+        final List<Exp> parameters = new ArrayList<>();
         int resultpos = startPos;
-        //true
-        if (ensureToken(resultpos, new TrueToken())) {
-            final BoolExp resultExp = new BoolExp(true);
-            resultpos = startPos + 1;
-            return new ParseResult<Exp>(resultExp, resultpos);
-        } 
-        //false
-        else if(ensureToken(resultpos, new FalseToken())) {
-            final BoolExp resultExp = new BoolExp(false);
-            resultpos = startPos + 1;
-            return new ParseResult<Exp>(resultExp, resultpos);
-        }
-        //new classname
-        else if(ensureToken(resultpos, new NewToken())){
-            ClassName name;
-            ArrayList<Exp> parameters = new ArrayList<>();
-            ensureTokenIs(resultpos + 1, new VariableToken(tokens.get(resultpos).toString()));
-            name = new ClassName(tokens.get(resultpos).toString());
-            ensureTokenIs(resultpos + 2, new LessThanToken());
-            ParseResult<List<Type>> result = checkTypes(resultpos + 3);
-            resultpos = result.tokenPos;
-            List<Type> types = result.result;
-            ensureTokenIs(resultpos , new LeftParenToken());
-            resultpos++;
-            while (!ensureToken(resultpos, new RightParenToken())){
-                if((ensureToken(resultpos, new VariableToken()) && !ensureToken(resultpos + 1,new LeftParenToken())) 
-                || ensureToken(resultpos, new LeftParenToken())
-                || tokens.get(resultpos) instanceof NumberToken){
-                    final ParseResult<Exp> param = parseAdditive(resultpos);
-                    parameters.add(param.result);
-                    resultpos = param.tokenPos;
-                    if (ensureToken(resultpos, new CommaToken())){
-                        resultpos++;
-                        if (ensureToken(resultpos, new RightParenToken())){
-                            throw new ParserException("You must have another parameter at " + resultpos);
-                        }
-                    }
-                }
-                else{
-                    final ParseResult<Exp> param = ParseExpNonBinop(resultpos);
-                    parameters.add(param.result);
-                    resultpos = param.tokenPos;
-                    if (ensureToken(resultpos, new CommaToken())){
-                        resultpos++;
-                        if (ensureToken(resultpos, new RightParenToken())){
-                            throw new ParserException("You must have another parameter at " + resultpos);
-                        }
-                    }
+        while (!is(resultpos, TokenKind.RIGHT_PAREN)) {
+            final boolean binop = methodCall ? startsBinopArgument(resultpos) : startsBinop(resultpos);
+            final ParseResult<Exp> param = binop ? parseBinop(resultpos) : ParseExpNonBinop(resultpos);
+            parameters.add(param.result);
+            resultpos = param.tokenPos;
+            if (is(resultpos, TokenKind.COMMA)){
+                resultpos++;
+                if (is(resultpos, TokenKind.RIGHT_PAREN)){
+                    throw new ParserException("You must have another parameter at " + tokens.describe(resultpos));
                 }
-                
             }
-            resultpos++;
-            final ClassExp e = new ClassExp(name, types, parameters);
-            return new ParseResult<Exp>(e, resultpos);
-        }
-        // methodname(exp*)
-        else if((ensureToken(resultpos, new VariableToken()) && ensureToken(resultpos + 1,new LeftParenToken()))){
-            MethodName name;
-            ArrayList<Exp> parameters = new ArrayList<>();
-            name = new MethodName(tokens.get(resultpos).toString());
-            resultpos += 2;
-            while (!ensureToken(resultpos, new RightParenToken())) {
-                if((ensureToken(resultpos, new VariableToken()) && 
-                   (!ensureToken(resultpos + 1,new LeftParenToken()) &&
-                    !ensureToken(resultpos + 1, new VariableToken()))) ||
-                    ensureToken(resultpos, new LeftParenToken()) ||
-                    tokens.get(resultpos) instanceof NumberToken) {
-                    final ParseResult<Exp> param = parseAdditive(resultpos);
-                    parameters.add(param.result);
-                    resultpos = param.tokenPos;
-                    if (ensureToken(resultpos, new CommaToken())){
-                        resultpos++;
-                        if (ensureToken(resultpos, new RightParenToken())){
-                            throw new ParserException("You must have another parameter at " + resultpos);
-                        }
-                    }
-                }
-                else{
-                    final ParseResult<Exp> param = ParseExpNonBinop(resultpos);
-                    parameters.add(param.result);
-                    resultpos = param.tokenPos;
-                    if (ensureToken(resultpos, new CommaToken())){
-                        resultpos++;
-                        if (ensureToken(resultpos, new RightParenToken())){
-                            throw new ParserException("You must have another parameter at " + resultpos);
-                        }
-                    }
-                }
+        }
+        return new ParseResult<List<Exp>>(parameters, resultpos + 1);
+    }
+
+    private ParseResult<Exp> ParseExpNonBinop(final int startPos) throws ParserException {
+        int resultpos = startPos;
+        switch (kindAt(resultpos)) {
+            case TRUE:
+                return new ParseResult<Exp>(nodes.bool(true), startPos + 1);
+            case FALSE:
+                return new ParseResult<Exp>(nodes.bool(false), startPos + 1);
+            case NEW: {
+                //new classname
+                expect(resultpos + 1, TokenKind.VARIABLE);
+                final ClassName name = new ClassName(tokens.get(resultpos).toString());
+                expect(resultpos + 2, TokenKind.LESS_THAN);
+                final ParseResult<List<Type>> types = checkTypes(resultpos + 3);
+                resultpos = types.tokenPos;
+                expect(resultpos, TokenKind.LEFT_PAREN);
+                final ParseResult<List<Exp>> parameters = parseArguments(resultpos + 1, false);
+                final ClassExp e = new ClassExp(name, types.result, parameters.result);
+                return new ParseResult<Exp>(e, parameters.tokenPos);
             }
-            resultpos++;
-            final MethodExp e = new MethodExp(name, parameters);
-            return new ParseResult<Exp>(e, resultpos);
-        }
-        //var.methodname
-        else if(ensureToken(resultpos, new VariableToken()) && ensureToken(resultpos + 1, new VariableToken())) {
-            Variable var;
-            MethodName name;
-            ArrayList<Exp> parameters = new ArrayList<>();
-            var = new Variable(tokens.get(resultpos).toString());
-            name = new MethodName(tokens.get(++resultpos).toString());
-            ensureTokenIs(++resultpos, new LeftParenToken());
-            resultpos++;
-            while (!ensureToken(resultpos, new RightParenToken())) {
-                if((ensureToken(resultpos, new VariableToken()) && 
-                   (!ensureToken(resultpos + 1,new LeftParenToken()) &&
-                    !ensureToken(resultpos + 1, new VariableToken()))) ||
-                    ensureToken(resultpos, new LeftParenToken()) ||
-                    tokens.get(resultpos) instanceof NumberToken) {
-                    final ParseResult<Exp> param = parseAdditive(resultpos);
-                    parameters.add(param.result);
-                    resultpos = param.tokenPos;
-                    if (ensureToken(resultpos, new CommaToken())){
-                        resultpos++;
-                        if (ensureToken(resultpos, new RightParenToken())){
-                            throw new ParserException("You must have another parameter at " + resultpos);
-                        }
-                    }
-                }
-                else{
-                    final ParseResult<Exp> param = ParseExpNonBinop(resultpos);
-                    parameters.add(param.result);
-                    resultpos = param.tokenPos;
-                    if (ensureToken(resultpos, new CommaToken())){
-                        resultpos++;
-                        if (ensureToken(resultpos, new RightParenToken())){
-                            throw new ParserException("You must have another parameter at " + resultpos);
-                        }
-                    }
+            case VARIABLE:
+                if (is(resultpos + 1, TokenKind.LEFT_PAREN)) {
+                    // methodname(exp*)
+                    final MethodName name = new MethodName(tokens.get(resultpos).toString());
+                    final ParseResult<List<Exp>> parameters = parseArguments(resultpos + 2, true);
+                    final MethodExp e = new MethodExp(name, parameters.result);
+                    return new ParseResult<Exp>(e, parameters.tokenPos);
+                } else if (is(resultpos + 1, TokenKind.VARIABLE)) {
+                    //var.methodname
+                    final Variable var = new Variable(tokens.get(resultpos).toString());
+                    final MethodName name = new MethodName(tokens.get(++resultpos).toString());
+                    expect(++resultpos, TokenKind.LEFT_PAREN);
+                    final ParseResult<List<Exp>> parameters = parseArguments(resultpos + 1, true);
+                    final VarMethodExp e = new VarMethodExp(var, name, parameters.result);
+                    return new ParseResult<Exp>(e, parameters.tokenPos);
                 }
-            }
-            resultpos++;
-            final VarMethodExp e = new VarMethodExp(var, name, parameters);
-            return new ParseResult<Exp>(e, resultpos);
+                break;
+            default:
+                break;
         }
-        else{
-            final ParseResult<Exp> e = parseExp(resultpos);
-            if(e == null){
-                throw new ParserException("Not an exp at " + resultpos);
-            }
-            else{
-                return new ParseResult<Exp>(e.result, resultpos);
-            }
+        if (!BINOP_FIRST.contains(kindAt(resultpos))) {
+            throw new ParserException("Not an exp at " + tokens.describe(resultpos));
         }
+        final ParseResult<Exp> e = parseExp(resultpos);
+        return new ParseResult<Exp>(e.result, resultpos);
     }
 
     private ParseResult<Statement> parseVarDecAssign(final int startPos) throws ParserException {
         int resultpos = startPos;
-        if (ensureToken(resultpos, new IntToken())) {
-            IntType i = new IntType();
+        if (is(resultpos, TokenKind.INT)) {
+            Type i = nodes.intType();
             resultpos++;
             VariableToken vt = (VariableToken) getToken(resultpos);
             Variable var = new Variable(vt.name);
             VarDec vd = new VarDec(i,var);
             resultpos++;
-            ensureTokenIs(resultpos, new EqualToken());
+            expect(resultpos, TokenKind.EQUAL);
             resultpos++;
     
-            if ((ensureToken(resultpos, new VariableToken()) && !ensureToken(resultpos + 1,new LeftParenToken())) 
-            || ensureToken(resultpos, new LeftParenToken())
-            || tokens.get(resultpos) instanceof NumberToken){
+            if (startsBinop(resultpos)) {
                 ParseResult<Exp> exp = parseExp(resultpos);
                 // System.out.println("THe token pos is" + exp.tokenPos + " " + getToken(exp.tokenPos));
-                ensureTokenIs(exp.tokenPos, new SemiToken());
+                expect(exp.tokenPos, TokenKind.SEMI);
                 VarDecAssignment vda = new VarDecAssignment(vd,exp.result);
                 return new ParseResult<Statement> (vda, exp.tokenPos + 1);
     
@@ -386,29 +387,27 @@ public class Parser {
             else{
                 ParseResult<Exp> exp = ParseExpNonBinop(resultpos);
                 // System.out.println("THe token pos is" + exp.tokenPos + " " + getToken(exp.tokenPos));
-                ensureTokenIs(exp.tokenPos, new SemiToken());
+                expect(exp.tokenPos, TokenKind.SEMI);
                 VarDecAssignment vda = new VarDecAssignment(vd,exp.result);
                 return new ParseResult<Statement> (vda, exp.tokenPos + 1);
     
             }
         }
         //boolean
-        else if (ensureToken(resultpos, new BooleanToken())){
-            BooleanType b = new BooleanType();
+        else if (is(resultpos, TokenKind.BOOLEAN)){
+            Type b = nodes.booleanType();
             resultpos++;
             VariableToken vt = (VariableToken) getToken(resultpos);
             Variable var = new Variable(vt.name);
             VarDec vd = new VarDec(b,var);
             resultpos++;
-            ensureTokenIs(resultpos, new EqualToken());
+            expect(resultpos, TokenKind.EQUAL);
             resultpos++;
     
-            if ((ensureToken(resultpos, new VariableToken()) && !ensureToken(resultpos + 1,new LeftParenToken())) 
-            || ensureToken(resultpos, new LeftParenToken())
-            || tokens.get(resultpos) instanceof NumberToken){
+            if (startsBinop(resultpos)) {
                 ParseResult<Exp> exp = parseExp(resultpos);
                 // System.out.println("THe token pos is" + exp.tokenPos + " " + getToken(exp.tokenPos));
-                ensureTokenIs(exp.tokenPos, new SemiToken());
+                expect(exp.tokenPos, TokenKind.SEMI);
                 VarDecAssignment vda = new VarDecAssignment(vd,exp.result);
                 return new ParseResult<Statement> (vda, exp.tokenPos + 1);
     
@@ -416,7 +415,7 @@ public class Parser {
             else{
                 ParseResult<Exp> exp = ParseExpNonBinop(resultpos);
                 // System.out.println("THe token pos is" + exp.tokenPos + " " + getToken(exp.tokenPos));
-                ensureTokenIs(exp.tokenPos, new SemiToken());
+                expect(exp.tokenPos, TokenKind.SEMI);
                 VarDecAssignment vda = new VarDecAssignment(vd,exp.result);
                 return new ParseResult<Statement> (vda, exp.tokenPos + 1);
     
@@ -426,21 +425,19 @@ public class Parser {
             List<Type> types = new ArrayList<Type>();
             VariableToken vt = (VariableToken) getToken(resultpos);
             ClassName cn = new ClassName(vt.name);
-            ClassType c = new ClassType(cn, types);
+            ClassType c = nodes.classType(cn, types);
             resultpos++;
             vt = (VariableToken) getToken(resultpos);
             Variable var = new Variable(vt.name);
             VarDec vd = new VarDec(c,var);
             resultpos++;
-            ensureTokenIs(resultpos, new EqualToken());
+            expect(resultpos, TokenKind.EQUAL);
             resultpos++;
     
-            if ((ensureToken(resultpos, new VariableToken()) && !ensureToken(resultpos + 1,new LeftParenToken())) 
-            || ensureToken(resultpos, new LeftParenToken())
-            || tokens.get(resultpos) instanceof NumberToken){
+            if (startsBinop(resultpos)) {
                 ParseResult<Exp> exp = parseExp(resultpos);
                 // System.out.println("THe token pos is" + exp.tokenPos + " " + getToken(exp.tokenPos));
-                ensureTokenIs(exp.tokenPos, new SemiToken());
+                expect(exp.tokenPos, TokenKind.SEMI);
                 VarDecAssignment vda = new VarDecAssignment(vd,exp.result);
                 return new ParseResult<Statement> (vda, exp.tokenPos + 1);
     
@@ -448,7 +445,7 @@ public class Parser {
             else{
                 ParseResult<Exp> exp = ParseExpNonBinop(resultpos);
                 // System.out.println("THe token pos is" + exp.tokenPos + " " + getToken(exp.tokenPos));
-                ensureTokenIs(exp.tokenPos, new SemiToken());
+                expect(exp.tokenPos, TokenKind.SEMI);
                 VarDecAssignment vda = new VarDecAssignment(vd,exp.result);
                 return new ParseResult<Statement> (vda, exp.tokenPos + 1);
     
@@ -462,20 +459,20 @@ public class Parser {
         VariableToken vt = (VariableToken) getToken(resultpos);
         ClassName cn = new ClassName(vt.name);
         resultpos += 2;  // Get to first type
-        while(ensureToken(resultpos, new GreaterThanToken())) {
-            // if (ensureToken(resultpos, new BooleanToken())){
+        while(is(resultpos, TokenKind.GREATER_THAN)) {
+            // if (is(resultpos, TokenKind.BOOLEAN)){
             //         BooleanType bt = new BooleanType();
             //         types.add(bt);
             //         resultpos++;
-            //         if (getToken(resultpos) instanceof CommaToken){
+            //         if (kindAt(resultpos) == TokenKind.COMMA){
             //             resultpos++;
             //         }
             //     }
-            // else if (ensureToken(resultpos, new IntToken())){
+            // else if (is(resultpos, TokenKind.INT)){
             //     IntType it = new IntType();
             //     types.add(it);
             //     resultpos++;
-            //     if (getToken(resultpos) instanceof CommaToken){
+            //     if (kindAt(resultpos) == TokenKind.COMMA){
             //         resultpos++;
             //     }
             // }
@@ -483,28 +480,26 @@ public class Parser {
             //     ClassType ct = new ClassType(new ClassName(((VariableToken) getToken(resultpos)).name), null);
             //     types.add(ct);
             //     resultpos++;
-            //     if (getToken(resultpos) instanceof CommaToken){
+            //     if (kindAt(resultpos) == TokenKind.COMMA){
             //         resultpos++;
             //     }
             // }
             resultpos++;
         }
         // ClassType c = new ClassType(cn, types);
-        ClassType c = new ClassType(cn, null);
+        ClassType c = nodes.classType(cn, null);
         // resultpos++;
         vt = (VariableToken) getToken(resultpos);
         Variable var = new Variable(vt.name);
         VarDec vd = new VarDec(c,var);
         resultpos++;
-        ensureTokenIs(resultpos, new EqualToken());
+        expect(resultpos, TokenKind.EQUAL);
         resultpos++;
 
-        if ((ensureToken(resultpos, new VariableToken()) && !ensureToken(resultpos + 1,new LeftParenToken())) 
-        || ensureToken(resultpos, new LeftParenToken())
-        || tokens.get(resultpos) instanceof NumberToken){
+        if (startsBinop(resultpos)) {
             ParseResult<Exp> exp = parseExp(resultpos);
             // System.out.println("THe token pos is" + exp.tokenPos + " " + getToken(exp.tokenPos));
-            ensureTokenIs(exp.tokenPos, new SemiToken());
+            expect(exp.tokenPos, TokenKind.SEMI);
             VarDecAssignment vda = new VarDecAssignment(vd,exp.result);
             return new ParseResult<Statement> (vda, exp.tokenPos + 1);
 
@@ -512,7 +507,7 @@ public class Parser {
         else{
             ParseResult<Exp> exp = ParseExpNonBinop(resultpos);
             // System.out.println("THe token pos is" + exp.tokenPos + " " + getToken(exp.tokenPos));
-            ensureTokenIs(exp.tokenPos, new SemiToken());
+            expect(exp.tokenPos, TokenKind.SEMI);
             VarDecAssignment vda = new VarDecAssignment(vd,exp.result);
             return new ParseResult<Statement> (vda, exp.tokenPos + 1);
 
@@ -520,139 +515,136 @@ public class Parser {
     }
 
     private ParseResult<Statement> parseStatement(final int startPos) throws ParserException {
+        return DeepRecursion.call(() -> spanned(startOffset(startPos), parseStatementHere(startPos)));
+    }
+
+    private ParseResult<Statement> parseStatementHere(final int startPos) throws ParserException {
         int resultpos = startPos;
-        // System.out.println("in parse stmt " + resultpos + " " + getToken(resultpos));
-        Statement stmt;
-        //This is a block statement
-        if (ensureToken(resultpos, new LeftCurlyToken())){
-            // System.out.println("its a block");
-            final ParseResult<Statement> block = parseBlock(resultpos);
-            stmt = block.result;
-            resultpos = block.tokenPos;
-            return new ParseResult<Statement>(stmt, resultpos);
-        }
-
-        //super
-        else if(ensureToken(resultpos, new SuperToken()) && ensureToken(resultpos + 1,new LeftParenToken())) {
-                ArrayList<Exp> exps = new ArrayList<Exp>();
-                int currentpos = resultpos + 2;
-                while (!ensureToken(currentpos, new RightParenToken())){
-                    final ParseResult<Exp> result = parseExp(currentpos);
-                    final Exp exp = result.result;
-                    currentpos = result.tokenPos;
-                    exps.add(exp);
-                    currentpos = currentpos + 2;
-                    //If there is a comma, more parameters
-                    if (ensureToken(currentpos, new CommaToken())){
-                        currentpos++;
+        switch (kindAt(resultpos)) {
+            case LEFT_CURLY:
+                //This is a block statement
+                return parseBlock(resultpos);
+
+            case SUPER:
+                if (is(resultpos + 1, TokenKind.LEFT_PAREN)) {
+                    ArrayList<Exp> exps = new ArrayList<Exp>();
+                    int currentpos = resultpos + 2;
+                    while (!is(currentpos, TokenKind.RIGHT_PAREN)){
+                        final ParseResult<Exp> result = parseExp(currentpos);
+                        final Exp exp = result.result;
+                        currentpos = result.tokenPos;
+                        exps.add(exp);
+                        currentpos = currentpos + 2;
+                        //If there is a comma, more parameters
+                        if (is(currentpos, TokenKind.COMMA)){
+                            currentpos++;
+                        }
                     }
-                }    
-                //Currentpos should then have a right parenthesis
-                resultpos = currentpos;
-                resultpos++;
-                return new ParseResult<Statement>(new SuperStatement(exps), resultpos);
-        }
-                
-        //varassign
-        else if(getToken(resultpos) instanceof VariableToken && getToken(resultpos+1) instanceof EqualToken){
-            VariableToken vt = (VariableToken) getToken(resultpos);
-            Variable var = new Variable(vt.name);
-            resultpos++;
-            ParseResult<Exp> exp = parseExp(++resultpos);
-            resultpos = exp.tokenPos;
-            ensureTokenIs(resultpos, new SemiToken());
-            resultpos++;
-            VarAssignment va = new VarAssignment(var, exp.result);
-            return new ParseResult<Statement> (va, resultpos);
-        }
+                    //Currentpos should then have a right parenthesis
+                    resultpos = currentpos;
+                    resultpos++;
+                    return new ParseResult<Statement>(new SuperStatement(exps), resultpos);
+                }
+                break;
 
-        //while
-        else if(ensureToken(resultpos, new WhileToken())){
-            // System.out.println("its a while");
+            case VARIABLE:
+                switch (kindAt(resultpos + 1)) {
+                    case EQUAL: {
+                        //varassign
+                        VariableToken vt = (VariableToken) getToken(resultpos);
+                        Variable var = new Variable(vt.name);
+                        resultpos++;
+                        ParseResult<Exp> exp = parseExp(++resultpos);
+                        resultpos = exp.tokenPos;
+                        expect(resultpos, TokenKind.SEMI);
+                        resultpos++;
+                        VarAssignment va = new VarAssignment(var, exp.result);
+                        return new ParseResult<Statement> (va, resultpos);
+                    }
+                    case VARIABLE:
+                        //vardec assign case 1
+                        if (is(resultpos + 2, TokenKind.EQUAL)) {
+                            return parseVarDecAssign(resultpos);
+                        }
+                        break;
+                    case LESS_THAN:
+                        //vardec assign case 2
+                        return parseClassVarDecAssign(resultpos);
+                    default:
+                        break;
+                }
+                break;
 
-            ensureTokenIs(++resultpos, new LeftParenToken());
-            final ParseResult<Exp> guard = ParseExpNonBinop(++resultpos);
-            resultpos = guard.tokenPos;
-            resultpos++;
-            ensureTokenIs(resultpos++, new RightParenToken());
-            final ParseResult<Statement> ifTrue = parseStatement(resultpos);
-            resultpos = ifTrue.tokenPos;
-            final WhileStatement While = new WhileStatement(guard.result, ifTrue.result);
-            return new ParseResult<Statement> (While, resultpos);
-        }
-        //vardec assign case 1
-        else if ((ensureToken(resultpos, new IntToken()) || ensureToken(resultpos, new BooleanToken()) || ensureToken(resultpos, new VariableToken()))
-                  && ensureToken(resultpos + 1, new VariableToken()) && ensureToken(resultpos + 2, new EqualToken())){
-            return parseVarDecAssign(resultpos);
-        }
-        //vardec assign case 2
-        else if (ensureToken(resultpos, new VariableToken()) && ensureToken(resultpos + 1, new LessThanToken())) {
-            return parseClassVarDecAssign(resultpos);
-        }
-        //return void
-        else if(ensureToken(resultpos, new ReturnToken()) && (getToken(resultpos) instanceof SemiToken)){
-            // System.out.println("its a return");
-
-            final ReturnVoidStatement rvs = new ReturnVoidStatement();
-            ensureTokenIs(++resultpos, new SemiToken());
-            resultpos++;
-            return new ParseResult<Statement>(rvs,resultpos);
-        }
-        //return exp
-        else if(getToken(resultpos) instanceof ReturnToken && getToken(resultpos+1) instanceof VariableToken){
-            // System.out.println("its a returnexp");
-            resultpos++;
-            final ParseResult<Exp> exp = ParseExpNonBinop(resultpos);
-            resultpos = exp.tokenPos;
-            ensureTokenIs(++resultpos,new SemiToken());
-            final ReturnExpStatement res = new ReturnExpStatement(exp.result);
-            return new ParseResult<Statement>(res,++resultpos);
-        }
-        //break
-        else if(ensureToken(resultpos, new BreakToken())){
-            // System.out.println("its a break");
-
-            final BreakStatement bs = new BreakStatement();
-            ensureTokenIs(++resultpos, new SemiToken());
-            resultpos++;
-            return new ParseResult<Statement>(bs,resultpos);
-        }
-        //print
-        else if(ensureToken(resultpos, new PrintToken())){
-            ensureTokenIs(++resultpos, new LeftParenToken());
-            if((ensureToken(resultpos, new VariableToken()) && !ensureToken(resultpos + 1,new LeftParenToken())) 
-            || ensureToken(resultpos, new LeftParenToken())
-            || tokens.get(resultpos) instanceof NumberToken
-            || ensureToken(resultpos, new NewToken()) 
-            || (ensureToken(resultpos, new VariableToken()) && ensureToken(resultpos + 1,new LeftParenToken()))){
-                // System.out.println("its an exp not a binop in print");
+            case WHILE: {
+                expect(++resultpos, TokenKind.LEFT_PAREN);
+                final ParseResult<Exp> guard = parseExp(++resultpos);
+                resultpos = guard.tokenPos;
+                expect(resultpos++, TokenKind.RIGHT_PAREN);
+                final ParseResult<Statement> ifTrue = parseStatement(resultpos);
+                resultpos = ifTrue.tokenPos;
+                final WhileStatement While = new WhileStatement(guard.result, ifTrue.result);
+                return new ParseResult<Statement> (While, resultpos);
+            }
+
+            case INT:
+            case BOOLEAN:
+                //vardec assign case 1
+                if (is(resultpos + 1, TokenKind.VARIABLE) && is(resultpos + 2, TokenKind.EQUAL)) {
+                    return parseVarDecAssign(resultpos);
+                }
+                break;
+
+            case RETURN:
+                if (is(resultpos + 1, TokenKind.SEMI)) {
+                    //return void
+                    final ReturnVoidStatement rvs = new ReturnVoidStatement();
+                    expect(++resultpos, TokenKind.SEMI);
+                    resultpos++;
+                    return new ParseResult<Statement>(rvs,resultpos);
+                } else {
+                    //return exp
+                    final ParseResult<Exp> exp = parseExp(++resultpos);
+                    resultpos = exp.tokenPos;
+                    expect(resultpos, TokenKind.SEMI);
+                    final ReturnExpStatement res = new ReturnExpStatement(exp.result);
+                    return new ParseResult<Statement>(res,++resultpos);
+                }
+
+            case BREAK: {
+                final BreakStatement bs = new BreakStatement();
+                expect(++resultpos, TokenKind.SEMI);
+                resultpos++;
+                return new ParseResult<Statement>(bs,resultpos);
+            }
 
+            case PRINT: {
+                expect(++resultpos, TokenKind.LEFT_PAREN);
                 ParseResult<Exp> e = ParseExpNonBinop(++resultpos);
-                ensureTokenIs(++resultpos, new RightParenToken());
-                ensureTokenIs(++resultpos, new SemiToken());
+                expect(++resultpos, TokenKind.RIGHT_PAREN);
+                expect(++resultpos, TokenKind.SEMI);
                 resultpos++;
                 final PrintStatement ps = new PrintStatement(new VariableExp(new Variable(e.result.toString())));
                 return new ParseResult<Statement>(ps, resultpos);
             }
+
+            case IF: {
+                expect(++resultpos, TokenKind.LEFT_PAREN);
+                final ParseResult<Exp> guard = parseExp(++resultpos);
+                resultpos = guard.tokenPos;
+                expect(resultpos++, TokenKind.RIGHT_PAREN);
+                final ParseResult<Statement> ifTrue = parseStatement(resultpos);
+                resultpos = ifTrue.tokenPos;
+                expect(resultpos++, TokenKind.ELSE);
+                final ParseResult<Statement> ifFalse = parseStatement(resultpos);
+                resultpos = ifFalse.tokenPos;
+                final IfStatement If = new IfStatement(guard.result,ifTrue.result,ifFalse.result);
+                return new ParseResult<Statement> (If, resultpos);
+            }
+
+            default:
+                break;
         }
-        //if
-        else if(ensureToken(resultpos, new IfToken())){
-            // System.out.println("its an if");
-            ensureTokenIs(++resultpos, new LeftParenToken());
-            final ParseResult<Exp> guard = ParseExpNonBinop(++resultpos);
-            resultpos = guard.tokenPos;
-            resultpos++;
-            ensureTokenIs(resultpos++, new RightParenToken());
-            final ParseResult<Statement> ifTrue = parseStatement(resultpos);
-            resultpos = ifTrue.tokenPos;
-            ensureTokenIs(resultpos++, new ElseToken());
-            final ParseResult<Statement> ifFalse = parseStatement(resultpos);
-            resultpos = ifFalse.tokenPos;
-            final IfStatement If = new IfStatement(guard.result,ifTrue.result,ifFalse.result);
-            return new ParseResult<Statement> (If, resultpos);
-        }
-        assert(false);
-        return null;
+        throw new ParserException("This is not a valid statement at " + tokens.describe(startPos) + " " + getToken(startPos).toString());
     }
 
     private ParseResult<Statement> parseBlock(final int startPos) throws ParserException{
@@ -661,18 +653,14 @@ public class Parser {
         int resultpos = startPos;
         CurlyBraceStack.push(1);
         resultpos++;
-        while (!ensureToken(resultpos, new RightCurlyToken())){
-            if(tokens.get(resultpos) instanceof NumberToken || ensureToken(resultpos, new VariableToken()) || 
-               ensureToken(resultpos, new NewToken()) || ensureToken(resultpos, new ReturnToken()) ||
-               ensureToken(resultpos, new BreakToken()) || ensureToken(resultpos, new PrintToken()) ||
-               ensureToken(resultpos, new IntToken()) || ensureToken(resultpos, new BooleanToken()) ||
-               ensureToken(resultpos, new LeftCurlyToken()) || ensureToken(resultpos, new SuperToken())){
+        while (!is(resultpos, TokenKind.RIGHT_CURLY)){
+            if (STATEMENT_FIRST.contains(kindAt(resultpos))) {
                 final ParseResult<Statement> stmt = parseStatement(resultpos);
                 stmts.add(stmt.result);
                 resultpos = stmt.tokenPos;
             }
             else{
-                throw new ParserException("This is not a valid statement at " + resultpos  + " " + getToken(resultpos).toString());
+                throw new ParserException("This is not a valid statement at " + tokens.describe(resultpos)  + " " + getToken(resultpos).toString());
             }
         }
         CurlyBraceStack.pop();
@@ -680,6 +668,42 @@ public class Parser {
         return new ParseResult<Statement>(block, ++resultpos);
     }
 
+    // Parses a method or constructor body.  In skeleton mode a body in
+    // braces is only matched up and left for LazyStatement to parse.
+    // A TokenStream forgets tokens once they're behind it, so its bodies
+    // are always parsed right away.
+    private ParseResult<Statement> parseBody(final int startPos) throws ParserException {
+        if (!skeleton || !is(startPos, TokenKind.LEFT_CURLY) || tokens instanceof TokenStream) {
+            return parseStatement(startPos);
+        }
+        int depth = 0;
+        int resultpos = startPos;
+        do {
+            switch (kindAt(resultpos++)) {
+                case LEFT_CURLY:
+                    depth++;
+                    break;
+                case RIGHT_CURLY:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        } while (depth > 0);
+        final LazyStatement body = new LazyStatement(this, startPos, resultpos);
+        return spanned(startOffset(startPos), new ParseResult<Statement>(body, resultpos));
+    }
+
+    // Parses a body that parseBody() skipped
+    Statement parseBodyAt(final int start, final int end) throws ParserException {
+        final ParseResult<Statement> body = parseStatement(start);
+        if (body.tokenPos != end) {
+            throw new ParserException("Body ends at " + tokens.describe(body.tokenPos) +
+                                      " rather than at its closing brace");
+        }
+        return body.result;
+    }
+
     private ParseResult<MethodDef> parseMethodDef(final int startPos) throws ParserException {
         MethodDef methodDef;
         Access access;
@@ -688,115 +712,104 @@ public class Parser {
         List<VarDec> varDecs = new ArrayList<>();
         Statement statement;
         int resultpos = startPos;
-        access = ACCESS_MAP.get(getToken(resultpos));
-        returnType = RETURNTYPE_MAP.get(getToken(++resultpos));
+        final int start = startOffset(startPos);
+        access = ACCESS_MAP.get(kindAt(resultpos));
+        returnType = RETURNTYPE_MAP.get(kindAt(++resultpos));
         name = new MethodName(tokens.get(++resultpos).toString());
-        ensureTokenIs(++resultpos,new LeftParenToken());
+        expect(++resultpos, TokenKind.LEFT_PAREN);
         resultpos++;
 
-        if ((ensureToken(resultpos, new BooleanToken()) ||
-             ensureToken(resultpos, new IntToken()) ||
-             ensureToken(resultpos, new StringToken())) &&
-             ensureToken(resultpos + 1, new VariableToken())){
-            Type type = TYPE_MAP.get(getToken(resultpos));
+        if (VAR_DEC_TYPE_FIRST.contains(kindAt(resultpos)) && is(resultpos + 1, TokenKind.VARIABLE)){
+            Type type = TYPE_MAP.get(kindAt(resultpos));
             varDecs.add(new VarDec(type, new Variable(tokens.get(resultpos+2).toString())));
             resultpos = resultpos + 2;
-            if (getToken(resultpos) instanceof CommaToken){
-                while(getToken(resultpos) instanceof CommaToken){
+            if (kindAt(resultpos) == TokenKind.COMMA){
+                while(kindAt(resultpos) == TokenKind.COMMA){
                     resultpos++;
-                    if ((ensureToken(resultpos, new BooleanToken()) ||
-                    ensureToken(resultpos, new IntToken()) ||
-                    ensureToken(resultpos, new StringToken())) &&
-                    ensureToken(resultpos + 1, new VariableToken())){
-                        type = TYPE_MAP.get(getToken(resultpos));
+                    if (VAR_DEC_TYPE_FIRST.contains(kindAt(resultpos)) && is(resultpos + 1, TokenKind.VARIABLE)){
+                        type = TYPE_MAP.get(kindAt(resultpos));
                         varDecs.add(new VarDec(type, new Variable(tokens.get(resultpos+2).toString())));
                         resultpos = resultpos + 2;
                     }
                     else{
-                        throw new ParserException("This is not a valid var dec1 at " + resultpos);
+                        throw new ParserException("This is not a valid var dec1 at " + tokens.describe(resultpos));
                     }
                 }
-                ensureTokenIs(resultpos, new RightParenToken());
+                expect(resultpos, TokenKind.RIGHT_PAREN);
                 resultpos++;
             }
-            else if (ensureToken(resultpos, new RightParenToken())){
+            else if (is(resultpos, TokenKind.RIGHT_PAREN)){
                 resultpos++;
             }
             else{
-                throw new ParserException("This is not a valid var dec2 at " + resultpos);
+                throw new ParserException("This is not a valid var dec2 at " + tokens.describe(resultpos));
             }
         }
-        else if (getToken(resultpos) instanceof RightParenToken){
+        else if (kindAt(resultpos) == TokenKind.RIGHT_PAREN){
             resultpos++;
         }
         else{
-            throw new ParserException("Not a valid vardec at " + resultpos);
-        }
-        if(tokens.get(resultpos) instanceof NumberToken || /*ensureToken(resultpos, new BooleanToken())
-        ||*/ ensureToken(resultpos, new VariableToken()) || ensureToken(resultpos, new NewToken()) 
-        ||/* ensureToken(resultpos, new StringToken()) ||*/ ensureToken(resultpos, new ReturnToken())
-        || ensureToken(resultpos, new BreakToken()) || ensureToken(resultpos, new PrintToken()) 
-        || ensureToken(resultpos, new IntToken()) || ensureToken(resultpos, new BooleanToken())
-        || ensureToken(resultpos, new StringToken()) || ensureToken(resultpos, new LeftCurlyToken())){
-            final ParseResult<Statement> stmt = parseStatement(resultpos);
+            throw new ParserException("Not a valid vardec at " + tokens.describe(resultpos));
+        }
+        if (STATEMENT_FIRST.contains(kindAt(resultpos))) {
+            final ParseResult<Statement> stmt = parseBody(resultpos);
             statement = stmt.result;
             resultpos = stmt.tokenPos;
             methodDef = new MethodDef(access,returnType,name,varDecs,statement);
 
         }
         else{
-            throw new ParserException("This is not a valid statement at " + resultpos  + " " + getToken(resultpos).toString());
+            throw new ParserException("This is not a valid statement at " + tokens.describe(resultpos)  + " " + getToken(resultpos).toString());
         }
-        return new ParseResult<MethodDef>(methodDef, resultpos);
+        return spanned(start, new ParseResult<MethodDef>(methodDef, resultpos));
     }
     
     public ParseResult<List<Type>> checkTypes(int startPos) throws ParserException{
         int resultpos = startPos;
         List<Type> types = new ArrayList<>();
-        if (getToken(resultpos) instanceof BooleanToken || 
-            getToken(resultpos) instanceof IntToken ||
-            getToken(resultpos) instanceof VariableToken ) {
-            while (getToken(resultpos) instanceof BooleanToken || getToken(resultpos) instanceof IntToken
-            || getToken(resultpos) instanceof VariableToken){
-                if (getToken(resultpos) instanceof BooleanToken){
-                    BooleanType bt = new BooleanType();
+        if (kindAt(resultpos) == TokenKind.BOOLEAN || 
+            kindAt(resultpos) == TokenKind.INT ||
+            kindAt(resultpos) == TokenKind.VARIABLE ) {
+            while (kindAt(resultpos) == TokenKind.BOOLEAN || kindAt(resultpos) == TokenKind.INT
+            || kindAt(resultpos) == TokenKind.VARIABLE){
+                if (kindAt(resultpos) == TokenKind.BOOLEAN){
+                    Type bt = nodes.booleanType();
                     types.add(bt);
                     resultpos++;
-                    if (getToken(resultpos) instanceof CommaToken){
+                    if (kindAt(resultpos) == TokenKind.COMMA){
                         resultpos++;
                     }
                 }
-                else if (getToken(resultpos) instanceof IntToken){
-                    IntType bt = new IntType();
+                else if (kindAt(resultpos) == TokenKind.INT){
+                    Type bt = nodes.intType();
                     types.add(bt);
                     resultpos++;
-                    if (getToken(resultpos) instanceof CommaToken){
+                    if (kindAt(resultpos) == TokenKind.COMMA){
                         resultpos++;
                     }
                 }
                 else{
                     VariableToken vt = (VariableToken) getToken(resultpos);
-                    ensureTokenIs(++resultpos, new LessThanToken());
+                    expect(++resultpos, TokenKind.LESS_THAN);
                     resultpos++;
                     final ParseResult<List<Type>> pr = checkTypes(resultpos);
-                    types = pr.result;
                     resultpos = pr.tokenPos;
                     ClassName name = new ClassName(vt.name);
-                    ClassType ct = new ClassType(name,types);
+                    ClassType ct = nodes.classType(name, pr.result);
                     types.add(ct);
-                    if (getToken(resultpos) instanceof CommaToken){
+                    if (kindAt(resultpos) == TokenKind.COMMA){
                         resultpos++;
                     }
                 }
             }
-            ensureTokenIs(resultpos, new GreaterThanToken());
+            expect(resultpos, TokenKind.GREATER_THAN);
             resultpos++;
         }
-        else if (ensureToken(resultpos, new GreaterThanToken())){
+        else if (is(resultpos, TokenKind.GREATER_THAN)){
             resultpos++;
         }
         else{
-            throw new ParserException("This is not a valid type");
+            throw new ParserException("This is not a valid type at " + tokens.describe(resultpos));
         }
 
         return new ParseResult<List<Type>>(types,resultpos);
@@ -805,25 +818,25 @@ public class Parser {
     public ParseResult<List<TypeVariable>> checkTypeVariables(int startPos) throws ParserException{
         int resultpos = startPos;
         List<TypeVariable> tv = new ArrayList<>();
-        if ( getToken(resultpos) instanceof VariableToken ){
-            while ( getToken(resultpos) instanceof VariableToken){
+        if ( kindAt(resultpos) == TokenKind.VARIABLE ){
+            while ( kindAt(resultpos) == TokenKind.VARIABLE){
                 VariableToken vt = (VariableToken) getToken(resultpos);
-                TypeVariable t = new TypeVariable(vt.name);
+                TypeVariable t = nodes.typeVariable(vt.name);
                 tv.add(t);
                 resultpos++;
-                if (getToken(resultpos) instanceof CommaToken){
+                if (kindAt(resultpos) == TokenKind.COMMA){
                     resultpos++;
                 }
             }
-            ensureTokenIs(resultpos, new GreaterThanToken());
+            expect(resultpos, TokenKind.GREATER_THAN);
             resultpos++;
         }
-        else if (getToken(resultpos) instanceof GreaterThanToken){
-            ensureTokenIs(resultpos, new GreaterThanToken());
+        else if (kindAt(resultpos) == TokenKind.GREATER_THAN){
+            expect(resultpos, TokenKind.GREATER_THAN);
             resultpos++;
         }
         else{
-            throw new ParserException("This is not a valid type var");
+            throw new ParserException("This is not a valid type var at " + tokens.describe(resultpos));
         }
         return new ParseResult<List<TypeVariable>>(tv, resultpos);
     }
@@ -837,16 +850,17 @@ public class Parser {
         List<VarDec> vardecs = new ArrayList<VarDec>();
         Statement statement = null;
         List<MethodDef> methodDefs = new ArrayList<MethodDef>();
+        final int start = startOffset(startPos);
         final ClassName name = new ClassName(tokens.get(++resultpos).toString());
-        ensureTokenIs(++resultpos,new LessThanToken());
+        expect(++resultpos, TokenKind.LESS_THAN);
         resultpos++;
         final ParseResult<List<TypeVariable>> pr = checkTypeVariables(resultpos);
         List<TypeVariable> typeVariables = pr.result;
         resultpos= pr.tokenPos;
-        if (ensureToken(resultpos, new ExtendsToken())){
+        if (is(resultpos, TokenKind.EXTENDS)){
             List<Type> extendedtypes = new ArrayList<>();
             extendsName = new ClassName(getToken(++resultpos).toString());
-            ensureTokenIs(++resultpos, new LessThanToken());
+            expect(++resultpos, TokenKind.LESS_THAN);
             resultpos++;
             final ParseResult<List<Type>> p = checkTypes(resultpos);
             extendedtypes = p.result;
@@ -856,42 +870,40 @@ public class Parser {
         else{
             //Extended class is null, do nothing.
         }
-        ensureTokenIs(resultpos, new LeftCurlyToken());
+        expect(resultpos, TokenKind.LEFT_CURLY);
         CurlyBraceStack.push(1);
         resultpos++;
         while (!CurlyBraceStack.empty()){
-            //this is a a vardec
-            if ((ensureToken(resultpos, new BooleanToken()) ||
-                ensureToken(resultpos, new IntToken()) ||
-                ensureToken(resultpos, new StringToken()) ||
-                ensureToken(resultpos, new VariableToken())) &&
-                ensureToken(resultpos + 1, new VariableToken()) &&
-                ensureToken(resultpos + 2, new SemiToken())){
-                final Type type;
-                if(ensureToken(resultpos, new VariableToken())) {
-                    type = new TypeVariable(((VariableToken)getToken(resultpos)).name);
-                } else {
-                    type = TYPE_MAP.get(getToken(resultpos));
-                }
-                vardecs.add(new VarDec(type, new Variable(tokens.get(resultpos+2).toString())));
-                resultpos = resultpos + 3;
-            }
-            //This is a constructor
-            else if(ensureToken(resultpos, new ConstructorToken())){
-                ensureTokenIs(++resultpos, new LeftParenToken());
-                ArrayList<VarDec> parameters = new ArrayList<VarDec>();
-                int currentpos = resultpos + 1;
-                if (ensureToken(currentpos, new BooleanToken()) ||
-                    ensureToken(currentpos, new IntToken()) ||
-                    ensureToken(currentpos, new VariableToken())){
-                        while (ensureToken(currentpos, new BooleanToken()) ||
-                               ensureToken(currentpos, new IntToken()) ||
-                               ensureToken(currentpos, new VariableToken())){
+            switch (kindAt(resultpos)) {
+                case BOOLEAN:
+                case INT:
+                case STRING:
+                case VARIABLE:
+                    //this is a a vardec
+                    if (is(resultpos + 1, TokenKind.VARIABLE) && is(resultpos + 2, TokenKind.SEMI)) {
+                        final Type type;
+                        if(is(resultpos, TokenKind.VARIABLE)) {
+                            type = nodes.typeVariable(((VariableToken)getToken(resultpos)).name);
+                        } else {
+                            type = TYPE_MAP.get(kindAt(resultpos));
+                        }
+                        vardecs.add(new VarDec(type, new Variable(tokens.get(resultpos+2).toString())));
+                        resultpos = resultpos + 3;
+                        continue;
+                    }
+                    break;
+                case CONSTRUCTOR: {
+                    final int constructorStart = startOffset(resultpos);
+                    expect(++resultpos, TokenKind.LEFT_PAREN);
+                    ArrayList<VarDec> parameters = new ArrayList<VarDec>();
+                    int currentpos = resultpos + 1;
+                    if (CONSTRUCTOR_PARAM_FIRST.contains(kindAt(currentpos))){
+                        while (CONSTRUCTOR_PARAM_FIRST.contains(kindAt(currentpos))){
                             final Type type;
-                            if(ensureToken(currentpos, new VariableToken())) {
-                                type = new TypeVariable(((VariableToken)getToken(currentpos)).toString());
+                            if(is(currentpos, TokenKind.VARIABLE)) {
+                                type = nodes.typeVariable(((VariableToken)getToken(currentpos)).toString());
                             } else {
-                                type = TYPE_MAP.get(getToken(currentpos));
+                                type = TYPE_MAP.get(kindAt(currentpos));
                             }
                             final VarDec varDec = new VarDec(
                                                 type,
@@ -900,76 +912,71 @@ public class Parser {
                             parameters.add(varDec);
                             currentpos = currentpos + 2;
                             //If there is a comma, more parameters
-                            if (ensureToken(currentpos, new CommaToken())){
+                            if (is(currentpos, TokenKind.COMMA)){
                                 currentpos++;
                             }
-                        }    
+                        }
                         //Currentpos should then have a right parenthesis
                         resultpos = currentpos;
-                }
-                else{
+                    }
+                    else{
+                        resultpos++;
+                    }
+                    expect(resultpos, TokenKind.RIGHT_PAREN);
                     resultpos++;
+                    final ParseResult<Statement> stmt = parseBody(resultpos);
+                    statement = stmt.result;
+                    resultpos = stmt.tokenPos;
+                    constructor = new Constructor(parameters, statement);
+                    spanned(constructorStart, new ParseResult<Constructor>(constructor, resultpos));
+                    continue;
                 }
-                ensureTokenIs(resultpos, new RightParenToken());
-                resultpos++;
-                final ParseResult<Statement> stmt = parseStatement(resultpos);
-                statement = stmt.result;
-                resultpos = stmt.tokenPos;
-                constructor = new Constructor(parameters, statement);
-            }
-            
-            //This is a method def
-            else if((getToken(resultpos) instanceof PrivateToken || getToken(resultpos) instanceof PublicToken)
-            && (ensureToken(resultpos + 1, new BooleanToken()) ||
-            ensureToken(resultpos + 1 , new IntToken()) ||
-            ensureToken(resultpos + 1, new StringToken()) ||
-            ensureToken(resultpos + 1, new VoidToken())) &&
-            ensureToken(resultpos + 2, new VariableToken()) &&
-            ensureToken(resultpos + 3, new LeftParenToken())){
-                final ParseResult<MethodDef> methoddef = parseMethodDef(resultpos);
-                methodDefs.add(methoddef.result);
-                resultpos = methoddef.tokenPos;
-            }
-            else if ((ensureToken(resultpos, new RightCurlyToken()))){
-                resultpos++;
-                CurlyBraceStack.pop();
-            }
-            else{
-                throw new ParserException("This is not a valid class because it doesnt have a matching curly brace @ " + resultpos);
+                case PRIVATE:
+                case PUBLIC:
+                    //This is a method def
+                    if (RETURN_TYPE_FIRST.contains(kindAt(resultpos + 1)) &&
+                        is(resultpos + 2, TokenKind.VARIABLE) &&
+                        is(resultpos + 3, TokenKind.LEFT_PAREN)){
+                        final ParseResult<MethodDef> methoddef = parseMethodDef(resultpos);
+                        methodDefs.add(methoddef.result);
+                        resultpos = methoddef.tokenPos;
+                        continue;
+                    }
+                    break;
+                case RIGHT_CURLY:
+                    resultpos++;
+                    CurlyBraceStack.pop();
+                    continue;
+                default:
+                    break;
             }
+            throw new ParserException("This is not a valid class because it doesnt have a matching curly brace @ " + tokens.describe(resultpos));
         }
         if (constructor == null){
             throw new ParserException("This class Does not have a constructor");
         }
         resultClassDef = new ClassDef(name, constructor, extendedClass, vardecs, methodDefs, typeVariables);
-        return new ParseResult<ClassDef>(resultClassDef, resultpos);
+        return spanned(start, new ParseResult<ClassDef>(resultClassDef, resultpos));
     }
 
     private ParseResult<Program> parseProgram(final int startPos) throws ParserException {
-        final Token tokenhere = tokens.get(startPos);
-        // System.out.println("here and tokenhere = " + tokenhere);
         Program resultProgram = null;
         List<ClassDef> classdefs = new ArrayList<ClassDef>();
         int resultpos=startPos;
         // System.out.println("We are in parse program");
         //If it is a variable token and that token is Class, this is a class def
-        while (ensureToken(resultpos, new ClassToken())){
-            if (ensureToken(resultpos + 1, new VariableToken()) ){
+        while (is(resultpos, TokenKind.CLASS)){
+            if (is(resultpos + 1, TokenKind.VARIABLE) ){
                 final ParseResult<ClassDef> classDef = parseClassDef(resultpos);
                 resultpos= classDef.tokenPos;
                 classdefs.add(classDef.result);
             }
             else {
-                throw new ParserException("This is not a valid Class at " + resultpos);
+                throw new ParserException("This is not a valid Class at " + tokens.describe(resultpos));
             }
         }
-        if(tokens.get(resultpos) instanceof NumberToken || /*ensureToken(resultpos, new BooleanToken())
-        ||*/ ensureToken(resultpos, new VariableToken()) || ensureToken(resultpos, new NewToken()) 
-        ||/* ensureToken(resultpos, new StringToken()) ||*/ ensureToken(resultpos, new ReturnToken())
-        || ensureToken(resultpos, new BreakToken()) || ensureToken(resultpos, new PrintToken()) 
-        || ensureToken(resultpos, new IntToken()) || ensureToken(resultpos, new BooleanToken())
-        || ensureToken(resultpos, new StringToken()) || ensureToken(resultpos, new LeftCurlyToken())
-        || ensureToken(resultpos, new IfToken()) || ensureToken(resultpos, new WhileToken())){
+        // super(...) is only allowed in a constructor
+        if (PROGRAM_STATEMENT_FIRST.contains(kindAt(resultpos))){
             // System.out.println("We are in statement part of program");
             // System.out.println("parsing stmt");
             final ParseResult<Statement> Statemnt = parseStatement(resultpos);
@@ -979,20 +986,405 @@ public class Parser {
             resultpos = Statemnt.tokenPos;
         }
         else{
-            throw new ParserException("This is not a valid Program at " + resultpos);
+            throw new ParserException("This is not a valid Program at " + tokens.describe(resultpos));
 
         }
         
         return new ParseResult<Program>(resultProgram, resultpos);
     }
     public Program parseMe() throws ParserException {
-        final ParseResult<Program> result = parseProgram(0);
+        return finish(parseProgram(0));
+    }
+
+    // Checks that the program used up all the tokens
+    private Program finish(final ParseResult<Program> result) throws ParserException {
+        checkAllUsed(result.tokenPos);
+        return result.result;
+    }
 
-        if(result.tokenPos >= tokens.size()){
-            return result.result;
+    private void checkAllUsed(final int pos) throws ParserException {
+        if (tokens.hasToken(pos)) {
+            throw new ParserException("Extra token " + tokens.get(pos) + " token at " + tokens.describe(pos));
         }
-        else{
-            throw new ParserException("Extra token " + tokens.get(result.tokenPos) + " token at " + result.tokenPos);
+    }
+
+    // Reparses a program after an edit replaced removed characters at offset
+    // with inserted ones.  This parser must read the edited tokens (from
+    // IncrementalLexer.edit, say); old and oldSpans come from the parse of
+    // the source before the edit.  Only the smallest class, method or
+    // statement around the edit is parsed again and its ancestors rebuilt;
+    // every other node is reused, so a node that isn't == to an old one is
+    // new.  Falls back to parseMe() when no class or statement strictly
+    // contains the edit, or the reparsed one no longer ends where it did.
+    public Program reparse(final Program old,
+                           final SourceSpans oldSpans,
+                           final int offset,
+                           final int removed,
+                           final int inserted) throws ParserException {
+        spans.addEdited(oldSpans, offset, removed, inserted);
+        final Program program = new Reparse(oldSpans, offset, removed, inserted).program(old);
+        if (program == null) {
+            spans.clear();
+            return parseMe();
+        }
+        return program;
+    }
+
+    // One reparse() call.  Each method returns null when the edit can't be
+    // handled locally.
+    private class Reparse {
+        private final SourceSpans oldSpans;
+        // the edit replaced old offsets [editStart, editEnd)
+        private final int editStart;
+        private final int editEnd;
+        private final int delta;
+
+        public Reparse(final SourceSpans oldSpans,
+                       final int offset,
+                       final int removed,
+                       final int inserted) {
+            this.oldSpans = oldSpans;
+            this.editStart = offset;
+            this.editEnd = offset + removed;
+            this.delta = inserted - removed;
+        }
+
+        // True if the edit lies strictly inside the node, so the node's
+        // first and last tokens are untouched
+        private boolean encloses(final Object node) {
+            final int start = oldSpans.start(node);
+            return start >= 0 && start < editStart && editEnd < oldSpans.end(node);
+        }
+
+        // Records the span of a node rebuilt around the edit
+        private <A> A rebuilt(final Object old, final A node) {
+            spans.record(node, oldSpans.start(old), oldSpans.end(old) + delta);
+            return node;
+        }
+
+        // Parses old's replacement, which must end where old did (moved by
+        // the edit)
+        private <A> A checkEnd(final Object old, final ParseResult<A> parsed) throws ParserException {
+            return (parsed.tokenPos == tokenAt(oldSpans.end(old) + delta)) ? parsed.result : null;
+        }
+
+        private int startPos(final Object old) throws ParserException {
+            return tokenAt(oldSpans.start(old));
+        }
+
+        public Program program(final Program old) throws ParserException {
+            for (int i = 0; i < old.classDefs.size(); i++) {
+                final ClassDef classDef = old.classDefs.get(i);
+                if (encloses(classDef)) {
+                    final ClassDef replacement = classDef(classDef);
+                    if (replacement == null) {
+                        return null;
+                    }
+                    final List<ClassDef> classDefs = new ArrayList<ClassDef>(old.classDefs);
+                    classDefs.set(i, replacement);
+                    return new Program(classDefs, old.statement);
+                }
+            }
+            if (encloses(old.statement)) {
+                final Statement replacement = statement(old.statement);
+                return (replacement == null) ? null : new Program(old.classDefs, replacement);
+            }
+            return null;
+        }
+
+        private ClassDef classDef(final ClassDef old) throws ParserException {
+            Constructor constructor = old.constructor;
+            List<MethodDef> methodDefs = old.methodDefs;
+            if (constructor != null && encloses(constructor.body)) {
+                final Statement body = statement(constructor.body);
+                if (body == null) {
+                    return null;
+                }
+                constructor = rebuilt(old.constructor, new Constructor(constructor.parameters, body));
+            } else {
+                int index = 0;
+                while (index < methodDefs.size() && !encloses(methodDefs.get(index))) {
+                    index++;
+                }
+                if (index == methodDefs.size()) {
+                    // the edit is in the class header, a field or the
+                    // constructor's signature
+                    return checkEnd(old, parseClassDef(startPos(old)));
+                }
+                final MethodDef methodDef = methodDef(methodDefs.get(index));
+                if (methodDef == null) {
+                    return null;
+                }
+                methodDefs = new ArrayList<MethodDef>(methodDefs);
+                methodDefs.set(index, methodDef);
+            }
+            return rebuilt(old, new ClassDef(old.name, constructor, old.extendedClass,
+                                             old.instanceVars, methodDefs, old.typeVariables));
+        }
+
+        private MethodDef methodDef(final MethodDef old) throws ParserException {
+            if (!encloses(old.body)) {
+                return checkEnd(old, parseMethodDef(startPos(old)));
+            }
+            final Statement body = statement(old.body);
+            return (body == null) ? null :
+                rebuilt(old, new MethodDef(old.access, old.returnType, old.name, old.varDecs, body));
+        }
+
+        private Statement statement(final Statement old) throws ParserException {
+            if (old instanceof Block) {
+                final List<Statement> statements = ((Block)old).statements;
+                for (int i = 0; i < statements.size(); i++) {
+                    if (encloses(statements.get(i))) {
+                        final Statement replacement = statement(statements.get(i));
+                        if (replacement == null) {
+                            return null;
+                        }
+                        final List<Statement> edited = new ArrayList<Statement>(statements);
+                        edited.set(i, replacement);
+                        return rebuilt(old, new Block(edited));
+                    }
+                }
+            } else if (old instanceof IfStatement) {
+                final IfStatement ifStmt = (IfStatement)old;
+                if (encloses(ifStmt.ifTrue) || encloses(ifStmt.ifFalse)) {
+                    final boolean inTrue = encloses(ifStmt.ifTrue);
+                    final Statement replacement = statement(inTrue ? ifStmt.ifTrue : ifStmt.ifFalse);
+                    return (replacement == null) ? null :
+                        rebuilt(old, new IfStatement(ifStmt.guard,
+                                                     inTrue ? replacement : ifStmt.ifTrue,
+                                                     inTrue ? ifStmt.ifFalse : replacement));
+                }
+            } else if (old instanceof WhileStatement) {
+                final WhileStatement whileStmt = (WhileStatement)old;
+                if (encloses(whileStmt.stmt)) {
+                    final Statement replacement = statement(whileStmt.stmt);
+                    return (replacement == null) ? null :
+                        rebuilt(old, new WhileStatement(whileStmt.condition, replacement));
+                }
+            }
+            return checkEnd(old, parseStatement(startPos(old)));
+        }
+    } // Reparse
+
+    // Position of the first token starting at or after the offset
+    private int tokenAt(final int offset) throws ParserException {
+        int high = 1;
+        while (tokens.hasToken(high - 1) && tokens.start(high - 1) < offset) {
+            high *= 2;
+        }
+        int low = high / 2;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (tokens.hasToken(mid) && tokens.start(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Parses the classes of the program concurrently.  A first pass matches
+    // braces to find where each class ends; the classes are then split into
+    // a few groups per thread, and each group is parsed by its own Parser
+    // over the same tokens while this one parses the main statement.
+    // The program, the spans and any error are the same as parseMe()'s.
+    public Program parseParallel() throws ParserException {
+        return parseParallel(ForkJoinPool.commonPool());
+    }
+
+    // Parses the classes using the threads of pool.  The pool is the
+    // caller's, so repeated calls share its threads.
+    public Program parseParallel(final ForkJoinPool pool) throws ParserException {
+        final int parallelism = pool.getParallelism();
+        final int[] bounds;
+        try {
+            bounds = classBounds();
+        } catch (final ParserException e) {
+            // let the sequential parser report the problem
+            return parseMe();
+        }
+        final int classes = bounds.length - 1;
+        // a TokenStream can't go back to an earlier class
+        if (parallelism <= 1 || classes < 2 || tokens instanceof TokenStream) {
+            return parseMe();
+        }
+
+        final int groups = Math.min(classes, parallelism * CLASS_GROUPS_PER_THREAD);
+        final List<Future<List<ClassDef>>> results = new ArrayList<Future<List<ClassDef>>>(groups);
+        try {
+            final Parser[] parsers = new Parser[groups];
+            for (int i = 0; i < groups; i++) {
+                final int first = (int)((long)classes * i / groups);
+                final int last = (int)((long)classes * (i + 1) / groups);
+                final Parser parser = new Parser(tokens);
+                parsers[i] = parser;
+                results.add(pool.submit(() -> parser.parseClassDefs(bounds, first, last)));
+            }
+
+            ParseResult<Program> rest = null;
+            ParserException restError = null;
+            try {
+                rest = parseProgram(bounds[classes]);
+            } catch (final ParserException e) {
+                // classes come first, so their errors are reported first
+                restError = e;
+            }
+
+            final List<ClassDef> classDefs = new ArrayList<ClassDef>(classes);
+            for (int i = 0; i < groups; i++) {
+                final List<ClassDef> group = results.get(i).get();
+                if (group == null) {
+                    // drop the main statement's spans along with the rest
+                    spans.clear();
+                    return parseMe();
+                }
+                classDefs.addAll(group);
+            }
+            // only once every group parsed, so a fallback leaves no spans
+            // of abandoned nodes behind
+            for (final Parser parser : parsers) {
+                spans.addAll(parser.spans);
+            }
+            if (restError != null) {
+                throw restError;
+            }
+            return finish(new ParseResult<Program>(new Program(classDefs, rest.result.statement),
+                                                   rest.tokenPos));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ParserException("Interrupted while parsing");
+        } catch (final ExecutionException e) {
+            // ForkJoinPool wraps checked exceptions from a Callable in a
+            // RuntimeException, so dig for the original
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof ParserException) {
+                    throw (ParserException)cause;
+                }
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // after an error or a fallback, don't leave groups nobody
+            // will look at queued on the caller's pool
+            for (final Future<List<ClassDef>> result : results) {
+                result.cancel(false);
+            }
+        }
+    }
+
+    // Token positions where each leading class starts, followed by the
+    // position just past the last one.  Only looks at braces, so it's much
+    // cheaper than parsing the classes.
+    private int[] classBounds() throws ParserException {
+        final List<Integer> bounds = new ArrayList<Integer>();
+        int resultpos = 0;
+        bounds.add(resultpos);
+        while (tokens.hasToken(resultpos) && is(resultpos, TokenKind.CLASS)) {
+            while (!is(resultpos, TokenKind.LEFT_CURLY)) {
+                resultpos++;
+            }
+            int depth = 0;
+            do {
+                switch (kindAt(resultpos++)) {
+                    case LEFT_CURLY:
+                        depth++;
+                        break;
+                    case RIGHT_CURLY:
+                        depth--;
+                        break;
+                    default:
+                        break;
+                }
+            } while (depth > 0);
+            bounds.add(resultpos);
+        }
+        final int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // Parses the classes from bounds[first] up to bounds[last], or returns
+    // null if one doesn't end where classBounds() said it would
+    private List<ClassDef> parseClassDefs(final int[] bounds,
+                                          final int first,
+                                          final int last) throws ParserException {
+        final List<ClassDef> classDefs = new ArrayList<ClassDef>(last - first);
+        for (int i = first; i < last; i++) {
+            if (!is(bounds[i] + 1, TokenKind.VARIABLE)) {
+                throw new ParserException("This is not a valid Class at " + tokens.describe(bounds[i]));
+            }
+            final ParseResult<ClassDef> classDef = parseClassDef(bounds[i]);
+            if (classDef.tokenPos != bounds[i + 1]) {
+                // the parse disagrees with the brace matching
+                return null;
+            }
+            classDefs.add(classDef.result);
+        }
+        return classDefs;
+    }
+
+    // Parses class and method signatures, leaving method and constructor
+    // bodies as LazyStatements that are parsed on first use
+    public Program parseSkeleton() throws ParserException {
+        skeleton = true;
+        try {
+            return parseMe();
+        } finally {
+            skeleton = false;
+        }
+    }
+
+    // Parses into the compact FlatAst form.  Each class, and each
+    // statement of a main block, is flattened as soon as it's parsed and
+    // then dropped, along with the shared nodes and spans that would keep
+    // it alive, so the objects of only one of them exist at a time.  The
+    // program is the same as parseMe()'s, as are the errors, but no spans
+    // are recorded.
+    public FlatAst parseFlat() throws ParserException {
+        final FlatAst ast = new FlatAst(new NameTable());
+        flat = true;
+        try {
+            int pos = 0;
+            while (is(pos, TokenKind.CLASS)) {
+                if (!is(pos + 1, TokenKind.VARIABLE)) {
+                    throw new ParserException("This is not a valid Class at " + tokens.describe(pos));
+                }
+                final ParseResult<ClassDef> classDef = parseClassDef(pos);
+                ast.addClassDef(FlatAst.ROOT, classDef.result);
+                nodes.clear();
+                pos = classDef.tokenPos;
+            }
+            if (!PROGRAM_STATEMENT_FIRST.contains(kindAt(pos))) {
+                throw new ParserException("This is not a valid Program at " + tokens.describe(pos));
+            }
+            if (is(pos, TokenKind.LEFT_CURLY)) {
+                // parseBlock() one statement at a time
+                final int block = ast.add(FlatAst.ROOT, AstKind.BLOCK, 0);
+                pos++;
+                while (!is(pos, TokenKind.RIGHT_CURLY)) {
+                    if (!STATEMENT_FIRST.contains(kindAt(pos))) {
+                        throw new ParserException("This is not a valid statement at " + tokens.describe(pos) +
+                                                  " " + getToken(pos).toString());
+                    }
+                    final ParseResult<Statement> stmt = parseStatement(pos);
+                    ast.addStatement(block, stmt.result);
+                    nodes.clear();
+                    pos = stmt.tokenPos;
+                }
+                pos++;
+            } else {
+                final ParseResult<Statement> stmt = parseStatement(pos);
+                ast.addStatement(FlatAst.ROOT, stmt.result);
+                pos = stmt.tokenPos;
+            }
+            checkAllUsed(pos);
+            return ast.finish();
+        } finally {
+            flat = false;
+            nodes.clear();
         }
     }
 }
\ No newline at end of file
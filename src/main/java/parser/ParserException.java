@@ -6,4 +6,9 @@ public class ParserException extends Exception
     {
         super(message);
     }
-}
\ No newline at end of file
+
+    public ParserException(final String message, final Throwable cause)
+    {
+        super(message, cause);
+    }
+}
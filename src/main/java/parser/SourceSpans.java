@@ -0,0 +1,129 @@
+package j2script;
+
+import java.util.Arrays;
+
+// Source span of each statement and declaration the parser built.
+// AST classes carry no positions, so spans live in this side table keyed by
+// node identity: one slot per node, start and end packed into a long.
+// Safe to use from several threads: skipped bodies are parsed, and their
+// spans recorded, while the type checker's workers look up others.
+public class SourceSpans {
+    private final LineIndex lines; // null if offsets are unknown
+    private Object[] nodes;
+    private long[] spans;
+    private int size;
+
+    public SourceSpans(final LineIndex lines) {
+        this.lines = lines;
+        this.nodes = new Object[64];
+        this.spans = new long[64];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Records that node covers source offsets [start, end)
+    public synchronized void record(final Object node, final int start, final int end) {
+        if ((size + 1) * 2 > nodes.length) {
+            rehash();
+        }
+        final int slot = find(node);
+        if (nodes[slot] == null) {
+            nodes[slot] = node;
+            size++;
+        }
+        spans[slot] = ((long)start << 32) | (end & 0xFFFFFFFFL);
+    }
+
+    // Records every span of another table
+    public void addAll(final SourceSpans other) {
+        final SourceSpans copy = other.copy();
+        synchronized (this) {
+            for (int i = 0; i < copy.nodes.length; i++) {
+                if (copy.nodes[i] != null) {
+                    record(copy.nodes[i], (int)(copy.spans[i] >>> 32), (int)copy.spans[i]);
+                }
+            }
+        }
+    }
+
+    // Records the spans of another table as they are after an edit replaced
+    // removed characters at offset with inserted ones.  Spans before the edit
+    // are kept, those after it are moved, and those overlapping it dropped.
+    public void addEdited(final SourceSpans other,
+                          final int offset,
+                          final int removed,
+                          final int inserted) {
+        final SourceSpans copy = other.copy();
+        synchronized (this) {
+            for (int i = 0; i < copy.nodes.length; i++) {
+                if (copy.nodes[i] != null) {
+                    final int start = (int)(copy.spans[i] >>> 32);
+                    final int end = (int)copy.spans[i];
+                    if (end <= offset) {
+                        record(copy.nodes[i], start, end);
+                    } else if (start >= offset + removed) {
+                        record(copy.nodes[i], start + inserted - removed, end + inserted - removed);
+                    }
+                }
+            }
+        }
+    }
+
+    // A snapshot to read without holding this table's lock, so adding one
+    // table to another never holds both locks
+    private synchronized SourceSpans copy() {
+        final SourceSpans result = new SourceSpans(lines);
+        result.nodes = nodes.clone();
+        result.spans = spans.clone();
+        result.size = size;
+        return result;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(nodes, null);
+        size = 0;
+    }
+
+    // Start offset of the node, or -1 if it has no span
+    public synchronized int start(final Object node) {
+        final int slot = find(node);
+        return nodes[slot] == null ? -1 : (int)(spans[slot] >>> 32);
+    }
+
+    // End offset of the node, or -1 if it has no span
+    public synchronized int end(final Object node) {
+        final int slot = find(node);
+        return nodes[slot] == null ? -1 : (int)spans[slot];
+    }
+
+    // Where the node starts, for error messages, or null if unknown
+    public String describe(final Object node) {
+        final int start = start(node);
+        return (start < 0 || lines == null) ? null : lines.describe(start);
+    }
+
+    private int find(final Object node) {
+        final int mask = nodes.length - 1;
+        int slot = System.identityHashCode(node) & mask;
+        while (nodes[slot] != null && nodes[slot] != node) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        final Object[] oldNodes = nodes;
+        final long[] oldSpans = spans;
+        nodes = new Object[oldNodes.length * 2];
+        spans = new long[oldNodes.length * 2];
+        for (int i = 0; i < oldNodes.length; i++) {
+            if (oldNodes[i] != null) {
+                final int slot = find(oldNodes[i]);
+                nodes[slot] = oldNodes[i];
+                spans[slot] = oldSpans[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package j2script;
+
+import j2script.tokens.Token;
+import j2script.tokens.TokenKind;
+
+// Random-access view of the tokens the parser consumes.
+// The parser only ever looks a few tokens ahead of where it is, so a source
+// is free to lex lazily and forget tokens far behind the current position.
+public interface TokenSource {
+    // Returns the token at the given position.
+    // Throws IndexOutOfBoundsException if there is no token there.
+    public Token get(int pos) throws ParserException;
+
+    // Kind of the token at the given position, without materializing it.
+    // Throws IndexOutOfBoundsException if there is no token there.
+    public TokenKind kind(int pos) throws ParserException;
+
+    // Returns true if there is a token at the given position
+    public boolean hasToken(int pos) throws ParserException;
+
+    // Where the token at the given position is, for error messages
+    public String describe(int pos);
+
+    // Source offset of the token at the given position, or -1 if the
+    // source doesn't know where its tokens came from
+    public int start(int pos) throws ParserException;
+
+    // Length of the token at the given position in the source, or 0 if
+    // the source doesn't know where its tokens came from
+    public int length(int pos) throws ParserException;
+
+    // Where lines start in the source, or null if unknown
+    public LineIndex lines();
+}
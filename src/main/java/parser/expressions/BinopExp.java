@@ -1,10 +1,15 @@
 package j2script.expressions;
 import j2script.operators.*;
+import j2script.AstPrinter;
+import j2script.DeepRecursion;
 
 public class BinopExp implements Exp {
     public final Exp left;
     public final Op op;
     public final Exp right;
+    // computed from the children's hashes, which are cached the same way
+    // for nested binops, so hashing a chain doesn't walk it
+    private final int hash;
 
     public BinopExp(final Exp left,
                     final Op op,
@@ -12,32 +17,45 @@ public class BinopExp implements Exp {
         this.left = left;
         this.op = op;
         this.right = right;
+        this.hash = hash(left, op, right);
+    }
+
+    // The hash a BinopExp of these parts has
+    public static int hash(final Exp left, final Op op, final Exp right) {
+        return 31 * (31 * left.hashCode() + op.hashCode()) + right.hashCode();
     }
 
     public int hashCode() {
-        return (left.hashCode() +
-                op.hashCode() +
-                right.hashCode());
+        return hash;
     }
 
+    // Walks the left spine in a loop, so long chains don't recurse, and
+    // nested right operands get more stack as they need it
     public boolean equals(final Object other) {
-        if (other instanceof BinopExp) {
-            final BinopExp otherExp = (BinopExp)other;
-            return (otherExp.left.equals(left) &&
-                    otherExp.op.equals(op) &&
-                    otherExp.right.equals(right));
-        } else {
-            return false;
+        Exp mine = this;
+        Object theirs = other;
+        while (mine instanceof BinopExp && theirs instanceof BinopExp) {
+            final BinopExp myExp = (BinopExp)mine;
+            final BinopExp otherExp = (BinopExp)theirs;
+            if (myExp == otherExp) {
+                return true;
+            }
+            if (otherExp.hash != myExp.hash ||
+                !otherExp.op.equals(myExp.op) ||
+                !DeepRecursion.call(() -> otherExp.right.equals(myExp.right))) {
+                return false;
+            }
+            mine = myExp.left;
+            theirs = otherExp.left;
         }
+        return (mine instanceof BinopExp || theirs instanceof BinopExp) ? false : mine.equals(theirs);
     }
 
     public String toString() {
-        return left.toString() +
-                " " + op.toString() +
-                " " + right.toString();
+        return AstPrinter.print(this);
     }
 
     public String emit() {
-        return left.toString() + " " + op.toString() + " " + right.toString();
+        return AstPrinter.print(this);
     }
 }
\ No newline at end of file
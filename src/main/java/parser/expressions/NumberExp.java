@@ -7,9 +7,13 @@ public class NumberExp implements Exp {
         this.number = number;
     }
 
+    public int hashCode() {
+        return number;
+    }
+
     public boolean equals(final Object other) {
-        final NumberExp otherExp = (NumberExp) other;
-        return otherExp.number == number;
+        return (other instanceof NumberExp &&
+                ((NumberExp)other).number == number);
     }
 
     public String toString() {
@@ -9,6 +9,15 @@ public class VariableExp implements Exp {
         this.var = var;
     }
 
+    public int hashCode() {
+        return var.hashCode();
+    }
+
+    public boolean equals(final Object other) {
+        return (other instanceof VariableExp &&
+                ((VariableExp)other).var.equals(var));
+    }
+
     public String emit() {
         return var.toString();
     }
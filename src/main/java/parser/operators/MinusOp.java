@@ -1,6 +1,7 @@
 package j2script.operators;
 
 public class MinusOp implements Op {
+    public int hashCode() { return 2; }
     public boolean equals(final Object other) {
         return other instanceof MinusOp;
     }
@@ -1,5 +1,6 @@
 package j2script.statements;
 import java.util.*;
+import j2script.AstPrinter;
 
 public class Block implements Statement {
     public final List<Statement> statements;
@@ -11,9 +12,9 @@ public class Block implements Statement {
     public Block(final List<Statement> statements){
         this.statements = statements;
     }
-    // public int hashCode() {
-    //     //TODO
-    // }
+    public int hashCode() {
+        return statements.hashCode();
+    }
 
     public boolean equals(final Object other) {
         if (other instanceof Block) {
@@ -25,11 +26,6 @@ public class Block implements Statement {
     }
 
     public String toString() {
-        String statement = new String();
-        for (Statement s : statements) {
-            statement += s.toString();
-            statement += "\n";
-        }
-        return statement;
+        return AstPrinter.print(this);
     }
 }
\ No newline at end of file
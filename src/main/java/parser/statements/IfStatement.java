@@ -1,5 +1,6 @@
 package j2script.statements;
 
+import j2script.AstPrinter;
 import j2script.expressions.Exp;
 import j2script.statements.Statement;
 
@@ -32,13 +33,10 @@ public class IfStatement implements Statement {
     }
 
     public String toString() {
-        return ("if (" + guard.emit() + ") { " +
-                ifTrue.toString() + " } else { " +
-                ifFalse.toString() + "}");
+        return AstPrinter.print(this);
     }
 
     public String emit() {
-        return ("if (" + guard.emit() + ") { " +
-            ifTrue.toString() + " } else { " +
-            ifFalse.toString() + "}");    }
+        return AstPrinter.print(this);
+    }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package j2script.statements;
 
+import j2script.AstPrinter;
 import j2script.expressions.Exp;
 
 public class WhileStatement implements Statement {
@@ -28,10 +29,10 @@ public class WhileStatement implements Statement {
     }
 
     public String toString() {
-        return ("while(" + condition.emit() + ") {" + stmt.toString() + "}");
+        return AstPrinter.print(this);
     }
 
     public String emit() {
-        return ("while(" + condition.emit() + ") {" + stmt.toString() + "}");
+        return AstPrinter.print(this);
     }
 }
\ No newline at end of file
@@ -8,27 +8,45 @@ import java.util.List;
 public class ClassType implements Type {
     public final ClassName name;
     public final List<Type> types;
+    // types must not change after construction, as the hash covers them
+    private final int hash;
+    // set by Types on its shared instance
+    boolean shared;
 
     public ClassType(final ClassName name, final List<Type> types) {
         this.name = name;
         this.types = types;
+        this.hash = 31 * name.hashCode() + ((types == null) ? 1 : types.hashCode());
     }
 
     public int hashCode() {
-        return 2;
+        return hash;
     }
 
+    // Type arguments count; a missing list is the same as an empty one
     public boolean equals(Object obj) {
-        if(obj instanceof ClassType) {
+        if (obj == this) {
+            return true;
+        } else if(obj instanceof ClassType) {
             ClassType otherClassType = (ClassType) obj;
-            return otherClassType.name.equals(name);
+            return (otherClassType.hash == hash &&
+                    otherClassType.name.equals(name) &&
+                    sameTypes(otherClassType.types, types));
         }
         else {
             return false;
         }
     }
 
+    private static boolean sameTypes(final List<Type> first, final List<Type> second) {
+        if (first == null || first.isEmpty()) {
+            return second == null || second.isEmpty();
+        } else {
+            return first.equals(second);
+        }
+    }
+
     public String toString() {
         return "ClassType";
     }
-}
\ No newline at end of file
+}
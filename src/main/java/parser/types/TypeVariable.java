@@ -4,6 +4,8 @@ import j2script.names.Name;
 
 public class TypeVariable implements Type {
     public String name;
+    // set by Types on its shared instance
+    boolean shared;
 
     public TypeVariable(String name) {
         this.name = name;
@@ -0,0 +1,103 @@
+package j2script.types;
+
+import j2script.names.ClassName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The one shared instance of each type.  The primitive types are
+// singletons, and type variables and class types are looked up by what
+// they are, a class type's arguments included, so two shared types are
+// equal exactly when they are ==.  Types made with new, as hand-built
+// trees do, still compare with equals(); intern() gives their shared
+// instance, and costs nothing for one that is already shared.
+//
+// Safe to use from several threads.  Types are kept for as long as the
+// program runs; a program names few distinct ones.
+public final class Types {
+    private static final IntType INT_TYPE = new IntType();
+    private static final BooleanType BOOLEAN_TYPE = new BooleanType();
+    private static final VoidType VOID_TYPE = new VoidType();
+
+    private static final ConcurrentHashMap<String, TypeVariable> typeVariables =
+        new ConcurrentHashMap<String, TypeVariable>();
+    // each shared class type maps to itself
+    private static final ConcurrentHashMap<ClassType, ClassType> classTypes =
+        new ConcurrentHashMap<ClassType, ClassType>();
+
+    private Types() {}
+
+    public static IntType intType() {
+        return INT_TYPE;
+    }
+
+    public static BooleanType booleanType() {
+        return BOOLEAN_TYPE;
+    }
+
+    public static VoidType voidType() {
+        return VOID_TYPE;
+    }
+
+    public static TypeVariable typeVariable(final String name) {
+        final TypeVariable result = typeVariables.get(name);
+        return (result != null) ? result : typeVariables.computeIfAbsent(name, key -> {
+            final TypeVariable made = new TypeVariable(key);
+            made.shared = true;
+            return made;
+        });
+    }
+
+    // The arguments are shared too, and kept in an unmodifiable list.  A
+    // missing list, as the parser leaves for some declarations, is taken
+    // as an empty one, which ClassType.equals() already does.  Only the
+    // instance the map keeps is marked shared, so two threads making the
+    // same new type at once still get the one instance.
+    public static ClassType classType(final ClassName name, final List<Type> types) {
+        final List<Type> sharedTypes = new ArrayList<Type>((types == null) ? 0 : types.size());
+        if (types != null) {
+            for (final Type type : types) {
+                sharedTypes.add(intern(type));
+            }
+        }
+        final ClassType made = new ClassType(name, Collections.unmodifiableList(sharedTypes));
+        final ClassType result = classTypes.get(made);
+        return (result != null) ? result : classTypes.computeIfAbsent(made, key -> {
+            key.shared = true;
+            return key;
+        });
+    }
+
+    // The shared instance equal to type; null stays null
+    public static Type intern(final Type type) {
+        if (type instanceof IntType) {
+            return INT_TYPE;
+        } else if (type instanceof BooleanType) {
+            return BOOLEAN_TYPE;
+        } else if (type instanceof VoidType) {
+            return VOID_TYPE;
+        } else if (type instanceof TypeVariable) {
+            final TypeVariable typeVariable = (TypeVariable)type;
+            return typeVariable.shared ? typeVariable : typeVariable(typeVariable.name);
+        } else if (type instanceof ClassType) {
+            final ClassType classType = (ClassType)type;
+            return classType.shared ? classType : classType(classType.name, classType.types);
+        } else {
+            return type;
+        }
+    }
+
+    // Each of types interned, in a new list; null stays null
+    public static List<Type> intern(final List<Type> types) {
+        if (types == null) {
+            return null;
+        }
+        final List<Type> result = new ArrayList<Type>(types.size());
+        for (final Type type : types) {
+            result.add(intern(type));
+        }
+        return result;
+    }
+} // Types
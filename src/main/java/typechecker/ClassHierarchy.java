@@ -0,0 +1,111 @@
+package j2script;
+
+import j2script.declarations.ClassDef;
+import j2script.names.ClassName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The extends relation between the classes of a program, worked out once.
+// Building it sorts the classes so every class comes after the one it
+// extends, which also finds cycles and missing superclasses.  Each class is
+// then numbered in the order a depth first walk of the inheritance forest
+// reaches it (pre), along with the last number in its subtree (post), so
+// one class extends another, directly or not, exactly when its numbers lie
+// within the other's: a constant time test at any depth.  Immutable once
+// built.
+public class ClassHierarchy {
+    private final List<ClassDef> order;
+    private final Map<ClassName, Integer> pre = new HashMap<ClassName, Integer>();
+    private final Map<ClassName, Integer> post = new HashMap<ClassName, Integer>();
+
+    public ClassHierarchy(final List<ClassDef> classDefs,
+                          final Map<ClassName, ClassDef> classes) throws TypeErrorException {
+        order = Collections.unmodifiableList(sort(classDefs, classes));
+        number();
+    }
+
+    // Parents before children.  Classes are taken in source order, so the
+    // cycle reported is the one the first class on it, or leading into
+    // it, runs into.
+    private static List<ClassDef> sort(final List<ClassDef> classDefs,
+                                       final Map<ClassName, ClassDef> classes) throws TypeErrorException {
+        final List<ClassDef> result = new ArrayList<ClassDef>(classDefs.size());
+        // classes on the chain being walked map to false, sorted ones to true
+        final Map<ClassName, Boolean> done = new HashMap<ClassName, Boolean>();
+        for (final ClassDef classDef : classDefs) {
+            final List<ClassDef> chain = new ArrayList<ClassDef>();
+            ClassDef current = classDef;
+            while (current != null && !done.containsKey(current.name)) {
+                done.put(current.name, false);
+                chain.add(current);
+                current = (current.extendedClass == null) ? null : getClass(classes, current.extendedClass.extendsName);
+            }
+            if (current != null && !done.get(current.name)) {
+                throw new TypeErrorException("Cyclic inheritance on " + classDef.name);
+            }
+            for (int index = chain.size() - 1; index >= 0; index--) {
+                done.put(chain.get(index).name, true);
+                result.add(chain.get(index));
+            }
+        }
+        return result;
+    } // sort
+
+    private static ClassDef getClass(final Map<ClassName, ClassDef> classes,
+                                     final ClassName name) throws TypeErrorException {
+        final ClassDef result = classes.get(name);
+        if (result == null) {
+            throw new TypeErrorException("No such class defined: " + name);
+        }
+        return result;
+    } // getClass
+
+    // The walk itself isn't needed: with the subtree sizes known, a parent
+    // hands its children consecutive ranges of numbers, in sorted order.
+    private void number() {
+        final Map<ClassName, Integer> sizes = new HashMap<ClassName, Integer>();
+        for (int index = order.size() - 1; index >= 0; index--) {
+            final ClassDef classDef = order.get(index);
+            final int size = sizes.getOrDefault(classDef.name, 0) + 1;
+            sizes.put(classDef.name, size);
+            if (classDef.extendedClass != null) {
+                sizes.merge(classDef.extendedClass.extendsName, size, Integer::sum);
+            }
+        }
+        // the next number free under each class
+        final Map<ClassName, Integer> next = new HashMap<ClassName, Integer>();
+        int nextRoot = 0;
+        for (final ClassDef classDef : order) {
+            final int number;
+            if (classDef.extendedClass == null) {
+                number = nextRoot;
+                nextRoot += sizes.get(classDef.name);
+            } else {
+                final ClassName parent = classDef.extendedClass.extendsName;
+                number = next.get(parent);
+                next.put(parent, number + sizes.get(classDef.name));
+            }
+            pre.put(classDef.name, number);
+            post.put(classDef.name, number + sizes.get(classDef.name) - 1);
+            next.put(classDef.name, number + 1);
+        }
+    } // number
+
+    // Every class, each after the class it extends
+    public List<ClassDef> topologicalOrder() {
+        return order;
+    }
+
+    // true if sub is base or extends it, directly or not; false if either
+    // isn't a class
+    public boolean isSubclass(final ClassName sub, final ClassName base) {
+        final Integer subPre = pre.get(sub);
+        final Integer basePre = pre.get(base);
+        return (subPre != null && basePre != null &&
+                basePre <= subPre && subPre <= post.get(base));
+    } // isSubclass
+} // ClassHierarchy
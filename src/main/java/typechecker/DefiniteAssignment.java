@@ -0,0 +1,220 @@
+package j2script;
+
+import j2script.declarations.VarDec;
+import j2script.names.Variable;
+import j2script.statements.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Which variables are definitely assigned before each statement of one
+// method, constructor or program body.  The fields, parameters and locals
+// are numbered densely and the facts are bitsets of those numbers, one per
+// statement.  A statement that assigns nothing shares its facts with the
+// one before, and a null set stands for a point no path reaches, where
+// everything counts as assigned.
+//
+// Paths join at the end of an if.  A while loop goes round until the
+// facts at its head stop changing.  Nothing here un-assigns a variable,
+// so the facts only grow along a path and one more pass always confirms
+// the first; checking stays linear in the size of the body.  The type
+// checker makes one per body; later phases can make their own.
+public class DefiniteAssignment {
+    private final Map<Variable, Integer> slots = new HashMap<Variable, Integer>();
+    private final List<Variable> variables = new ArrayList<Variable>();
+    private final Map<Statement, long[]> before = new IdentityHashMap<Statement, long[]>();
+    private final long[] atStart;
+    private final long[] atEnd;
+
+    // initiallyAssigned are the variables assigned before body starts,
+    // such as parameters
+    public DefiniteAssignment(final List<VarDec> fields,
+                              final List<VarDec> parameters,
+                              final Collection<Variable> initiallyAssigned,
+                              final Statement body) {
+        for (final VarDec field : fields) {
+            number(field.var);
+        }
+        for (final VarDec parameter : parameters) {
+            number(parameter.var);
+        }
+        numberLocals(body);
+        long[] start = new long[(variables.size() + 63) / 64];
+        for (final Variable variable : initiallyAssigned) {
+            if (slots.containsKey(variable)) {
+                start = with(start, slot(variable));
+            }
+        }
+        atStart = start;
+        atEnd = analyze(start, body);
+    }
+
+    private void number(final Variable variable) {
+        if (!slots.containsKey(variable)) {
+            slots.put(variable, variables.size());
+            variables.add(variable);
+        }
+    }
+
+    // Order doesn't matter here, so an explicit stack does for any depth
+    private void numberLocals(final Statement body) {
+        final ArrayDeque<Statement> pending = new ArrayDeque<Statement>();
+        push(pending, body);
+        while (!pending.isEmpty()) {
+            final Statement stmt = pending.pop();
+            if (stmt instanceof VarDecAssignment) {
+                number(((VarDecAssignment)stmt).varDec.var);
+            } else if (stmt instanceof Block) {
+                final List<Statement> statements = ((Block)stmt).statements;
+                for (int index = statements.size() - 1; index >= 0; index--) {
+                    push(pending, statements.get(index));
+                }
+            } else if (stmt instanceof IfStatement) {
+                push(pending, ((IfStatement)stmt).ifFalse);
+                push(pending, ((IfStatement)stmt).ifTrue);
+            } else if (stmt instanceof WhileStatement) {
+                push(pending, ((WhileStatement)stmt).stmt);
+            }
+        }
+    }
+
+    private static void push(final ArrayDeque<Statement> pending, final Statement stmt) {
+        if (stmt != null) {
+            pending.push(stmt);
+        }
+    }
+
+    // Number of the variable, or -1 if the body doesn't know it
+    public int slot(final Variable variable) {
+        final Integer result = slots.get(variable);
+        return (result == null) ? -1 : result;
+    }
+
+    public List<Variable> variables() {
+        return variables;
+    }
+
+    // The facts before stmt, which must be part of the body; null if it
+    // can't be reached
+    public long[] before(final Statement stmt) {
+        return before.get(stmt);
+    }
+
+    // The facts where the body finishes without returning; null if it can't
+    public long[] atEnd() {
+        return atEnd;
+    }
+
+    public long[] atStart() {
+        return atStart;
+    }
+
+    public boolean isAssigned(final long[] facts, final Variable variable) {
+        final int slot = slot(variable);
+        return slot >= 0 && (facts == null || (facts[slot >>> 6] & (1L << slot)) != 0);
+    }
+
+    public boolean isAssignedBefore(final Statement stmt, final Variable variable) {
+        return isAssigned(before(stmt), variable);
+    }
+
+    // The variables in facts out of those given
+    public Set<Variable> assigned(final long[] facts, final Collection<Variable> among) {
+        final Set<Variable> result = new HashSet<Variable>();
+        for (final Variable variable : among) {
+            if (isAssigned(facts, variable)) {
+                result.add(variable);
+            }
+        }
+        return result;
+    }
+
+    // facts with slot set, copied only if it wasn't already
+    private static long[] with(final long[] facts, final int slot) {
+        if (facts == null || (facts[slot >>> 6] & (1L << slot)) != 0) {
+            return facts;
+        }
+        final long[] result = facts.clone();
+        result[slot >>> 6] |= 1L << slot;
+        return result;
+    }
+
+    // What is assigned on both paths
+    private static long[] join(final long[] first, final long[] second) {
+        if (first == null || first == second) {
+            return second;
+        } else if (second == null) {
+            return first;
+        }
+        long[] result = null;
+        for (int index = 0; index < first.length; index++) {
+            final long both = first[index] & second[index];
+            if (both != first[index] && result == null) {
+                result = first.clone();
+            }
+            if (result != null) {
+                result[index] = both;
+            }
+        }
+        return (result == null) ? first : result;
+    }
+
+    private static boolean same(final long[] first, final long[] second) {
+        return first == second || (first != null && second != null && Arrays.equals(first, second));
+    }
+
+    // The facts after stmt, given those before it
+    private long[] analyze(final long[] in, final Statement stmt) {
+        return DeepRecursion.call(() -> analyzeHere(in, stmt));
+    }
+
+    private long[] analyzeHere(final long[] in, final Statement stmt) {
+        if (stmt == null) {
+            return in;
+        }
+        before.put(stmt, in);
+        if (stmt instanceof VarDecAssignment) {
+            return with(in, slot(((VarDecAssignment)stmt).varDec.var));
+        } else if (stmt instanceof VarAssignment) {
+            final int slot = slot(((VarAssignment)stmt).variable);
+            // an undeclared variable is the type checker's to report
+            return (slot < 0) ? in : with(in, slot);
+        } else if (stmt instanceof Block) {
+            long[] facts = in;
+            for (final Statement inner : ((Block)stmt).statements) {
+                facts = analyze(facts, inner);
+            }
+            return facts;
+        } else if (stmt instanceof IfStatement) {
+            final IfStatement asIf = (IfStatement)stmt;
+            return join(analyze(in, asIf.ifTrue), analyze(in, asIf.ifFalse));
+        } else if (stmt instanceof WhileStatement) {
+            final Statement body = ((WhileStatement)stmt).stmt;
+            long[] head = in;
+            while (true) {
+                // the body runs after the loop is entered or goes round
+                final long[] next = join(head, analyze(head, body));
+                if (same(next, head)) {
+                    break;
+                }
+                head = next;
+            }
+            // the loop may not run at all, and breaks leave with at least head
+            return head;
+        } else if (stmt instanceof ReturnExpStatement ||
+                   stmt instanceof ReturnVoidStatement ||
+                   stmt instanceof BreakStatement) {
+            return null;
+        } else {
+            return in;
+        }
+    }
+} // DefiniteAssignment
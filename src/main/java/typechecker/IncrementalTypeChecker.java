@@ -0,0 +1,483 @@
+package j2script;
+
+import j2script.declarations.*;
+import j2script.names.ClassName;
+import j2script.names.Variable;
+import j2script.statements.Statement;
+import j2script.types.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Type checks a program again after each edit, redoing only the work the
+// edit can affect.  Checking is split into queries: the signature of a
+// class, its superclass, the hierarchy, the specialization of a class to
+// some type arguments, and the check of a class header, constructor, method
+// body or the main statement.  Each answer is kept along with the queries
+// it read while it was worked out.  An edit marks the answers that read a
+// changed input, directly or not, as dirty, and the rest are reused as they
+// are.  A dirty answer is reused too if none of its reads has changed since
+// it was last confirmed, which is decided the same way for them first.  An
+// answer that comes out as before doesn't count as a change, so editing a
+// method body re-checks that method and nothing else: its class's signature
+// is worked out again but is still the same.
+//
+// The inputs are the program's nodes, compared by identity, since
+// Parser.reparse() keeps every node the edit doesn't touch; a program
+// parsed from scratch is all new, and everything is checked again.  The
+// errors are typecheckProgram()'s, without locations.  Checks run one at a
+// time on the calling thread.
+public class IncrementalTypeChecker {
+    private static final String CLASS = "class";
+    private static final String CLASSES = "classes";
+    private static final String MAIN = "main";
+    private static final String SIGNATURE = "signature";
+    private static final String SUPERCLASS = "superclass";
+    private static final String HIERARCHY = "hierarchy";
+    private static final String SPECIALIZATION = "specialization";
+    private static final String HEADER = "header";
+    private static final String CLASS_CHECK = "class check";
+    private static final String CONSTRUCTOR = "constructor";
+    private static final String CONSTRUCTOR_CHECK = "constructor check";
+    private static final String METHOD = "method";
+    private static final String METHOD_CHECK = "method check";
+    private static final String MAIN_CHECK = "main check";
+
+    private final Map<List<Object>, Memo> memos = new HashMap<List<Object>, Memo>();
+    // the reads of each query being worked out, innermost on top
+    private final Deque<Set<Memo>> reading = new ArrayDeque<Set<Memo>>();
+    // bumped by each edit that changes an input
+    private long revision = 0;
+    // the classes of the program being checked, read through class queries
+    private List<ClassDef> classDefs = new ArrayList<ClassDef>();
+    private Map<ClassName, ClassDef> classes = new HashMap<ClassName, ClassDef>();
+    private final Specializations specializations = new QuerySpecializations();
+    private final TypeChecker checker = new QueryChecker();
+    private int hits = 0;
+    private int recomputations = 0;
+
+    // Checks the program, which is usually an edited version of the last
+    // one checked
+    public void typecheck(final Program program) throws TypeErrorException {
+        update(program);
+        hierarchy();
+        for (final ClassDef classDef : program.classDefs) {
+            classCheck(classDef.name);
+        }
+        fetch(key(MAIN_CHECK), true, () -> {
+            checker.typecheckMain((Statement)fetch(key(MAIN), false, null));
+            return null;
+        });
+    } // typecheck
+
+    // Queries answered from a kept answer, whether or not it had to be
+    // confirmed first
+    public int hits() {
+        return hits;
+    }
+
+    // Queries worked out, for the first time or again
+    public int recomputations() {
+        return recomputations;
+    }
+
+    // Answers kept, inputs included
+    public int size() {
+        return memos.size();
+    }
+
+    private void update(final Program program) throws TypeErrorException {
+        final Map<ClassName, ClassDef> newClasses = TypeChecker.classMapping(program.classDefs);
+        final boolean[] changed = new boolean[1];
+        final List<ClassName> names = new ArrayList<ClassName>();
+        for (final ClassDef classDef : program.classDefs) {
+            names.add(classDef.name);
+            setInput(key(CLASS, classDef.name), classDef, false, changed);
+        }
+        for (final ClassName name : classes.keySet()) {
+            if (!newClasses.containsKey(name)) {
+                setInput(key(CLASS, name), null, false, changed);
+            }
+        }
+        setInput(key(CLASSES), names, true, changed);
+        setInput(key(MAIN), program.statement, false, changed);
+        classDefs = program.classDefs;
+        classes = newClasses;
+    } // update
+
+    private static List<Object> key(final Object... parts) {
+        return Arrays.asList(parts);
+    }
+
+    private interface Compute {
+        Object run() throws TypeErrorException;
+    }
+
+    // The answer to one query, which is a value or an error
+    private static class Memo {
+        private final List<Object> key;
+        // null for an input
+        private final Compute compute;
+        // compare answers with equals() rather than ==
+        private final boolean byEquals;
+        private boolean computed;
+        // some input it depends on has changed since it was confirmed
+        private boolean dirty;
+        private boolean running;
+        private Object value;
+        private TypeErrorException error;
+        // the revision the answer last changed in, and the last one it was
+        // known to be right for
+        private long changedAt;
+        private long verifiedAt;
+        // the queries read, in the order they were read
+        private Set<Memo> reads = Collections.emptySet();
+        // the queries that read this one
+        private final Set<Memo> readBy = new HashSet<Memo>();
+
+        private Memo(final List<Object> key, final Compute compute, final boolean byEquals) {
+            this.key = key;
+            this.compute = compute;
+            this.byEquals = byEquals;
+        }
+
+        private boolean same(final Object newValue, final TypeErrorException newError) {
+            if (error != null || newError != null) {
+                return (error != null && newError != null &&
+                        error.getMessage().equals(newError.getMessage()));
+            } else if (value == null || newValue == null || !byEquals) {
+                return value == newValue;
+            } else {
+                return value.equals(newValue);
+            }
+        }
+    } // Memo
+
+    // Sets an input's value, starting a new revision if it is the first to
+    // change since the last check
+    private void setInput(final List<Object> key,
+                          final Object value,
+                          final boolean byEquals,
+                          final boolean[] changed) {
+        Memo memo = memos.get(key);
+        if (memo == null) {
+            memo = new Memo(key, null, byEquals);
+            memos.put(key, memo);
+        } else if (memo.same(value, null)) {
+            return;
+        }
+        if (!changed[0]) {
+            revision++;
+            changed[0] = true;
+        }
+        memo.value = value;
+        memo.computed = true;
+        memo.changedAt = revision;
+        memo.verifiedAt = revision;
+        markDirty(memo);
+    } // setInput
+
+    // Everything that read memo, directly or not
+    private static void markDirty(final Memo memo) {
+        final Deque<Memo> pending = new ArrayDeque<Memo>(memo.readBy);
+        while (!pending.isEmpty()) {
+            final Memo reader = pending.pop();
+            if (!reader.dirty) {
+                reader.dirty = true;
+                pending.addAll(reader.readBy);
+            }
+        }
+    } // markDirty
+
+    // The answer to the query, brought up to date and recorded as read by
+    // the query being worked out.  compute is null for an input; one that
+    // was never set is null.
+    private Object fetch(final List<Object> key,
+                         final boolean byEquals,
+                         final Compute compute) throws TypeErrorException {
+        Memo memo = memos.get(key);
+        if (memo == null) {
+            memo = new Memo(key, compute, byEquals);
+            if (compute == null) {
+                memo.computed = true;
+                memo.changedAt = revision;
+            }
+            memos.put(key, memo);
+        }
+        refresh(memo);
+        if (!reading.isEmpty()) {
+            reading.peek().add(memo);
+        }
+        if (memo.error != null) {
+            throw memo.error;
+        }
+        return memo.value;
+    } // fetch
+
+    private void refresh(final Memo memo) throws TypeErrorException {
+        if (memo.compute == null) {
+            return;
+        } else if (memo.computed && !memo.dirty) {
+            hits++;
+            return;
+        }
+        DeepRecursion.call(() -> {
+            refreshHere(memo);
+            return null;
+        });
+    } // refresh
+
+    private void refreshHere(final Memo memo) throws TypeErrorException {
+        if (memo.running) {
+            throw new TypeErrorException("Query depends on itself: " + memo.key);
+        } else if (memo.computed && readsUnchanged(memo)) {
+            memo.dirty = false;
+            memo.verifiedAt = revision;
+            hits++;
+            return;
+        }
+        final Set<Memo> reads = new LinkedHashSet<Memo>();
+        Object value = null;
+        TypeErrorException error = null;
+        reading.push(reads);
+        memo.running = true;
+        try {
+            value = memo.compute.run();
+        } catch (final TypeErrorException e) {
+            error = e;
+        } finally {
+            memo.running = false;
+            reading.pop();
+        }
+        recomputations++;
+        if (!memo.computed || !memo.same(value, error)) {
+            memo.changedAt = revision;
+        }
+        for (final Memo read : memo.reads) {
+            read.readBy.remove(memo);
+        }
+        for (final Memo read : reads) {
+            read.readBy.add(memo);
+        }
+        memo.computed = true;
+        memo.dirty = false;
+        memo.value = value;
+        memo.error = error;
+        memo.reads = reads;
+        memo.verifiedAt = revision;
+    } // refreshHere
+
+    // Confirms the reads in order, stopping at the first that changed
+    private boolean readsUnchanged(final Memo memo) throws TypeErrorException {
+        for (final Memo read : memo.reads) {
+            refresh(read);
+            if (read.changedAt > memo.verifiedAt) {
+                return false;
+            }
+        }
+        return true;
+    } // readsUnchanged
+
+    // The class as the program has it now, or null.  Reading it makes the
+    // caller depend on all of it, bodies included.
+    private ClassDef classDef(final ClassName name) throws TypeErrorException {
+        return (ClassDef)fetch(key(CLASS, name), false, null);
+    } // classDef
+
+    // null if there's no such class
+    private ClassSignature signature(final ClassName name) throws TypeErrorException {
+        return (ClassSignature)fetch(key(SIGNATURE, name), true, () -> {
+            final ClassDef classDef = classDef(name);
+            return (classDef == null) ? null : new ClassSignature(classDef);
+        });
+    } // signature
+
+    // null for a base class
+    private ClassName superclass(final ClassName name) throws TypeErrorException {
+        return (ClassName)fetch(key(SUPERCLASS, name), true, () -> {
+            final ClassDef classDef = classDef(name);
+            return (classDef == null || classDef.extendedClass == null) ? null : classDef.extendedClass.extendsName;
+        });
+    } // superclass
+
+    // Built from the class names and superclasses alone, so only changing
+    // those builds it again
+    private ClassHierarchy hierarchy() throws TypeErrorException {
+        return (ClassHierarchy)fetch(key(HIERARCHY), false, () -> {
+            @SuppressWarnings("unchecked")
+            final List<ClassName> names = (List<ClassName>)fetch(key(CLASSES), true, null);
+            for (final ClassName name : names) {
+                superclass(name);
+            }
+            return new ClassHierarchy(classDefs, classes);
+        });
+    } // hierarchy
+
+    // Reads the supertype's specialization as well, so a change to any
+    // class above makes a new one
+    private SpecializedClass specialization(final ClassType classType) throws TypeErrorException {
+        final ClassType type = (ClassType)Types.intern(classType);
+        final ClassName name = type.name;
+        return (SpecializedClass)fetch(key(SPECIALIZATION, type), false, () -> {
+            if (signature(name) == null) {
+                throw new TypeErrorException("No such class defined: " + name);
+            }
+            final SpecializedClass result = new SpecializedClass(specializations, classes.get(name), new ArrayList<Type>(type.types));
+            final ClassType supertype = result.supertype();
+            if (supertype != null) {
+                specialization(supertype);
+            }
+            return result;
+        });
+    } // specialization
+
+    // The class's first error in the order typecheckProgram() finds them
+    private void classCheck(final ClassName name) throws TypeErrorException {
+        fetch(key(CLASS_CHECK, name), true, () -> {
+            header(name);
+            constructorCheck(name);
+            final ClassDef classDef = classDef(name);
+            for (int index = 0; index < classDef.methodDefs.size(); index++) {
+                methodCheck(name, index);
+            }
+            return null;
+        });
+    } // classCheck
+
+    private void header(final ClassName name) throws TypeErrorException {
+        fetch(key(HEADER, name), true, () -> {
+            checker.typecheckClassHeader(checker.getClass(name));
+            return null;
+        });
+    } // header
+
+    private Constructor constructor(final ClassName name) throws TypeErrorException {
+        return (Constructor)fetch(key(CONSTRUCTOR, name), false, () -> {
+            final ClassDef classDef = classDef(name);
+            return (classDef == null) ? null : classDef.constructor;
+        });
+    } // constructor
+
+    // The instance variables the constructor assigns
+    @SuppressWarnings("unchecked")
+    private Set<Variable> constructorCheck(final ClassName name) throws TypeErrorException {
+        return (Set<Variable>)fetch(key(CONSTRUCTOR_CHECK, name), true, () -> {
+            final Constructor constructor = constructor(name);
+            final ClassDef classDef = checker.getClass(name);
+            return new HashSet<Variable>(checker.typecheckConstructor(TypeChecker.thisType(classDef),
+                                                                      TypeChecker.asSet(classDef.typeVariables),
+                                                                      constructor));
+        });
+    } // constructorCheck
+
+    // Methods are known by their place in the class, so adding or removing
+    // one checks the ones after it again
+    private MethodDef method(final ClassName name, final int index) throws TypeErrorException {
+        return (MethodDef)fetch(key(METHOD, name, index), false, () -> {
+            final ClassDef classDef = classDef(name);
+            return (classDef == null || index >= classDef.methodDefs.size()) ? null : classDef.methodDefs.get(index);
+        });
+    } // method
+
+    private void methodCheck(final ClassName name, final int index) throws TypeErrorException {
+        fetch(key(METHOD_CHECK, name, index), true, () -> {
+            final MethodDef methodDef = method(name, index);
+            final Set<Variable> fieldsAssigned = constructorCheck(name);
+            final ClassDef classDef = checker.getClass(name);
+            checker.typecheckMethod(TypeChecker.thisType(classDef),
+                                    TypeChecker.asSet(classDef.typeVariables),
+                                    fieldsAssigned,
+                                    methodDef);
+            return null;
+        });
+    } // methodCheck
+
+    // Specializations made by, and shared through, specialization queries
+    private class QuerySpecializations extends Specializations {
+        private QuerySpecializations() {
+            super(new HashMap<ClassName, ClassDef>());
+        }
+
+        public SpecializedClass get(final ClassType type) throws TypeErrorException {
+            return specialization(type);
+        }
+    } // QuerySpecializations
+
+    // A type checker whose every look at a class is a read of the class's
+    // signature or of the hierarchy.  Bodies come from the queries that
+    // check them.
+    private class QueryChecker extends TypeChecker {
+        private QueryChecker() {
+            super(new ArrayList<ClassDef>(), new HashMap<ClassName, ClassDef>(), null, specializations, null);
+        }
+
+        public ClassDef getClass(final ClassName name) throws TypeErrorException {
+            if (signature(name) == null) {
+                throw new TypeErrorException("No such class defined: " + name);
+            }
+            return classes.get(name);
+        }
+
+        ClassHierarchy hierarchy() throws TypeErrorException {
+            return IncrementalTypeChecker.this.hierarchy();
+        }
+    } // QueryChecker
+
+    // What other classes can see of a class: everything but the constructor
+    // and method bodies.
+    private static class ClassSignature {
+        private final List<Object> parts = new ArrayList<Object>();
+
+        private ClassSignature(final ClassDef classDef) {
+            parts.add(classDef.name);
+            parts.add(classDef.typeVariables.size());
+            parts.addAll(classDef.typeVariables);
+            if (classDef.extendedClass == null) {
+                parts.add(-1);
+            } else {
+                parts.add(classDef.extendedClass.types.size());
+                parts.add(classDef.extendedClass.extendsName);
+                parts.addAll(classDef.extendedClass.types);
+            }
+            addVarDecs(classDef.instanceVars);
+            if (classDef.constructor == null) {
+                parts.add(-1);
+            } else {
+                addVarDecs(classDef.constructor.parameters);
+            }
+            parts.add(classDef.methodDefs.size());
+            for (final MethodDef methodDef : classDef.methodDefs) {
+                parts.add(methodDef.access.toString());
+                parts.add(methodDef.returnType);
+                parts.add(methodDef.name);
+                addVarDecs(methodDef.varDecs);
+            }
+        }
+
+        private void addVarDecs(final List<VarDec> varDecs) {
+            parts.add(varDecs.size());
+            for (final VarDec varDec : varDecs) {
+                parts.add(varDec.type);
+                parts.add(varDec.var);
+            }
+        }
+
+        public int hashCode() {
+            return parts.hashCode();
+        }
+
+        public boolean equals(final Object other) {
+            return (other instanceof ClassSignature &&
+                    ((ClassSignature)other).parts.equals(parts));
+        }
+    } // ClassSignature
+} // IncrementalTypeChecker
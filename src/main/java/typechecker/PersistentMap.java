@@ -0,0 +1,290 @@
+package j2script;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// An immutable map.  put() and remove() return a new map that shares all
+// but one path with the old one: a hash array mapped trie, where each level
+// takes five bits of the hash and keeps only the slots in use, so a path is
+// at most seven small arrays and changing one costs O(log32 n).  Keys
+// with the same hash share a list at the bottom.  null keys and values
+// aren't allowed.
+public class PersistentMap<K, V> {
+    private static final PersistentMap<Object, Object> EMPTY =
+        new PersistentMap<Object, Object>(new BitmapNode(0, new Object[0]), 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(final Node root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>)EMPTY;
+    }
+
+    public static <K, V> PersistentMap<K, V> of(final Map<K, V> map) {
+        PersistentMap<K, V> result = empty();
+        for (final Map.Entry<K, V> entry : map.entrySet()) {
+            result = result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // null if key isn't in the map
+    @SuppressWarnings("unchecked")
+    public V get(final Object key) {
+        return (V)root.find(0, key.hashCode(), key);
+    }
+
+    public boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+
+    public PersistentMap<K, V> put(final K key, final V value) {
+        if (value == null) {
+            throw new NullPointerException("null value for " + key);
+        }
+        final boolean[] added = new boolean[1];
+        final Node newRoot = root.put(0, key.hashCode(), key, value, added);
+        return (newRoot == root) ? this : new PersistentMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    public PersistentMap<K, V> remove(final Object key) {
+        final Node newRoot = root.remove(0, key.hashCode(), key);
+        if (newRoot == root) {
+            return this;
+        } else if (newRoot == null) {
+            return empty();
+        } else {
+            return new PersistentMap<K, V>(newRoot, size - 1);
+        }
+    }
+
+    // The keys, in no particular order
+    @SuppressWarnings("unchecked")
+    public List<K> keys() {
+        final List<Object> result = new ArrayList<Object>(size);
+        root.addKeys(result);
+        return (List<K>)result;
+    }
+
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("{");
+        for (final K key : keys()) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(key).append('=').append(get(key));
+        }
+        return builder.append('}').toString();
+    }
+
+    private static abstract class Node {
+        // The value for key, or null
+        abstract Object find(int shift, int hash, Object key);
+        // This node if key already maps to value; sets added[0] when key is new
+        abstract Node put(int shift, int hash, Object key, Object value, boolean[] added);
+        // This node if key isn't here, null if nothing is left
+        abstract Node remove(int shift, int hash, Object key);
+        abstract void addKeys(List<Object> keys);
+    } // Node
+
+    // A level of the trie.  Bit i of bitmap is set if slot i is in use, and
+    // the slots in use are pairs in array: a key and its value, or null and
+    // the node for the next five bits.
+    private static class BitmapNode extends Node {
+        private final int bitmap;
+        private final Object[] array;
+
+        private BitmapNode(final int bitmap, final Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private static int bit(final int shift, final int hash) {
+            return 1 << ((hash >>> shift) & 31);
+        }
+
+        // Where the pair for bit is, or would go
+        private int index(final int bit) {
+            return 2 * Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        Object find(final int shift, final int hash, final Object key) {
+            final int bit = bit(shift, hash);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            final int index = index(bit);
+            final Object existing = array[index];
+            if (existing == null) {
+                return ((Node)array[index + 1]).find(shift + 5, hash, key);
+            } else {
+                return key.equals(existing) ? array[index + 1] : null;
+            }
+        }
+
+        Node put(final int shift, final int hash, final Object key, final Object value, final boolean[] added) {
+            final int bit = bit(shift, hash);
+            final int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                final Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, index);
+                newArray[index] = key;
+                newArray[index + 1] = value;
+                System.arraycopy(array, index, newArray, index + 2, array.length - index);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+            final Object existing = array[index];
+            final Object existingValue = array[index + 1];
+            if (existing == null) {
+                final Node child = (Node)existingValue;
+                final Node newChild = child.put(shift + 5, hash, key, value, added);
+                return (newChild == child) ? this : with(index + 1, newChild);
+            } else if (key.equals(existing)) {
+                return (value == existingValue) ? this : with(index + 1, value);
+            } else {
+                added[0] = true;
+                final Node child = pair(shift + 5, existing, existingValue, hash, key, value);
+                final Object[] newArray = array.clone();
+                newArray[index] = null;
+                newArray[index + 1] = child;
+                return new BitmapNode(bitmap, newArray);
+            }
+        }
+
+        private BitmapNode with(final int index, final Object value) {
+            final Object[] newArray = array.clone();
+            newArray[index] = value;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        Node remove(final int shift, final int hash, final Object key) {
+            final int bit = bit(shift, hash);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            final int index = index(bit);
+            final Object existing = array[index];
+            if (existing == null) {
+                final Node child = (Node)array[index + 1];
+                final Node newChild = child.remove(shift + 5, hash, key);
+                if (newChild == child) {
+                    return this;
+                } else if (newChild != null) {
+                    return with(index + 1, newChild);
+                }
+            } else if (!key.equals(existing)) {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            final Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, newArray.length - index);
+            return new BitmapNode(bitmap & ~bit, newArray);
+        }
+
+        void addKeys(final List<Object> keys) {
+            for (int index = 0; index < array.length; index += 2) {
+                if (array[index] == null) {
+                    ((Node)array[index + 1]).addKeys(keys);
+                } else {
+                    keys.add(array[index]);
+                }
+            }
+        }
+    } // BitmapNode
+
+    // A node holding two keys whose hashes agree below shift
+    private static Node pair(final int shift,
+                             final Object firstKey, final Object firstValue,
+                             final int secondHash, final Object secondKey, final Object secondValue) {
+        final int firstHash = firstKey.hashCode();
+        if (firstHash == secondHash) {
+            return new CollisionNode(firstHash, new Object[] { firstKey, firstValue, secondKey, secondValue });
+        }
+        final boolean[] added = new boolean[1];
+        return new BitmapNode(0, new Object[0])
+            .put(shift, firstHash, firstKey, firstValue, added)
+            .put(shift, secondHash, secondKey, secondValue, added);
+    } // pair
+
+    // Keys that all have the same hash, as key, value pairs
+    private static class CollisionNode extends Node {
+        private final int hash;
+        private final Object[] array;
+
+        private CollisionNode(final int hash, final Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(final Object key) {
+            for (int index = 0; index < array.length; index += 2) {
+                if (key.equals(array[index])) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        Object find(final int shift, final int hash, final Object key) {
+            final int index = (hash == this.hash) ? indexOf(key) : -1;
+            return (index < 0) ? null : array[index + 1];
+        }
+
+        Node put(final int shift, final int hash, final Object key, final Object value, final boolean[] added) {
+            if (hash != this.hash) {
+                // the keys part ways at this level
+                final Node level = new BitmapNode(BitmapNode.bit(shift, this.hash), new Object[] { null, this });
+                return level.put(shift, hash, key, value, added);
+            }
+            final int index = indexOf(key);
+            if (index >= 0) {
+                if (array[index + 1] == value) {
+                    return this;
+                }
+                final Object[] newArray = array.clone();
+                newArray[index + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+            final Object[] newArray = new Object[array.length + 2];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, newArray);
+        }
+
+        Node remove(final int shift, final int hash, final Object key) {
+            final int index = (hash == this.hash) ? indexOf(key) : -1;
+            if (index < 0) {
+                return this;
+            } else if (array.length == 2) {
+                return null;
+            }
+            final Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, newArray.length - index);
+            return new CollisionNode(hash, newArray);
+        }
+
+        void addKeys(final List<Object> keys) {
+            for (int index = 0; index < array.length; index += 2) {
+                keys.add(array[index]);
+            }
+        }
+    } // CollisionNode
+} // PersistentMap
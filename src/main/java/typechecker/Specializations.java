@@ -0,0 +1,72 @@
+package j2script;
+
+import j2script.declarations.ClassDef;
+import j2script.names.ClassName;
+import j2script.types.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One SpecializedClass per class and list of type arguments, made the first
+// time it's asked for.  Finding a method or supertype through a chain of
+// generic classes then costs a lookup per level, instead of rewriting every
+// class on the way each time.  Safe to share between threads: if two ask
+// for the same new specialization at once, both get the one made first.
+// Keyed by the shared class type, so a lookup hashes and compares no more
+// than a reference once the type is shared.
+public class Specializations {
+    private final Map<ClassName, ClassDef> classes;
+    private final ConcurrentHashMap<ClassType, SpecializedClass> specialized =
+        new ConcurrentHashMap<ClassType, SpecializedClass>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public Specializations(final Map<ClassName, ClassDef> classes) {
+        this.classes = classes;
+    }
+
+    public SpecializedClass get(final ClassType type) throws TypeErrorException {
+        final ClassType key = (ClassType)Types.intern(type);
+        SpecializedClass result = specialized.get(key);
+        if (result == null) {
+            final ClassDef classDef = classes.get(key.name);
+            if (classDef == null) {
+                throw new TypeErrorException("No such class defined: " + key.name);
+            }
+            final SpecializedClass made = new SpecializedClass(this, classDef, new ArrayList<Type>(key.types));
+            result = specialized.putIfAbsent(key, made);
+            if (result == null) {
+                result = made;
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    } // get
+
+    // A missing list of type arguments is taken as an empty one
+    public SpecializedClass get(final ClassName name,
+                                final List<Type> types) throws TypeErrorException {
+        return get(Types.classType(name, types));
+    } // get
+
+    // Lookups answered from what was already specialized
+    public int hits() {
+        return hits.get();
+    }
+
+    // Lookups that had to specialize a class
+    public int misses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return specialized.size();
+    }
+} // Specializations
@@ -0,0 +1,192 @@
+package j2script;
+
+import j2script.declarations.*;
+import j2script.names.ClassName;
+import j2script.names.MethodName;
+import j2script.types.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A generic class with its type variables replaced by one list of type
+// arguments.  Unlike TypeRewriter.rewriteClassDef, which rebuilds the whole
+// class, members are rewritten the first time they are asked for and kept,
+// so a lookup that only needs one method or the supertype doesn't pay for
+// the rest of the class.  Get these from Specializations, which shares them.
+// Safe to use from several threads; members are rewritten under this
+// object's lock, and a class's method table is built after its supertype's.
+public class SpecializedClass {
+    public final ClassDef classDef;
+    public final List<Type> types;
+    private final TypeRewriter rewriter;
+    // where the supertype's specialization comes from
+    private final Specializations specializations;
+
+    private Constructor constructor;
+    private List<VarDec> instanceVars;
+    private ClassType supertype;
+    // rewritten methods by name; null for a name this class doesn't define
+    private final Map<MethodName, MethodDef> methods = new HashMap<MethodName, MethodDef>();
+    // rewritten methods by their definitions in classDef
+    private final Map<MethodDef, MethodDef> rewritten = new IdentityHashMap<MethodDef, MethodDef>();
+    // this class seen as each ancestor asked about so far
+    private final Map<ClassName, ClassType> ancestors = new HashMap<ClassName, ClassType>();
+
+    // Every method that can be called on this class, inherited ones
+    // included, by name.  Built from the supertype's table the first time
+    // a method is resolved, and read without the lock once it isn't null
+    private volatile Map<MethodName, Resolved> byName;
+
+    public SpecializedClass(final Specializations specializations,
+                            final ClassDef classDef,
+                            final List<Type> types) throws TypeErrorException {
+        this.specializations = specializations;
+        this.classDef = classDef;
+        this.types = Collections.unmodifiableList(types);
+        this.rewriter = new TypeRewriter(TypeRewriter.typeReplacementMapping(classDef.typeVariables, types));
+    }
+
+    // null if the class has no constructor
+    public synchronized Constructor constructor() {
+        if (constructor == null && classDef.constructor != null) {
+            constructor = rewriter.rewriteConstructor(classDef.constructor);
+        }
+        return constructor;
+    } // constructor
+
+    public synchronized List<VarDec> instanceVars() {
+        if (instanceVars == null) {
+            instanceVars = rewriter.rewriteVarDecs(classDef.instanceVars);
+        }
+        return instanceVars;
+    } // instanceVars
+
+    // The specialized class this one extends, or null for a base class
+    public synchronized ClassType supertype() {
+        if (supertype == null && classDef.extendedClass != null) {
+            final Extends doesExtend = rewriter.rewriteExtends(classDef.extendedClass);
+            supertype = Types.classType(doesExtend.extendsName, doesExtend.types);
+        }
+        return supertype;
+    } // supertype
+
+    // This class as the class named, with the type arguments that one gets
+    // through the chain of extends clauses, or null if it isn't an
+    // ancestor.  Answers are kept, here and by the classes on the way.
+    public ClassType ancestor(final ClassName name) throws TypeErrorException {
+        final List<SpecializedClass> chain = new ArrayList<SpecializedClass>();
+        SpecializedClass current = this;
+        ClassType result = null;
+        while (current != null) {
+            result = current.knownAncestor(name);
+            if (result != null) {
+                break;
+            }
+            chain.add(current);
+            final ClassType supertype = current.supertype();
+            current = (supertype == null) ? null : specializations.get(supertype);
+        }
+        if (result != null) {
+            for (final SpecializedClass onTheWay : chain) {
+                onTheWay.rememberAncestor(name, result);
+            }
+        }
+        return result;
+    } // ancestor
+
+    private synchronized ClassType knownAncestor(final ClassName name) {
+        if (classDef.name.equals(name)) {
+            return Types.classType(name, types);
+        }
+        return ancestors.get(name);
+    } // knownAncestor
+
+    private synchronized void rememberAncestor(final ClassName name, final ClassType type) {
+        ancestors.put(name, type);
+    } // rememberAncestor
+
+    // The method this class itself defines under methodName, or null if it
+    // only inherits one, or there is none
+    public synchronized MethodDef method(final MethodName methodName) {
+        if (!methods.containsKey(methodName)) {
+            MethodDef result = null;
+            for (final MethodDef methodDef : classDef.methodDefs) {
+                if (methodDef.name.equals(methodName)) {
+                    result = rewrite(methodDef);
+                    break;
+                }
+            }
+            methods.put(methodName, result);
+        }
+        return methods.get(methodName);
+    } // method
+
+    private synchronized MethodDef rewrite(final MethodDef methodDef) {
+        MethodDef result = rewritten.get(methodDef);
+        if (result == null) {
+            result = rewriter.rewriteMethodDef(methodDef);
+            rewritten.put(methodDef, result);
+        }
+        return result;
+    } // rewrite
+
+    // The method a call by this name runs: the one defined lowest in the
+    // hierarchy, of whatever arity, as Codegen's vtables dispatch by name
+    // alone.  null if no class in the hierarchy defines the name.
+    public MethodDef resolve(final MethodName methodName) throws TypeErrorException {
+        buildTable();
+        final Resolved result = byName.get(methodName);
+        return (result == null) ? null : result.owner.rewrite(result.methodDef);
+    } // resolve
+
+    private void buildTable() throws TypeErrorException {
+        if (byName != null) {
+            return;
+        }
+        // the classes up to the nearest one whose table is built, which
+        // are then built from the top down.  Inheritance is acyclic by now.
+        final List<SpecializedClass> chain = new ArrayList<SpecializedClass>();
+        SpecializedClass current = this;
+        while (current != null && current.byName == null) {
+            chain.add(current);
+            final ClassType supertype = current.supertype();
+            current = (supertype == null) ? null : specializations.get(supertype);
+        }
+        for (int index = chain.size() - 1; index >= 0; index--) {
+            chain.get(index).inherit(current);
+            current = chain.get(index);
+        }
+    } // buildTable
+
+    // Fills in the table from the parent's, null for a base class, with
+    // this class's own methods overriding.  Another thread may have got
+    // here first.
+    private synchronized void inherit(final SpecializedClass parent) {
+        if (byName != null) {
+            return;
+        }
+        final Map<MethodName, Resolved> names = (parent == null) ?
+            new HashMap<MethodName, Resolved>() :
+            new HashMap<MethodName, Resolved>(parent.byName);
+        // noDuplicateMethodDefs leaves at most one of each name
+        for (final MethodDef methodDef : classDef.methodDefs) {
+            names.put(methodDef.name, new Resolved(this, methodDef));
+        }
+        byName = names;
+    } // inherit
+
+    // A method and the specialized class that defines it
+    private static class Resolved {
+        private final SpecializedClass owner;
+        private final MethodDef methodDef;
+
+        private Resolved(final SpecializedClass owner, final MethodDef methodDef) {
+            this.owner = owner;
+            this.methodDef = methodDef;
+        }
+    } // Resolved
+} // SpecializedClass
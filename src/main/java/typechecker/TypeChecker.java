@@ -10,22 +10,65 @@ import j2script.operators.*;
 import j2script.statements.*;
 import j2script.types.*;
 
-import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ArrayList;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Checks one program.  Classes, and the methods of each class, are checked
+// in parallel on a ForkJoinPool; everything shared between them is either
+// read only or safe to use from several threads, like specializations and
+// the spans, which a skipped body's parse adds to while others read them.
+// When several things are wrong, the error reported is the first in source
+// order, as if they had been checked one after another.
 public class TypeChecker {
-    private static Map<ClassName, ClassDef> classes;
+    private final List<ClassDef> classDefs;   // in source order
+    private final Map<ClassName, ClassDef> classes;
+    // built up front, as all downstream code assumes acyclic inheritance
+    private final ClassHierarchy hierarchy;
+    // the generic classes specialized so far, over classes
+    private final Specializations specializations;
+    // where statements and declarations are, or null if unknown
+    private final SourceSpans spans;
+
+    private TypeChecker(final List<ClassDef> classDefs,
+                        final SourceSpans spans) throws TypeErrorException {
+        this(classDefs, classMapping(classDefs), spans);
+    }
+
+    private TypeChecker(final List<ClassDef> classDefs,
+                        final Map<ClassName, ClassDef> classes,
+                        final SourceSpans spans) throws TypeErrorException {
+        this(classDefs, classes, new ClassHierarchy(classDefs, classes), new Specializations(classes), spans);
+    }
 
-    private TypeChecker(final Map<ClassName, ClassDef> classes) throws TypeErrorException {
+    // For a checker that finds classes its own way, by overriding
+    // getClass() and hierarchy() and passing its own specializations
+    TypeChecker(final List<ClassDef> classDefs,
+                final Map<ClassName, ClassDef> classes,
+                final ClassHierarchy hierarchy,
+                final Specializations specializations,
+                final SourceSpans spans) {
+        this.classDefs = classDefs;
         this.classes = classes;
+        this.hierarchy = hierarchy;
+        this.specializations = specializations;
+        this.spans = spans;
+    }
+
+    // Attaches the location of node to an error that doesn't have one yet.
+    // Errors propagate outwards, so the innermost node with a span wins.
+    private TypeErrorException located(final TypeErrorException e, final Object node) {
+        final String location = (spans == null || e.location != null) ? null : spans.describe(node);
+        return location == null ? e : new TypeErrorException(e.getMessage(), location);
     }
 
-    public static ClassDef getClass(final ClassName name) throws TypeErrorException {
+    public ClassDef getClass(final ClassName name) throws TypeErrorException {
         final ClassDef result = classes.get(name);
         if (result == null) {
             throw new TypeErrorException("No such class defined: " + name);
@@ -56,15 +99,9 @@ public class TypeChecker {
         return classDef.constructor;
     }
 
-    private static ClassType asSupertype(final ClassType type) throws TypeErrorException {
-        final ClassDef abstracted = getClass(type.name);
-        if (abstracted.extendedClass == null) {
-            throw new TypeErrorException("Has no supertype: " + type);
-        }
-        final ClassDef specialized = TypeRewriter.rewriteClassDef(abstracted, type.types);
-        return new ClassType(specialized.extendedClass.extendsName,
-                             specialized.extendedClass.types);
-    } // asSupertype
+    ClassHierarchy hierarchy() throws TypeErrorException {
+        return hierarchy;
+    }
 
     private static void checkDefined(final TypeEnvironment env, final Variable var) throws TypeErrorException {
         if(!env.checkDefined(var)){
@@ -72,42 +109,49 @@ public class TypeChecker {
         }
     }
 
-    // Checks if class types are comparable
-    public static void typesOK(final Type baseType, final Type subType) throws TypeErrorException {
-        if (!baseType.equals(subType)) {
-            // see if subType is a subtype of base type
-            if (baseType instanceof ClassType && subType instanceof ClassType) {
-                typesOK(baseType, asSupertype((ClassType)subType));
-            } else {
-                throw new TypeErrorException("Base type " + baseType + " is not comparable to " + subType);
-            }
+    // Checks if class types are comparable.  Shared types are the same
+    // exactly when they are ==, and the checker's own types are shared
+    // already; interning the ones from the program costs nothing once the
+    // parser has shared them.
+    public void typesOK(final Type baseType, final Type subType) throws TypeErrorException {
+        final Type base = Types.intern(baseType);
+        final Type sub = Types.intern(subType);
+        if (base != sub &&
+            !(base instanceof ClassType &&
+              sub instanceof ClassType &&
+              isSubtype((ClassType)base, (ClassType)sub))) {
+            throw new TypeErrorException("Base type " + baseType + " is not comparable to " + subType);
         }
     } // typesOk
 
-    // returns null if it couldn't find it
-    public MethodDef findMethodDirect(final ClassDef onClass,
-                                    final MethodName methodName) throws TypeErrorException {
-        for (final MethodDef methodDef : onClass.methodDefs) {
-            if (methodDef.name.equals(methodName)) {
-                return methodDef;
-            }
+    // Both types are shared.  The class names are compared through the
+    // hierarchy; only a generic base type needs subType seen as that
+    // class, which is cached
+    private boolean isSubtype(final ClassType baseType,
+                              final ClassType subType) throws TypeErrorException {
+        if (!hierarchy().isSubclass(subType.name, baseType.name)) {
+            return false;
+        } else if (baseType.types.isEmpty()) {
+            return true;
+        } else {
+            return baseType == specializations.get(subType).ancestor(baseType.name);
         }
-        return null;
-    } // findMethodDirect
+    } // isSubtype
 
+    // The lowest method in the hierarchy with the name
     public MethodDef findMethod(final ClassType onClass,
                                 final MethodName methodName) throws TypeErrorException {
-        final ClassDef abstractedClass = getClass(onClass.name);
-        final ClassDef specializedClass = TypeRewriter.rewriteClassDef(abstractedClass, onClass.types);
-        // System.out.println("Looking for " + methodName + " in " + specializedClass.methodDefs);
-        final MethodDef result = findMethodDirect(specializedClass, methodName);
+        return foundMethod(onClass, methodName, specializations.get(onClass).resolve(methodName));
+    } // findMethod
 
+    private static MethodDef foundMethod(final ClassType onClass,
+                                         final MethodName methodName,
+                                         final MethodDef result) throws TypeErrorException {
         if (result == null) {
-            return findMethod(asSupertype(onClass), methodName);
-        } else {
-            return result;
+            throw new TypeErrorException("No method " + methodName + " in " + onClass.name);
         }
-    } // findMethod
+        return result;
+    } // foundMethod
 
     private void checkParameters(final TypeEnvironment env, List<VarDec> formalParams, List<Exp> actualParams) throws TypeErrorException {
         if (formalParams.size() != actualParams.size()) {
@@ -136,19 +180,14 @@ public class TypeChecker {
         }
     } // noDuplicates
 
-    // Checks to see if there is a duplicate method defined
-    // Not checking names since overloaded methods are allowed
+    // Checks to see if there is a duplicate method defined.  Methods are
+    // looked up, and emitted into the vtable, by name alone, so no two
+    // methods of a class can share a name.
     public static void noDuplicateMethodDefs(final List<MethodDef> methods) throws TypeErrorException {
-        final List<MethodDef> seen = new ArrayList<MethodDef>();
-        for (int i = 0; i < methods.size(); i++) {
-            for(int j = i+1; j < methods.size(); j++) {
-                if(methods.get(i) != methods.get(j)) {
-                // check if same
-                if(methods.get(i).name == methods.get(i).name && 
-                    Arrays.deepEquals(methods.get(i).varDecs.toArray(), methods.get(j).varDecs.toArray())) {
-                        throw new TypeErrorException("Duplicate method defnied: " + methods.get(i).name);
-                    }
-                }
+        final Set<MethodName> seen = new HashSet<MethodName>();
+        for (final MethodDef methodDef : methods) {
+            if (!seen.add(methodDef.name)) {
+                throw new TypeErrorException("Duplicate method defined: " + methodDef.name);
             }
         }
     } // noDuplicateMethodDefs
@@ -232,8 +271,8 @@ public class TypeChecker {
         }
     } // superReturnOkInConstructor
 
-    private static Type binopType(final Type left, final Op op, final Type right) throws TypeErrorException {
-        final IntType intType = new IntType();
+    private Type binopType(final Type left, final Op op, final Type right) throws TypeErrorException {
+        final Type intType = Types.intType();
         if (op instanceof PlusOp) {
             // TWO kinds are permitted:
             // int + int: returns int
@@ -258,12 +297,12 @@ public class TypeChecker {
             // type == type = boolean
             // both need to be of the same type
             typesOK(left, right);
-            return new BooleanType();
+            return Types.booleanType();
         } else if (op instanceof LessThanOp) {
         // int < int = boolean
             typesOK(intType, left);
             typesOK(intType, right);
-            return new BooleanType();
+            return Types.booleanType();
         } else {
             // should be no other operators
             assert(false);
@@ -273,10 +312,15 @@ public class TypeChecker {
 
     public Type typeofExp(final TypeEnvironment env,
                           final Exp exp) throws TypeErrorException {
+        return DeepRecursion.call(() -> typeofExpHere(env, exp));
+    } // typeofExp
+
+    private Type typeofExpHere(final TypeEnvironment env,
+                               final Exp exp) throws TypeErrorException {
         if (exp instanceof NumberExp) {
-            return new IntType();
+            return Types.intType();
         } else if (exp instanceof BoolExp) {
-            return new BooleanType();
+            return Types.booleanType();
         } else if (exp instanceof VariableExp) {
             // variable is defined
             checkDefined(env, ((VariableExp)exp).var);
@@ -294,12 +338,10 @@ public class TypeChecker {
         } else if(exp instanceof ClassExp) {
             final ClassExp asClassExp = (ClassExp) exp;
             env.typesInScope(asClassExp.types);
-            final ClassDef abstractedClassDef = getClass(asClassExp.name);
-            final ClassDef specializedClassDef = TypeRewriter.rewriteClassDef(abstractedClassDef,
-                                                                              asClassExp.types);
+            final SpecializedClass specialized = specializations.get(asClassExp.name, asClassExp.types);
             // Check constructor parameters
-            checkParameters(env, specializedClassDef.constructor.parameters, asClassExp.parameters);
-            return new ClassType(asClassExp.name, asClassExp.types);
+            checkParameters(env, specialized.constructor().parameters, asClassExp.parameters);
+            return Types.classType(asClassExp.name, asClassExp.types);
         } else if(exp instanceof VarMethodExp) {
             VarMethodExp asMethodExp = (VarMethodExp)exp;
             // Var is declared
@@ -328,7 +370,7 @@ public class TypeChecker {
             assert(false);
             throw new TypeErrorException("Unrecognized expression: " + exp.toString());
         }
-    } // typeofExp
+    } // typeofExpHere
 
     private TypeEnvironment typeCheckBlockStmt(final TypeEnvironment env,
                                                 final Type returnType,      // null if return is not ok
@@ -368,8 +410,7 @@ public class TypeChecker {
         final Type expType = typeofExp(env, stmt.exp);
         typesOK(lhsType, expType);
         // System.out.println(stmt.varDec.var + " has been assigned a value in " + stmt);
-        TypeEnvironment newEnv = env.addVariable(stmt.varDec);
-        return newEnv.addDefinedVariable(stmt.varDec.var);
+        return env.addVariable(stmt.varDec);
     } // typecheckAssignStmt
 
     public TypeEnvironment typecheckVarAssign(final TypeEnvironment env,
@@ -378,7 +419,7 @@ public class TypeChecker {
         final Type expType = typeofExp(env, stmt.exp);
         typesOK(lhsType, expType);
         // System.out.println(stmt.variable + " has been assigned a value in " + stmt);
-        return env.addDefinedVariable(stmt.variable);
+        return env;
     } // typecheckAssignStmt
 
     public TypeEnvironment typeCheckWhileStmt(final TypeEnvironment env,
@@ -386,22 +427,19 @@ public class TypeChecker {
                                             final List<VarDec> superParams, // null if not expecting super
                                             final WhileStatement stmt)  throws TypeErrorException {
         Type condition = typeofExp(env, stmt.condition);
-        if (condition.equals(new BooleanType())) {
+        if (Types.intern(condition) != Types.booleanType()) {
             throw new TypeErrorException("While condition expects boolean type got " + condition);
         }
-        // need to save state when entered loop
-        boolean prevWhile = env.inWhile;
-        // set inwhile to what it was after checking body
-        TypeEnvironment afterStatement = typecheckStatement(env, returnType, superParams, stmt);
-        afterStatement.inWhile = prevWhile;
-        return afterStatement;
+        // variables declared in the body stay there, as with if
+        typecheckStatement(env.inLoop(), returnType, superParams, stmt.stmt);
+        return env;
     }
 
     public TypeEnvironment typeCheckIfStmt(final TypeEnvironment env,
                                            final Type returnType,      // null if return is not ok
                                            final List<VarDec> superParams, // null if not expecting super
                                            final IfStatement stmt)  throws TypeErrorException {
-        typesOK(new BooleanType(), typeofExp(env, stmt.guard));
+        typesOK(Types.booleanType(), typeofExp(env, stmt.guard));
         TypeEnvironment trueEnv = typecheckStatement(env, returnType, superParams, stmt.ifTrue);
         TypeEnvironment falseEnv = typecheckStatement(env, returnType, superParams, stmt.ifFalse);
         return env;
@@ -411,6 +449,19 @@ public class TypeChecker {
                                               final Type returnType,      // null if return is not ok
                                               final List<VarDec> superParams, // null if not expecting super
                                               final Statement stmt) throws TypeErrorException {
+        return DeepRecursion.call(() -> {
+            try {
+                return typecheckStatementHere(env.at(stmt), returnType, superParams, stmt);
+            } catch (final TypeErrorException e) {
+                throw located(e, stmt);
+            }
+        });
+    } // typecheckStatement
+
+    private TypeEnvironment typecheckStatementHere(final TypeEnvironment env,
+                                                   final Type returnType,
+                                                   final List<VarDec> superParams,
+                                                   final Statement stmt) throws TypeErrorException {
         if (stmt instanceof Block) {
             return typeCheckBlockStmt(env, returnType, superParams, (Block)stmt);
         } else if (stmt instanceof ExpStatement) {
@@ -430,7 +481,7 @@ public class TypeChecker {
             if(returnType == null) {
             throw new TypeErrorException("Return in super");
             }
-            typesOK(returnType, new VoidType());
+            typesOK(returnType, Types.voidType());
             return env;
         } else if (stmt instanceof BreakStatement) {
             if(env.inWhile == false) {
@@ -452,7 +503,7 @@ public class TypeChecker {
             assert(false);
             throw new TypeErrorException("Should be unreachable");
         }
-    } // typecheckStmt
+    } // typecheckStatementHere
 
     public static void typeInScope(final Set<TypeVariable> inScope,
                                    final Type type) throws TypeErrorException {
@@ -473,14 +524,9 @@ public class TypeChecker {
     } // typeInScope
 
     public List<VarDec> getSuperParams(final ClassType forClass) throws TypeErrorException {
-        final ClassDef selfAbstracted = getClass(forClass.name);
-        if (selfAbstracted.extendedClass != null) {
-            final ClassDef selfSpecialized = TypeRewriter.rewriteClassDef(selfAbstracted,
-                                                                                        forClass.types);
-            final ClassDef superAbstracted = getClass(selfAbstracted.extendedClass.extendsName);
-            final ClassDef superSpecialized = TypeRewriter.rewriteClassDef(superAbstracted,
-                                                                                         selfSpecialized.extendedClass.types);
-            return superSpecialized.constructor.parameters;
+        final ClassType supertype = specializations.get(forClass).supertype();
+        if (supertype != null) {
+            return specializations.get(supertype).constructor().parameters;
         } else {
             return null;
         }
@@ -499,59 +545,86 @@ public class TypeChecker {
         paramsInScope(inScope, params);
     } // paramsOk
 
-    public Set<Variable> typecheckMethod(final ClassType thisType,
+    // A method or constructor body, or the main statement, parsed or built
+    // first if the program came from Parser.parseSkeleton() or
+    // FlatAst.toSkeleton()
+    private static Statement expandBody(final Statement body) throws TypeErrorException {
+        try {
+            return LazyStatement.expand(body);
+        } catch (final ParserException e) {
+            throw new TypeErrorException(e.getMessage());
+        }
+    } // expandBody
+
+    // fieldsAssigned are the instance variables the constructor assigns.
+    // Those are the only fields a method can read before assigning them
+    // itself: another method may not have run first, and methods are
+    // checked independently of each other, in any order.
+    public void typecheckMethod(final ClassType thisType,
                                 final Set<TypeVariable> inScope,
-                                final Set<Variable> defined,
+                                final Set<Variable> fieldsAssigned,
                                 final MethodDef methodDef) throws TypeErrorException {
         // System.out.println("Type checking method " + methodDef.name + " in " + thisType.name);
         paramsOk(inScope, methodDef.varDecs);
         typeInScope(inScope, methodDef.returnType);
-        superReturnOkInMethod(methodDef.body);
-        List<VarDec> variables = new ArrayList<>(getClass(thisType.name).instanceVars);
+        final Statement body = expandBody(methodDef.body);
+        superReturnOkInMethod(body);
+        final List<VarDec> fields = getClass(thisType.name).instanceVars;
+        List<VarDec> variables = new ArrayList<>(fields);
         variables.addAll(methodDef.varDecs);
-        TypeEnvironment env = TypeEnvironment.initialEnv(inScope, variables, thisType);
-        for(Variable v : defined) {
-            // System.out.println(v + " was previously assigned a value");
-            env = env.addDefinedVariable(v);
-        }
-        for(VarDec v : methodDef.varDecs) { 
-            env = env.addDefinedVariable(v.var);
+        final Set<Variable> assigned = new HashSet<Variable>(fieldsAssigned);
+        for (final VarDec v : methodDef.varDecs) {
+            assigned.add(v.var);
         }
-        env = typecheckStatement(env,
+        final DefiniteAssignment assignment = new DefiniteAssignment(fields, methodDef.varDecs, assigned, body);
+        final TypeEnvironment env = TypeEnvironment.initialEnv(inScope, variables, thisType);
+        typecheckStatement(env.withAssignment(assignment),
                            methodDef.returnType,
                            null,
-                           methodDef.body);
-        for(VarDec v : methodDef.varDecs) {
-            env = env.removeDefinedVariable(v.var);
-        }
-        return env.defined;
+                           body);
     } // typecheckMethod
 
+    // Returns the instance variables the constructor definitely assigns
     public Set<Variable> typecheckConstructor(final ClassType thisType,
                                               final Set<TypeVariable> inScopeFromClass,
                                               final Constructor constructor) throws TypeErrorException {
         // System.out.println("Type checking constructor of " + thisType.name);
         final ClassDef classDef = getClass(thisType.name);
         paramsOk(inScopeFromClass, constructor.parameters);
-        superReturnOkInConstructor(classDef.extendedClass == null, constructor.body);
-        List<VarDec> variables = new ArrayList<>(getClass(thisType.name).instanceVars);
+        final Statement body = expandBody(constructor.body);
+        superReturnOkInConstructor(classDef.extendedClass == null, body);
+        final List<VarDec> fields = classDef.instanceVars;
+        List<VarDec> variables = new ArrayList<>(fields);
         variables.addAll(constructor.parameters);
-        TypeEnvironment env = TypeEnvironment.initialEnv(inScopeFromClass, variables, thisType);
-        for(VarDec v : constructor.parameters) {
-            env = env.addDefinedVariable(v.var);
+        final List<Variable> assigned = new ArrayList<Variable>();
+        for (final VarDec v : constructor.parameters) {
+            assigned.add(v.var);
         }
-        env = typecheckStatement(env,
+        final DefiniteAssignment assignment = new DefiniteAssignment(fields, constructor.parameters, assigned, body);
+        final TypeEnvironment env = TypeEnvironment.initialEnv(inScopeFromClass, variables, thisType);
+        typecheckStatement(env.withAssignment(assignment),
                            null,
                            getSuperParams(thisType),
-                           constructor.body);
-        for(VarDec v : constructor.parameters) {
-            env = env.removeDefinedVariable(v.var);
-        }                   
-        return env.defined;
+                           body);
+        final List<Variable> fieldVariables = new ArrayList<Variable>();
+        for (final VarDec field : fields) {
+            fieldVariables.add(field.var);
+        }
+        return assignment.assigned(assignment.atEnd(), fieldVariables);
     } // typecheckConstructor
 
     public void typecheckClass(final ClassName className) throws TypeErrorException {
         final ClassDef classDef = getClass(className);
+        try {
+            typecheckClassHere(className, classDef);
+        } catch (final TypeErrorException e) {
+            throw located(e, classDef);
+        }
+    } // typecheckClass
+
+    // Checks what the class declares apart from its constructor and method
+    // bodies, and returns its type variables
+    public Set<TypeVariable> typecheckClassHeader(final ClassDef classDef) throws TypeErrorException {
         final Set<TypeVariable> typeVariablesInScope = asSet(classDef.typeVariables);
         // Check if class extends
         if (classDef.extendedClass != null) {
@@ -562,37 +635,95 @@ public class TypeChecker {
         }
         noDuplicateMethodDefs(classDef.methodDefs);
         paramsOk(typeVariablesInScope, classDef.instanceVars);
-        instanceVariablesOk(className);
-        final ClassType thisType = new ClassType(className, new ArrayList<Type>(classDef.typeVariables));
-        Set<Variable> defined = typecheckConstructor(thisType, typeVariablesInScope, classDef.constructor);
+        instanceVariablesOk(classDef.name);
+        return typeVariablesInScope;
+    } // typecheckClassHeader
+
+    // The class's type within itself, applied to its own type variables
+    public static ClassType thisType(final ClassDef classDef) {
+        return Types.classType(classDef.name, new ArrayList<Type>(classDef.typeVariables));
+    } // thisType
+
+    private void typecheckClassHere(final ClassName className,
+                                    final ClassDef classDef) throws TypeErrorException {
+        final Set<TypeVariable> typeVariablesInScope = typecheckClassHeader(classDef);
+        final ClassType thisType = thisType(classDef);
+        // methods can be called in any order, so they can only count on
+        // what the constructor assigns
+        final Set<Variable> fieldsAssigned;
+        try {
+            fieldsAssigned = typecheckConstructor(thisType, typeVariablesInScope, classDef.constructor);
+        } catch (final TypeErrorException e) {
+            throw located(e, classDef.constructor);
+        }
+        final List<Check> methodChecks = new ArrayList<Check>();
         for (final MethodDef methodDef : classDef.methodDefs) {
-            defined = typecheckMethod(thisType, typeVariablesInScope, defined, methodDef);
+            methodChecks.add(() -> {
+                try {
+                    typecheckMethod(thisType, typeVariablesInScope, fieldsAssigned, methodDef);
+                } catch (final TypeErrorException e) {
+                    throw located(e, methodDef);
+                }
+            });
         }
-    } // typecheckClass 
+        inParallel(methodChecks);
+    } // typecheckClassHere
 
-    public void noCyclicInheritance(final ClassName className) throws TypeErrorException {
-            final Set<ClassName> seen = new HashSet<>();
-            ClassName current = className;
+    private interface Check {
+        void run() throws TypeErrorException;
+    }
 
-            while (current != null) {
-                if (seen.contains(current)) {
-                    throw new TypeErrorException("Cyclic inheritance on " + className);
-                }
-                seen.add(current);
-                final Extends currentExtends = getClass(current).extendedClass;
-                current = (currentExtends == null) ? null : currentExtends.extendsName;
+    // Runs the checks as ForkJoinTasks, in the pool the caller is running
+    // in or the common pool, and throws whatever the first that fails
+    // threw.  Every task catches its own failure, unchecked ones included,
+    // so the one reported doesn't depend on which thread finished first.
+    private static void inParallel(final List<Check> checks) throws TypeErrorException {
+        if (checks.size() == 1) {
+            checks.get(0).run();
+            return;
+        }
+        final List<ForkJoinTask<Throwable>> tasks = new ArrayList<ForkJoinTask<Throwable>>(checks.size());
+        for (final Check check : checks) {
+            tasks.add(task(check));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        for (final ForkJoinTask<Throwable> task : tasks) {
+            rethrow(task.join());
+        }
+    } // inParallel
+
+    // A check run as a ForkJoinTask, returning what it threw rather than
+    // letting the pool rethrow a copy of it
+    private static ForkJoinTask<Throwable> task(final Check check) {
+        return ForkJoinTask.adapt((Callable<Throwable>)() -> {
+            try {
+                check.run();
+                return null;
+            } catch (final Throwable e) {
+                return e;
             }
-    } // noCyclicInheritance
+        });
+    } // task
+
+    // Throws what a task() caught, if anything, as itself
+    private static void rethrow(final Throwable e) throws TypeErrorException {
+        if (e instanceof TypeErrorException) {
+            throw (TypeErrorException)e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException)e;
+        } else if (e instanceof Error) {
+            throw (Error)e;
+        } else if (e != null) {
+            throw new IllegalStateException(e);
+        }
+    } // rethrow
 
     public void typecheckClasses() throws TypeErrorException {
-    // cyclic checks go first, as all downstream code assumes acyclic
-    // inheritance
-    for (final ClassName className : classes.keySet()) {
-        noCyclicInheritance(className);
-    }
-    for (final ClassName className : classes.keySet()) {
-        typecheckClass(className);
+    final List<Check> classChecks = new ArrayList<Check>();
+    for (final ClassDef classDef : classDefs) {
+        classChecks.add(() -> typecheckClass(classDef.name));
     }
+    inParallel(classChecks);
     } // typecheckClasses
 
     public static Map<ClassName, ClassDef> classMapping(final List<ClassDef> classes) throws TypeErrorException {
@@ -608,13 +739,39 @@ public class TypeChecker {
 
     // Called in testing to type check the given program
     public static void typecheckProgram(final Program program) throws TypeErrorException {
-    final TypeChecker typeChecker =  new TypeChecker(classMapping(program.classDefs));
-    typeChecker.typecheckClasses();
-    // System.out.println("Finished typechecking clasess");
-    typeChecker.typecheckStatement(TypeEnvironment.initialEnv(new ArrayList<TypeVariable>(), new ArrayList<VarDec>(), null),
-                                    null,
-                                    null,
-                                    program.statement);
+        typecheckProgram(program, null);
+    }
+
+    // Type checks the program; errors name the location of the innermost
+    // statement or declaration that spans knows about
+    public static void typecheckProgram(final Program program,
+                                        final SourceSpans spans) throws TypeErrorException {
+        typecheckProgram(program, spans, ForkJoinPool.commonPool());
+    }
+
+    // Type checks the program using the threads of pool
+    public static void typecheckProgram(final Program program,
+                                        final SourceSpans spans,
+                                        final ForkJoinPool pool) throws TypeErrorException {
+    final TypeChecker typeChecker =  new TypeChecker(program.classDefs, spans);
+    rethrow(pool.invoke(task(() -> {
+        typeChecker.typecheckClasses();
+        // System.out.println("Finished typechecking clasess");
+        typeChecker.typecheckMain(program.statement);
+    })));
     // System.out.println();
     }
+
+    void typecheckMain(final Statement main) throws TypeErrorException {
+        final Statement statement = expandBody(main);
+        final DefiniteAssignment assignment = new DefiniteAssignment(new ArrayList<VarDec>(),
+                                                                     new ArrayList<VarDec>(),
+                                                                     new ArrayList<Variable>(),
+                                                                     statement);
+        typecheckStatement(TypeEnvironment.initialEnv(new ArrayList<TypeVariable>(), new ArrayList<VarDec>(), null)
+                               .withAssignment(assignment),
+                           null,
+                           null,
+                           statement);
+    } // typecheckMain
 }
\ No newline at end of file
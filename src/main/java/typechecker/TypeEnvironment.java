@@ -3,6 +3,7 @@ package j2script;
 import j2script.TypeChecker;
 import j2script.declarations.VarDec;
 import j2script.names.Variable;
+import j2script.statements.Statement;
 import j2script.types.Type;
 import j2script.types.ClassType;
 import j2script.types.TypeVariable;
@@ -11,25 +12,41 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
-import java.util.HashSet;
 
+// Environments are immutable: adding a variable gives a new one.  The
+// variables are persistent, so that costs O(log n) and shares the rest with
+// the environment it came from, instead of copying everything for each
+// declaration.  Which variables are definitely assigned comes from a
+// DefiniteAssignment over the whole body, looked up for each statement.
 public class TypeEnvironment {
     private final Set<TypeVariable> inScope;     // type variables in scope
-    private final Map<Variable, Type> variables;
-    public final Set<Variable> defined;
+    private final PersistentMap<Variable, Type> variables;
     public final ClassType thisType; // null if outside of method
-    public boolean inWhile;
-    
+    public final boolean inWhile;
+    // null if no variable is assigned
+    private final DefiniteAssignment assignment;
+    // what assignment says for the statement being checked
+    private final long[] assigned;
+
     public TypeEnvironment(final Set<TypeVariable> inScope,
                            final Map<Variable, Type> variables,
                            final ClassType thisType,
-                           final Set<Variable> defined,
                            boolean inWhile) {
+        this(inScope, PersistentMap.of(variables), thisType, inWhile, null, null);
+    }
+
+    private TypeEnvironment(final Set<TypeVariable> inScope,
+                            final PersistentMap<Variable, Type> variables,
+                            final ClassType thisType,
+                            final boolean inWhile,
+                            final DefiniteAssignment assignment,
+                            final long[] assigned) {
         this.inScope = inScope;
         this.variables = variables;
         this.thisType = thisType;
-        this.defined = defined;
         this.inWhile = inWhile;
+        this.assignment = assignment;
+        this.assigned = assigned;
     }
 
     public void typeInScope(final Type type) throws TypeErrorException {
@@ -54,9 +71,8 @@ public class TypeEnvironment {
     public TypeEnvironment addVariable(final Variable variable,
                                        final Type type) throws TypeErrorException {
         if (!variables.containsKey(variable)) {
-            final Map<Variable, Type> newVariables = new HashMap<Variable, Type>(variables);
-            newVariables.put(variable, type);
-            return new TypeEnvironment(inScope, newVariables, thisType, defined, inWhile);
+            return new TypeEnvironment(inScope, variables.put(variable, type), thisType,
+                                       inWhile, assignment, assigned);
         } else {
             throw new TypeErrorException("Redefinition of variable: " + variable);
         }
@@ -66,20 +82,27 @@ public class TypeEnvironment {
         return addVariable(vardec.var, vardec.type);
     }
 
+    // Whether var is definitely assigned before the statement being checked
     public boolean checkDefined(Variable var) {
-        return defined.contains(var);
+        return assignment != null && assignment.isAssigned(assigned, var);
     }
 
-    public TypeEnvironment addDefinedVariable(final Variable variable) throws TypeErrorException {
-        final Set<Variable> newdefined = new HashSet<>(defined);
-        newdefined.add(variable);
-        return new TypeEnvironment(inScope, variables, thisType, newdefined, inWhile);
+    // Checks the body that assignment was worked out for, from its start
+    public TypeEnvironment withAssignment(final DefiniteAssignment assignment) {
+        return new TypeEnvironment(inScope, variables, thisType, inWhile, assignment, assignment.atStart());
+    }
+
+    // For checking stmt, part of the body
+    public TypeEnvironment at(final Statement stmt) {
+        if (assignment == null) {
+            return this;
+        }
+        return new TypeEnvironment(inScope, variables, thisType, inWhile, assignment, assignment.before(stmt));
     }
 
-    public TypeEnvironment removeDefinedVariable(final Variable variable) throws TypeErrorException {
-        final Set<Variable> newdefined = new HashSet<>(defined);
-        newdefined.remove(variable);
-        return new TypeEnvironment(inScope, variables, thisType, newdefined, inWhile);
+    // For checking the body of a loop
+    public TypeEnvironment inLoop() {
+        return new TypeEnvironment(inScope, variables, thisType, true, assignment, assigned);
     }
 
     public static Map<Variable, Type> variableMapping(final List<VarDec> params) throws TypeErrorException {
@@ -94,7 +117,12 @@ public class TypeEnvironment {
     public static TypeEnvironment initialEnv(final Set<TypeVariable> inScope,
                                              final List<VarDec> params,
                                              final ClassType thisType) throws TypeErrorException {
-        return new TypeEnvironment(inScope, variableMapping(params), thisType, new HashSet<>(), false);
+        return new TypeEnvironment(inScope,
+                                   PersistentMap.of(variableMapping(params)),
+                                   thisType,
+                                   false,
+                                   null,
+                                   null);
     } // initialEnv
 
     public static TypeEnvironment initialEnv(final List<TypeVariable> typeVariables,
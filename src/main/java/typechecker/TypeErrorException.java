@@ -3,8 +3,17 @@ package j2script;
 import j2script.types.Type;
 
 public class TypeErrorException extends Exception {
+    // where in the source the error is, or null if not known
+    public final String location;
+
     public TypeErrorException(final String message) {
         super(message);
+        this.location = null;
+    }
+
+    public TypeErrorException(final String message, final String location) {
+        super(message + " at " + location);
+        this.location = location;
     }
 
     public TypeErrorException(final Type expected, final Type received) {
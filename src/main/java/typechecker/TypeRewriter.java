@@ -15,10 +15,14 @@ public class TypeRewriter {
         this.replacements = replacements;
     }
 
+    // null, as the parser leaves for some declarations, stays null
     public List<Type> rewriteTypes(final List<Type> types) {
-        final List<Type> result = new ArrayList(types.size());
-        for (int index = 0; index < result.size(); index++) {
-            result.set(index, rewriteType(types.get(index)));
+        if (types == null) {
+            return null;
+        }
+        final List<Type> result = new ArrayList<Type>(types.size());
+        for (int index = 0; index < types.size(); index++) {
+            result.add(rewriteType(types.get(index)));
         }
         return result;
     } // rewriteTypes
@@ -29,11 +33,11 @@ public class TypeRewriter {
         } else if (originalType instanceof ClassType) {
             final ClassType asClass = (ClassType)originalType;
             final List<Type> newTypes = rewriteTypes(asClass.types);
-            return new ClassType(asClass.name, newTypes);
+            return Types.classType(asClass.name, newTypes);
         } else if (originalType instanceof TypeVariable) {
-            final TypeVariable asVariable = (TypeVariable)originalType;
-            assert(replacements.containsKey(asVariable));
-            return replacements.get(asVariable);
+            // one the class doesn't declare is left for typeInScope to report
+            final Type replacement = replacements.get((TypeVariable)originalType);
+            return (replacement == null) ? originalType : replacement;
         } else {
             assert(false);
             return null;
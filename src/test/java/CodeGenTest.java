@@ -1356,4 +1356,94 @@ List<Exp> expressions = new ArrayList<>();
 		Program program = new Program(classes, block);
 		assertResultProgram("var One_getOne = function(self) {return one;};var One_vtable = [One_getOne];var Two_getTwo = function(self) {	return two};var Two_getOne = function(self) {	return 1};var Two_vtable = [Two_getOne, Two_getTwo];var Three_getThree = function(self) {	return three};var Three_vtable = [Two_getOne, Two_getTwo, Three_getThree];var Four_getOne = function(self) {	return 1};var Four_getFour = function(self) {	return four};var Four_vtable = [Four_getOne, Two_getTwo, Three_getThree, Four_getFour];var o = {	vtable: One_vtable,	one: 1}var t = {	vtable: Two_vtable,	one: 2}var th = {	vtable: One_vtable,	one: 3}var f = {	vtable: Four_vtable,	one: 4}var one = f.vtable[0](f);", program);
 	}
-}
\ No newline at end of file
+	@Test
+	public void testFlatSkeletonCompilesLikeTheFullProgram() throws Exception {
+		final String input =
+			"class A<> { constructor() { int u = 0; } public int get() { int t = 2; return t; } }\n" +
+			"{ int q = 1 + 2; while (q < 10) q = q + 1; println(q); }";
+		final FlatAst ast = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseFlat();
+		final Codegen code = new Codegen();
+		final File full = File.createTempFile("test", ".js");
+		final File skeleton = File.createTempFile("test", ".js");
+		try {
+			code.writeProgramtoFile(ast.toProgram(), full);
+			code.writeProgramtoFile(ast.toSkeleton(), skeleton);
+			final String expected = readFile(full);
+			assertTrue(expected.contains("while(q < 10)"));
+			assertEquals(expected, readFile(skeleton));
+		} finally {
+			full.delete();
+			skeleton.delete();
+		}
+	}
+
+	// A constructor body that counts how often it is expanded
+	private static class CountingBody implements DeferredStatement {
+		private final Statement body;
+		private int expansions = 0;
+
+		private CountingBody(final Statement body) {
+			this.body = body;
+		}
+
+		public Statement expand() {
+			expansions++;
+			return body;
+		}
+	}
+
+	@Test
+	public void testConstructorBodyExpandsOncePerClass() throws IOException {
+		final CountingBody body = new CountingBody(new VarAssignment(new Variable("name"), new BoolExp(true)));
+		// compilevarDecAssign looks the class up by the declared type's
+		// toString(), which is "ClassType" whatever the class
+		final List<ClassDef> classes = new ArrayList<>();
+		classes.add(new ClassDef(new ClassName("ClassType"), new Constructor(new ArrayList<VarDec>(), body),
+			new ArrayList<VarDec>(), new ArrayList<MethodDef>(), new ArrayList<>()));
+		final List<Statement> statements = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			statements.add(new VarDecAssignment(new VarDec(new ClassType(new ClassName("Car"), new ArrayList<>()), new Variable("car" + i)),
+				new ClassExp(new ClassName("Car"), new ArrayList<>(), new ArrayList<Exp>())));
+		}
+		final Codegen code = new Codegen();
+		final File file = File.createTempFile("test", ".js");
+		try {
+			code.writeProgramtoFile(new Program(classes, new Block(statements)), file);
+			final String output = readFile(file);
+			assertTrue(output.contains("var car2 = {	vtable: ClassType_vtable,	name: true}"));
+		} finally {
+			file.delete();
+		}
+		assertEquals(1, body.expansions);
+	}
+
+	@Test
+	public void testDeeplyNestedStatements() throws IOException {
+		final int depth = 100000;
+		Statement stmt = new VarAssignment(new Variable("x"), new NumberExp(1));
+		final StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			stmt = new WhileStatement(
+				new BinopExp(new VariableExp(new Variable("x")), new LessThanOp(), new NumberExp(10)),
+				new IfStatement(new BoolExp(true), stmt, new BreakStatement()));
+			expected.append("while(x < 10) {if (true) { ");
+		}
+		expected.append("x = 1");
+		for (int i = 0; i < depth; i++) {
+			expected.append(" } else { break}}");
+		}
+		assertResultStatements(expected.toString(), stmt);
+	}
+
+	@Test
+	public void testDeeplyNestedExpression() throws IOException {
+		final int depth = 100000;
+		Exp exp = new NumberExp(0);
+		final StringBuilder expected = new StringBuilder("0");
+		for (int i = 1; i < depth; i++) {
+			exp = new BinopExp(exp, new PlusOp(), new NumberExp(i));
+			expected.append(" + ").append(i);
+		}
+		assertResult(expected.toString(), exp);
+	}
+}
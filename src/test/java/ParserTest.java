@@ -1,4 +1,7 @@
 package j2script;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
@@ -76,6 +79,59 @@ public class ParserTest {
 		assertParses(tokens, program);
 	}
 
+	@Test
+	public void testParseFromTokenStream() throws Exception {
+		final String input = "int x = 5 + ((1+2) * 4);";
+		final Program expected = new Parser(new Tokenizer(input.toCharArray()).tokenize()).parseMe();
+		final Program received = new Parser(new TokenStream(new StringReader(input))).parseMe();
+		assertEquals(expected, received);
+	}
+
+	@Test
+	public void testParseFromTokenBuffer() throws Exception {
+		final String input = "int x = 5 + ((1+2) * 4);";
+		final Program expected = new Parser(new Tokenizer(input.toCharArray()).tokenize()).parseMe();
+		final Program received = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe();
+		assertEquals(expected, received);
+	}
+
+	@Test
+	public void testParseErrorReportsLineAndColumn() throws Exception {
+		final String input = "int x = 5;\n  x";
+		try {
+			new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe();
+		} catch (final ParserException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("line 2, column 3"));
+			return;
+		}
+		assertTrue("Expected parse failure", false);
+	}
+
+	@Test
+	public void testBlockAcceptsEveryStatementKind() throws Exception {
+		final String input = "{ while (1) if (2) break; else return; return; }";
+		final List<Statement> statements = new ArrayList<>();
+		statements.add(new WhileStatement(
+				new NumberExp(1),
+				new IfStatement(new NumberExp(2), new BreakStatement(), new ReturnVoidStatement())));
+		statements.add(new ReturnVoidStatement());
+		final Program expected = new Program(new ArrayList<>(), new Block(statements));
+		assertParses(new Tokenizer(input.toCharArray()).tokenize(), expected);
+	}
+
+	@Test
+	public void testMalformedInputIsAParserException() throws Exception {
+		final String[] inputs = { "int x", "print(", "{ int x = 1;", "5;", "class A<> { constructor() " };
+		for (final String input : inputs) {
+			try {
+				new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe();
+				assertTrue("Expected parse failure for " + input, false);
+			} catch (final ParserException e) {
+				// expected
+			}
+		}
+	}
+
 	@Test
 	public void testArithmeticPrecedenceStatement() { 
         // x = 1 - 2 / 3;
@@ -107,6 +163,94 @@ public class ParserTest {
 		assertParses(tokens, program);
 	}
 
+	@Test
+	public void testComparisonOperatorPrecedence() throws Exception {
+		// x = 1 + 2 < 3 * 4 == true;
+		final String input = "x = 1 + 2 < 3 * 4 == true;";
+		final Exp less = new BinopExp(
+				new BinopExp(new NumberExp(1), new PlusOp(), new NumberExp(2)),
+				new LessThanOp(),
+				new BinopExp(new NumberExp(3), new MultOp(), new NumberExp(4)));
+		final Statement stm = new VarAssignment(new Variable("x"),
+				new BinopExp(less, new EqualsOp(), new BoolExp(true)));
+		assertParses(new Tokenizer(input.toCharArray()).tokenize(),
+				new Program(new ArrayList<>(), stm));
+	}
+
+	@Test
+	public void testComparisonInGuards() throws Exception {
+		final String input = "while (1 < 10) if (2 == 5) break; else return 3 + 1;";
+		final Statement stm = new WhileStatement(
+				new BinopExp(new NumberExp(1), new LessThanOp(), new NumberExp(10)),
+				new IfStatement(
+						new BinopExp(new NumberExp(2), new EqualsOp(), new NumberExp(5)),
+						new BreakStatement(),
+						new ReturnExpStatement(new BinopExp(new NumberExp(3), new PlusOp(), new NumberExp(1)))));
+		assertParses(new Tokenizer(input.toCharArray()).tokenize(),
+				new Program(new ArrayList<>(), stm));
+	}
+
+	@Test
+	public void testLongOperatorChainIsLeftAssociative() throws Exception {
+		final int terms = 50000;
+		final StringBuilder input = new StringBuilder("x = 0");
+		for (int i = 1; i < terms; i++) {
+			input.append(i % 2 == 0 ? " + " : " - ").append(i);
+		}
+		input.append(";");
+		final Program program = new Parser(new Tokenizer(input.toString().toCharArray()).tokenizeToBuffer()).parseMe();
+		Exp exp = ((VarAssignment)program.statement).exp;
+		for (int i = terms - 1; i > 0; i--) {
+			final BinopExp binop = (BinopExp)exp;
+			assertEquals(i % 2 == 0 ? new PlusOp() : new MinusOp(), binop.op);
+			assertEquals(new NumberExp(i), binop.right);
+			exp = binop.left;
+		}
+		assertEquals(new NumberExp(0), exp);
+	}
+
+	@Test
+	public void testDeeplyNestedStatementsParse() throws Exception {
+		final int depth = 100000;
+		final StringBuilder input = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			input.append("while (x < 10) { if (true) ");
+		}
+		input.append("x = 1;");
+		for (int i = 0; i < depth; i++) {
+			input.append(" else { break; } }");
+		}
+		Statement stmt = new Parser(new Tokenizer(input.toString().toCharArray()).tokenizeToBuffer()).parseMe().statement;
+		for (int i = 0; i < depth; i++) {
+			final WhileStatement whileStmt = (WhileStatement)stmt;
+			final IfStatement ifStmt = (IfStatement)((Block)whileStmt.stmt).statements.get(0);
+			assertEquals(new BoolExp(true), ifStmt.guard);
+			stmt = ifStmt.ifTrue;
+		}
+		assertEquals("x = 1", stmt.toString());
+	}
+
+	@Test
+	public void testDeeplyNestedParensParse() throws Exception {
+		final int depth = 100000;
+		final StringBuilder input = new StringBuilder("x = ");
+		for (int i = 0; i < depth; i++) {
+			input.append("1 + (");
+		}
+		input.append("1");
+		for (int i = 0; i < depth; i++) {
+			input.append(")");
+		}
+		input.append(";");
+		Exp exp = ((VarAssignment)new Parser(new Tokenizer(input.toString().toCharArray()).tokenizeToBuffer()).parseMe().statement).exp;
+		for (int i = 0; i < depth; i++) {
+			final BinopExp binop = (BinopExp)exp;
+			assertEquals(new NumberExp(1), binop.left);
+			exp = binop.right;
+		}
+		assertEquals(new NumberExp(1), exp);
+	}
+
 	@Test
 	public void testArithmeticPrecedenceWithParensStatement() {
         // x= (1 - 2) / 3;
@@ -1535,4 +1679,529 @@ public class ParserTest {
 		Program program = new Program(classDef, new Block());
 		assertParses(tokens, program);
     }
-}
\ No newline at end of file
+
+	@Test
+	public void testParserRecordsSpans() throws Exception {
+		final String input = "{\n  int x = 5;\n  x = x + 1;\n}";
+		final Parser parser = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer());
+		final Block block = (Block)parser.parseMe().statement;
+		final SourceSpans spans = parser.spans();
+		assertEquals(3, spans.size());
+		assertEquals(0, spans.start(block));
+		assertEquals(input.length(), spans.end(block));
+		assertEquals("line 3, column 3", spans.describe(block.statements.get(1)));
+		assertEquals(input.indexOf("x = x"), spans.start(block.statements.get(1)));
+		assertEquals(input.indexOf(";\n}") + 1, spans.end(block.statements.get(1)));
+	}
+
+	@Test
+	public void testParserSpansFromTokenStream() throws Exception {
+		final String input = "{\n  int x = 5;\n  x = x + 1;\n}";
+		final Parser parser = new Parser(new TokenStream(new StringReader(input)));
+		final Block block = (Block)parser.parseMe().statement;
+		assertEquals("line 2, column 3", parser.spans().describe(block.statements.get(0)));
+	}
+
+	@Test
+	public void testParserWithoutOffsetsRecordsNoSpans() throws Exception {
+		final Parser parser = new Parser(new Tokenizer("int x = 5;".toCharArray()).tokenize());
+		final Program program = parser.parseMe();
+		assertEquals(null, parser.spans().describe(program.statement));
+	}
+
+	@Test
+	public void testFlatAstLayout() throws Exception {
+		final FlatAst ast = new Parser(new Tokenizer("int x = 1 + y;".toCharArray()).tokenize()).parseFlat();
+		assertEquals(AstKind.PROGRAM, ast.kind(0));
+		final int assign = ast.firstChild(0);
+		assertEquals(AstKind.VAR_DEC_ASSIGN, ast.kind(assign));
+		assertEquals(2, ast.childCount(assign));
+		final int varDec = ast.child(assign, 0);
+		assertEquals("x", ast.name(varDec));
+		assertEquals(AstKind.INT_TYPE, ast.kind(ast.firstChild(varDec)));
+		final int binop = ast.child(assign, 1);
+		assertEquals(new PlusOp(), ast.op(binop));
+		assertEquals(1, ast.number(ast.firstChild(binop)));
+		assertEquals("y", ast.name(ast.nextSibling(ast.firstChild(binop))));
+		assertEquals(FlatAst.NONE, ast.nextSibling(ast.nextSibling(ast.firstChild(binop))));
+		assertEquals(7, ast.size());
+	}
+
+	@Test
+	public void testParseFlatMatchesFlatteningTheParsedProgram() throws Exception {
+		final String input =
+			"class A<> { int x; constructor(int y) { x = y; } " +
+			"public int get() { return x + 1; } private void set(int z) { x = z; } }\n" +
+			"class B<T> extends A<> { T t; constructor(int y, T u) { t = u; } }\n" +
+			"{ int q = 1 + 2 * 3 - 4; boolean b = q < 5 == true; " +
+			"while (q < 10) q = q + 1; if (b) println(q); else return; }";
+		final FlatAst expected = FlatAst.of(new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe());
+		final Parser parser = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer());
+		final FlatAst ast = parser.parseFlat();
+		assertEquals(expected.size(), ast.size());
+		for (int node = 0; node < ast.size(); node++) {
+			assertEquals(expected.kind(node), ast.kind(node));
+			assertEquals(expected.firstChild(node), ast.firstChild(node));
+			assertEquals(expected.nextSibling(node), ast.nextSibling(node));
+			assertEquals(expected.payload(node), ast.payload(node));
+		}
+		// nothing of the object tree is left behind once it is flattened
+		assertEquals(0, parser.spans().size());
+		assertEquals(0, parser.nodes().size());
+	}
+
+	@Test
+	public void testParseFlatErrorsMatchParseMe() throws Exception {
+		final String[] inputs = {
+			"{ int x = 1; ",
+			"{ int x = 1; } int y = 2;",
+			"class A<> { constructor() { int u = 0; } public int get() { return 1 } }",
+			"class A<> { constructor() { int u = 0; } }",
+		};
+		for (final String input : inputs) {
+			String expected = null;
+			try {
+				new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe();
+			} catch (final ParserException e) {
+				expected = e.getMessage();
+			}
+			try {
+				new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseFlat();
+				assertEquals(expected, null);
+			} catch (final ParserException e) {
+				assertEquals(expected, e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testFlatSkeletonDefersBodies() throws Exception {
+		final String input =
+			"class A<> { int x; constructor(int y) { x = y; } " +
+			"public int get() { return x + 1; } }\n" +
+			"{ int q = 1 + 2; println(q); }";
+		final FlatAst ast = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseFlat();
+		final Program program = ast.toProgram();
+		final Program skeleton = ast.toSkeleton();
+		assertTrue(skeleton.statement instanceof DeferredStatement);
+		assertTrue(skeleton.classDefs.get(0).constructor.body instanceof DeferredStatement);
+		assertTrue(skeleton.classDefs.get(0).methodDefs.get(0).body instanceof DeferredStatement);
+		assertEquals(program.statement.toString(), ((DeferredStatement)skeleton.statement).expand().toString());
+		assertEquals(program.toString(), skeleton.toString());
+		assertEquals(skeleton.statement, ast.toSkeleton().statement);
+	}
+
+	@Test
+	public void testFlatAstRoundTrip() throws Exception {
+		final String input =
+			"class A<> { int x; constructor(int y) { x = y; } " +
+			"public int get() { return x + 1; } private void set(int z) { x = z; } }\n" +
+			"class B<T> extends A<> { T t; constructor(int y, T u) { t = u; } }\n" +
+			"{ int q = 1 + 2 * 3 - 4; boolean b = q < 5 == true; " +
+			"while (q < 10) q = q + 1; if (b) println(q); else return; }";
+		final Program program = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe();
+		final FlatAst ast = FlatAst.of(program);
+		final Program rebuilt = ast.toProgram();
+		// VariableExp has no equals, so compare the printed forms
+		assertEquals(program.toString(), rebuilt.toString());
+		assertEquals(program.classDefs.size(), rebuilt.classDefs.size());
+		assertEquals(ast.size(), FlatAst.of(rebuilt).size());
+		for (int i = 0; i < program.classDefs.size(); i++) {
+			assertEquals(program.classDefs.get(i).methodDefs.toString(),
+					rebuilt.classDefs.get(i).methodDefs.toString());
+			assertEquals(program.classDefs.get(i).typeVariables, rebuilt.classDefs.get(i).typeVariables);
+		}
+	}
+
+	@Test
+	public void testFlatAstLongChain() throws Exception {
+		final StringBuilder input = new StringBuilder("x = 0");
+		for (int i = 1; i < 50000; i++) {
+			input.append(" + ").append(i);
+		}
+		input.append(";");
+		final Program program = new Parser(new Tokenizer(input.toString().toCharArray()).tokenizeToBuffer()).parseMe();
+		final FlatAst ast = FlatAst.of(program);
+		assertEquals(1 + 1 + 49999 * 2 + 1, ast.size());
+		final Program rebuilt = ast.toProgram();
+		Exp left = ((VarAssignment)rebuilt.statement).exp;
+		for (int i = 49999; i > 0; i--) {
+			assertEquals(new NumberExp(i), ((BinopExp)left).right);
+			left = ((BinopExp)left).left;
+		}
+		assertEquals(new NumberExp(0), left);
+	}
+
+	@Test
+	public void testBinaryAstRoundTrip() throws Exception {
+		final String input =
+			"class A<> { int x; constructor(int y) { x = y; } " +
+			"public int get() { return x + 1; } private void set(int z) { x = z; } }\n" +
+			"class B<T> extends A<> { T t; constructor(int y, T u) { t = u; } }\n" +
+			"{ int q = 1 + 2 * 3 - 4; boolean b = q < 5 == true; int n = 0 - 7; " +
+			"while (q < 10) q = q + 1; if (b) println(q); else return; }";
+		final Program program = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe();
+		final byte[] encoded = AstWriter.encode(program);
+		final Program decoded = new AstReader(ByteBuffer.wrap(encoded)).readProgram();
+		assertArrayEquals(encoded, AstWriter.encode(decoded));
+		assertEquals(program.toString(), decoded.toString());
+		assertEquals(program.statement, decoded.statement);
+		for (int i = 0; i < program.classDefs.size(); i++) {
+			assertEquals(program.classDefs.get(i).name, decoded.classDefs.get(i).name);
+			assertEquals(program.classDefs.get(i).methodDefs.toString(),
+					decoded.classDefs.get(i).methodDefs.toString());
+			assertEquals(program.classDefs.get(i).typeVariables, decoded.classDefs.get(i).typeVariables);
+		}
+	}
+
+	@Test
+	public void testBinaryAstLoadsOneClass() throws Exception {
+		final Program program = new Parser(new Tokenizer(manyClasses(50).toCharArray()).tokenizeToBuffer()).parseMe();
+		// the cache may sit at any position of a bigger buffer
+		final byte[] encoded = AstWriter.encode(program);
+		final ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 3);
+		buffer.position(3);
+		buffer.put(encoded);
+		buffer.position(3);
+		final AstReader reader = new AstReader(buffer);
+		assertEquals(50, reader.classCount());
+		final ClassDef expected = program.classDefs.get(37);
+		assertEquals(expected.name.name, reader.className(37));
+		final ClassDef loaded = reader.readClass(37);
+		assertEquals(expected.instanceVars, loaded.instanceVars);
+		assertEquals(expected.methodDefs.get(0).body.toString(), loaded.methodDefs.get(0).body.toString());
+		assertEquals(program.statement.toString(), reader.readStatement().toString());
+		assertEquals(3, buffer.position());
+	}
+
+	@Test
+	public void testBinaryAstRejectsOtherVersions() throws Exception {
+		final byte[] encoded = AstWriter.encode(new Program(new ArrayList<ClassDef>(), new BreakStatement()));
+		encoded[AstWriter.MAGIC.length] = (byte)(AstWriter.VERSION + 1);
+		try {
+			new AstReader(ByteBuffer.wrap(encoded));
+		} catch (final IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("version"));
+			return;
+		}
+		assertTrue("Expected a version error", false);
+	}
+
+	@Test
+	public void testBinaryAstCorruptionIsAnIOException() throws Exception {
+		final String input =
+			"class A<> { int x; constructor(int y) { x = y; } public int get() { return x + 1; } }\n" +
+			"class B<T> extends A<> { T t; constructor(int y, T u) { t = u; } }\n" +
+			"{ int q = 1 + 2 * 3; boolean b = q < 5 == true; while (q < 10) q = q + 1; if (b) println(q); else return; }";
+		final byte[] encoded = AstWriter.encode(new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe());
+		final int[] replacements = { 0x00, 0x01, 0x7F, 0x80, 0xFF };
+		for (int i = 0; i < encoded.length; i++) {
+			for (final int replacement : replacements) {
+				final byte[] corrupt = encoded.clone();
+				corrupt[i] = (byte)replacement;
+				try {
+					new AstReader(ByteBuffer.wrap(corrupt)).readProgram();
+				} catch (final IOException e) {
+					// the only way a corrupt file may fail
+				} catch (final RuntimeException e) {
+					throw new AssertionError("byte " + i + " set to " + replacement, e);
+				}
+			}
+		}
+		for (int length = 0; length < encoded.length; length++) {
+			try {
+				new AstReader(ByteBuffer.wrap(encoded, 0, length)).readProgram();
+				assertTrue("Read a truncated AST", false);
+			} catch (final IOException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testBinaryAstDeepNesting() throws Exception {
+		final int depth = 100000;
+		final StringBuilder input = new StringBuilder("x = 0");
+		for (int i = 1; i < depth; i++) {
+			input.append(" + ").append(i);
+		}
+		input.append(" * (");
+		for (int i = 0; i < depth; i++) {
+			input.append("1 - (");
+		}
+		input.append("2");
+		for (int i = 0; i <= depth; i++) {
+			input.append(")");
+		}
+		input.append(";");
+		final Program program = new Parser(new Tokenizer(input.toString().toCharArray()).tokenizeToBuffer()).parseMe();
+		final Program decoded = new AstReader(ByteBuffer.wrap(AstWriter.encode(program))).readProgram();
+		assertEquals(program.statement, decoded.statement);
+	}
+
+	@Test
+	public void testSkeletonLeavesBodiesUnparsed() throws Exception {
+		final String input =
+			"class A<> { int x; constructor(int y) { x = y; } " +
+			"public int get() { { return x + 1; } } private void set(int z) { x = z; } }\n" +
+			"{ int q = 1; }";
+		final Program full = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe();
+		final Program skeleton = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseSkeleton();
+		final ClassDef classDef = skeleton.classDefs.get(0);
+		assertTrue(classDef.constructor.body instanceof LazyStatement);
+		final LazyStatement get = (LazyStatement)classDef.methodDefs.get(0).body;
+		assertTrue(!get.isParsed());
+		assertEquals(full.classDefs.get(0).methodDefs.get(0).body.toString(), get.force().toString());
+		assertTrue(get.isParsed());
+		assertTrue(!((LazyStatement)classDef.methodDefs.get(1).body).isParsed());
+		assertEquals(full.toString(), skeleton.toString());
+	}
+
+	@Test
+	public void testSkeletonBodiesCompareByExpanding() throws Exception {
+		final String input =
+			"class A<> { int x; constructor(int y) { x = y; } public int get() { return x; } }\n" +
+			"{ int q = 1; }";
+		final Program full = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe();
+		final Program skeleton = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseSkeleton();
+		final Program other = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseSkeleton();
+		final Statement parsed = full.classDefs.get(0).methodDefs.get(0).body;
+		final Statement lazy = skeleton.classDefs.get(0).methodDefs.get(0).body;
+		assertTrue(lazy instanceof LazyStatement);
+		// a parsed block and a skipped body are never equal, either way round
+		assertTrue(!lazy.equals(parsed));
+		assertTrue(!parsed.equals(lazy));
+		assertEquals(parsed, LazyStatement.expand(lazy));
+		assertEquals(parsed.hashCode(), LazyStatement.expand(lazy).hashCode());
+		// two skipped bodies compare by what they parse to
+		final Statement otherLazy = other.classDefs.get(0).methodDefs.get(0).body;
+		assertTrue(lazy.equals(otherLazy));
+		assertTrue(otherLazy.equals(lazy));
+		assertEquals(lazy.hashCode(), otherLazy.hashCode());
+		assertTrue(!lazy.equals(other.classDefs.get(0).constructor.body));
+	}
+
+	@Test
+	public void testSkeletonDefersBodyErrors() throws Exception {
+		final String input = "class A<> { constructor() { x = ; } }\n{ int q = 1; }";
+		final Program skeleton = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseSkeleton();
+		try {
+			LazyStatement.expand(skeleton.classDefs.get(0).constructor.body);
+		} catch (final ParserException e) {
+			return;
+		}
+		assertTrue("Expected parse failure", false);
+	}
+
+	@Test
+	public void testFlatteningASkeletonReportsBodyErrors() throws Exception {
+		final String input = "class A<> { constructor() { x = ; } }\n{ int q = 1; }";
+		final Program skeleton = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseSkeleton();
+		try {
+			FlatAst.of(skeleton);
+		} catch (final ParserException e) {
+			return;
+		}
+		assertTrue("Expected parse failure", false);
+	}
+
+	private static String manyClasses(final int classes) {
+		final StringBuilder input = new StringBuilder();
+		for (int i = 0; i < classes; i++) {
+			input.append("class C").append(i).append("<> { int x; constructor(int y) { x = y; }\n")
+				.append("public int get() { { int t = x * ").append(i).append("; return t + 1; } } }\n");
+		}
+		input.append("{ int q = 1; while (q < 3) q = q + 1; }");
+		return input.toString();
+	}
+
+	@Test
+	public void testParallelParseMatchesSequential() throws Exception {
+		final String input = manyClasses(50);
+		final Parser sequential = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer());
+		final Program expected = sequential.parseMe();
+		final TokenBuffer tokens = new Tokenizer(input.toCharArray()).tokenizeToBuffer();
+		for (int parallelism = 1; parallelism <= 8; parallelism *= 2) {
+			final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(parallelism);
+			try {
+				// the caller's pool serves every call
+				for (int round = 0; round < 2; round++) {
+					final Parser parallel = new Parser(tokens);
+					final Program received = parallel.parseParallel(pool);
+					assertEquals(expected.classDefs.size(), received.classDefs.size());
+					assertEquals(expected.toString(), received.toString());
+					for (int i = 0; i < expected.classDefs.size(); i++) {
+						assertEquals(expected.classDefs.get(i).methodDefs.toString(),
+								received.classDefs.get(i).methodDefs.toString());
+					}
+					assertEquals(sequential.spans().size(), parallel.spans().size());
+					assertEquals(sequential.spans().describe(expected.classDefs.get(49)),
+							parallel.spans().describe(received.classDefs.get(49)));
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+		assertEquals(expected.toString(), new Parser(tokens).parseParallel().toString());
+	}
+
+	@Test
+	public void testParallelParseReportsFirstError() throws Exception {
+		final String input = manyClasses(40).replace("int t = x * 7;", "int t = ;")
+			.replace("int t = x * 30;", "int t = ;");
+		String expected = null;
+		try {
+			new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe();
+		} catch (final ParserException e) {
+			expected = e.getMessage();
+		}
+		assertTrue(expected != null);
+		final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+		try {
+			new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseParallel(pool);
+		} catch (final ParserException e) {
+			assertEquals(expected, e.getMessage());
+			return;
+		} finally {
+			pool.shutdown();
+		}
+		assertTrue("Expected parse failure", false);
+	}
+
+	// Parses input, applies the edit incrementally and checks the result
+	// against a full parse of the edited source
+	private Program assertReparseMatches(final Program old,
+										 final Parser oldParser,
+										 final TokenBuffer oldTokens,
+										 final String edited,
+										 final int offset,
+										 final int removed,
+										 final String inserted) throws Exception {
+		final IncrementalLexer.Result lexed = IncrementalLexer.edit(oldTokens, offset, removed, inserted);
+		final Parser parser = new Parser(lexed.tokens);
+		final Program received = parser.reparse(old, oldParser.spans(), offset, removed, inserted.length());
+		final Parser fullParser = new Parser(new Tokenizer(edited.toCharArray()).tokenizeToBuffer());
+		final Program expected = fullParser.parseMe();
+		assertEquals(expected.toString(), received.toString());
+		for (int i = 0; i < expected.classDefs.size(); i++) {
+			assertEquals(expected.classDefs.get(i).methodDefs.toString(),
+					received.classDefs.get(i).methodDefs.toString());
+			assertEquals(fullParser.spans().describe(expected.classDefs.get(i)),
+					parser.spans().describe(received.classDefs.get(i)));
+		}
+		return received;
+	}
+
+	@Test
+	public void testReparseReusesUntouchedNodes() throws Exception {
+		final String input = manyClasses(3);
+		final TokenBuffer tokens = new Tokenizer(input.toCharArray()).tokenizeToBuffer();
+		final Parser parser = new Parser(tokens);
+		final Program old = parser.parseMe();
+
+		// inside the get() method of class C1
+		final int offset = input.indexOf("x * 1;") + 4;
+		final String edited = input.substring(0, offset) + "(1 + 2)" + input.substring(offset + 1);
+		final Program received = assertReparseMatches(old, parser, tokens, edited, offset, 1, "(1 + 2)");
+		assertTrue(received.classDefs.get(0) == old.classDefs.get(0));
+		assertTrue(received.classDefs.get(2) == old.classDefs.get(2));
+		assertTrue(received.statement == old.statement);
+		final ClassDef oldClass = old.classDefs.get(1);
+		final ClassDef newClass = received.classDefs.get(1);
+		assertTrue(newClass != oldClass);
+		assertTrue(newClass.constructor == oldClass.constructor);
+		final Block oldBody = (Block)((Block)oldClass.methodDefs.get(0).body).statements.get(0);
+		final Block newBody = (Block)((Block)newClass.methodDefs.get(0).body).statements.get(0);
+		assertTrue(newBody.statements.get(0) != oldBody.statements.get(0));
+		assertTrue(newBody.statements.get(1) == oldBody.statements.get(1));
+	}
+
+	@Test
+	public void testReparseClassHeaderAndStatement() throws Exception {
+		final String input = manyClasses(3);
+		final TokenBuffer tokens = new Tokenizer(input.toCharArray()).tokenizeToBuffer();
+		final Parser parser = new Parser(tokens);
+		final Program old = parser.parseMe();
+
+		// a field of class C2: the whole class is parsed again
+		final int field = input.indexOf("int x;", input.indexOf("class C2"));
+		final Program received = assertReparseMatches(old, parser, tokens,
+				input.substring(0, field) + "boolean" + input.substring(field + 3), field, 3, "boolean");
+		assertTrue(received.classDefs.get(1) == old.classDefs.get(1));
+		assertTrue(received.classDefs.get(2) != old.classDefs.get(2));
+
+		// the while loop of the main statement
+		final int loop = input.indexOf("q < 3") + 4;
+		final Program statement = assertReparseMatches(old, parser, tokens,
+				input.substring(0, loop) + "30" + input.substring(loop + 1), loop, 1, "30");
+		assertTrue(statement.classDefs.get(0) == old.classDefs.get(0));
+		final List<Statement> oldStatements = ((Block)old.statement).statements;
+		final List<Statement> newStatements = ((Block)statement.statement).statements;
+		assertTrue(newStatements.get(0) == oldStatements.get(0));
+		assertTrue(newStatements.get(1) != oldStatements.get(1));
+	}
+
+	@Test
+	public void testReparseFallsBackOnStructuralEdits() throws Exception {
+		final String input = manyClasses(2);
+		final TokenBuffer tokens = new Tokenizer(input.toCharArray()).tokenizeToBuffer();
+		final Parser parser = new Parser(tokens);
+		final Program old = parser.parseMe();
+
+		// a whole new class between the two
+		final int offset = input.indexOf("class C1");
+		final String added = "class D<> { constructor() { } }\n";
+		final Program received = assertReparseMatches(old, parser, tokens,
+				input.substring(0, offset) + added + input.substring(offset), offset, 0, added);
+		assertEquals(3, received.classDefs.size());
+	}
+
+	@Test
+	public void testParserSharesEqualExpressionsAndTypes() throws Exception {
+		final String input = "{ int a = 1; int b = (a + 1) * (a + 1); b = a + 1; }";
+		final Parser parser = new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer());
+		final Block block = (Block)parser.parseMe().statement;
+		final BinopExp product = (BinopExp)((VarDecAssignment)block.statements.get(1)).exp;
+		assertTrue(product.left == product.right);
+		assertTrue(product.left == ((VarAssignment)block.statements.get(2)).exp);
+		assertTrue(((VarDecAssignment)block.statements.get(0)).varDec.type ==
+				((VarDecAssignment)block.statements.get(1)).varDec.type);
+
+		final HashCons nodes = parser.nodes();
+		assertTrue(product.left == nodes.intern(
+				new BinopExp(new VariableExp(new Variable("a")), new PlusOp(), new NumberExp(1))));
+		final List<Type> ints = new ArrayList<Type>();
+		ints.add(new IntType());
+		final ClassType listOfInt = nodes.classType(new ClassName("List"), ints);
+		assertTrue(listOfInt == nodes.intern(new ClassType(new ClassName("List"), Arrays.asList(nodes.intType()))));
+		assertTrue(listOfInt != nodes.classType(new ClassName("List"), Arrays.asList((Type)new BooleanType())));
+		assertTrue(listOfInt.types.get(0) == nodes.intType());
+	}
+
+	@Test
+	public void testHashCodesAgreeWithEquals() {
+		final Op[] ops = { new PlusOp(), new MinusOp(), new MultOp(), new DivOp(), new LessThanOp(), new EqualsOp() };
+		for (int i = 0; i < ops.length; i++) {
+			for (int j = 0; j < ops.length; j++) {
+				assertEquals(i == j, ops[i].equals(ops[j]));
+				assertEquals(i == j, ops[i].hashCode() == ops[j].hashCode());
+			}
+		}
+		assertTrue(new ClassType(new ClassName("A"), null).hashCode() !=
+				new ClassType(new ClassName("B"), null).hashCode());
+		assertEquals(new VariableExp(new Variable("x")), new VariableExp(new Variable("x")));
+		assertEquals(new NumberExp(3).hashCode(), new NumberExp(3).hashCode());
+		assertTrue(!new NumberExp(3).equals(new BoolExp(true)));
+
+		// unshared chains are compared without recursing down the spine
+		Exp first = new NumberExp(0);
+		Exp second = new NumberExp(0);
+		for (int i = 1; i < 100000; i++) {
+			first = new BinopExp(first, new PlusOp(), new NumberExp(i));
+			second = new BinopExp(second, new PlusOp(), new NumberExp(i));
+		}
+		assertEquals(first, second);
+		assertEquals(first.hashCode(), second.hashCode());
+		assertTrue(!first.equals(new BinopExp(second, new PlusOp(), new NumberExp(0))));
+	}
+}
@@ -1,7 +1,17 @@
 package j2script;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
 
 import j2script.*;
 import j2script.tokens.*;
@@ -342,4 +352,412 @@ public class TokenizerTest {
                 new RightCurlyToken()
         });
     }
+
+    @Test
+    public void testTokenizeEqualsVersusBooleanEquals() {
+        assertTokenizes("x=y==z", new Token[]{
+            new VariableToken("x"),
+            new EqualToken(),
+            new VariableToken("y"),
+            new BooleanEqualsToken(),
+            new VariableToken("z")
+        });
+    }
+
+    @Test
+    public void testTokenizeKeywordPrefixOfVariable() {
+        assertTokenizes("int int64 in", new Token[]{
+            new IntToken(),
+            new VariableToken("int64"),
+            new VariableToken("in")
+        });
+    }
+
+    @Test
+    public void testTokenizeNumberFollowedByVariable() {
+        assertTokenizes("12ab", new Token[]{
+            new NumberToken(12),
+            new VariableToken("ab")
+        });
+    }
+
+    @Test
+    public void testTokenizeIntegerOutOfRange() {
+        assertTokenizes("99999999999", null);
+    }
+
+    @Test
+    public void testTokenStreamMatchesTokenize() throws Exception {
+        // long enough to force several window refills mid-token
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            input.append("int variable").append(i).append(" = (x+").append(i).append(")==y;\n");
+        }
+        final List<Token> expected = new Tokenizer(input.toString().toCharArray()).tokenize();
+
+        final TokenStream stream = new TokenStream(new StringReader(input.toString()), 4);
+        final List<Token> received = new ArrayList<Token>();
+        for (int pos = 0; stream.hasToken(pos); pos++) {
+            received.add(stream.get(pos));
+        }
+        assertArrayEquals(expected.toArray(), received.toArray());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTokenStreamForgetsOldTokens() throws Exception {
+        final TokenStream stream = new TokenStream(new StringReader("a b c d e f g h i j"), 4);
+        stream.get(8);
+        stream.get(0);
+    }
+
+    public List<Token> tokenizeFile(final String contents) throws Exception {
+        final File file = File.createTempFile("source", ".j2s");
+        try {
+            final FileWriter writer = new FileWriter(file);
+            writer.write(contents);
+            writer.close();
+            return new Tokenizer(SourceLoader.load(file)).tokenize();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSourceLoaderSmallFile() throws Exception {
+        final String input = "if (1) { x } else { y }\n";
+        assertArrayEquals(new Tokenizer(input.toCharArray()).tokenize().toArray(),
+                          tokenizeFile(input).toArray());
+    }
+
+    @Test
+    public void testSourceLoaderEmptyFile() throws Exception {
+        assertEquals(0, tokenizeFile("").size());
+    }
+
+    @Test
+    public void testSourceLoaderMappedFile() throws Exception {
+        final StringBuilder input = new StringBuilder();
+        while (input.length() <= SourceLoader.MAP_THRESHOLD) {
+            input.append("int x = 25;\r\n");
+        }
+        final List<Token> received = tokenizeFile(input.toString());
+        assertEquals(new Tokenizer(input.toString().toCharArray()).tokenize().size(),
+                     received.size());
+    }
+
+    @Test
+    public void testTokenBufferMatchesTokenize() throws Exception {
+        final String input = "class Foo<> { int x; } if (x1 == 22) { x1 = x1 + 1; } else { println(x1); }";
+        final List<Token> expected = new Tokenizer(input.toCharArray()).tokenize();
+        final TokenBuffer buffer = new Tokenizer(input.toCharArray()).tokenizeToBuffer();
+        assertEquals(expected.size(), buffer.size());
+        for (int pos = 0; pos < buffer.size(); pos++) {
+            assertEquals(expected.get(pos).kind(), buffer.kind(pos));
+            assertEquals(expected.get(pos).toString(), buffer.get(pos).toString());
+        }
+        assertEquals("x1", buffer.name(11));
+        assertEquals(22, buffer.value(13));
+    }
+
+    @Test
+    public void testTokenBufferInternsNames() throws Exception {
+        final TokenBuffer buffer = new Tokenizer("foo bar foo".toCharArray()).tokenizeToBuffer();
+        assertEquals(buffer.value(0), buffer.value(2));
+        assertTrue(buffer.value(0) != buffer.value(1));
+        assertEquals(2, buffer.names().size());
+    }
+
+    @Test
+    public void testTokenBufferDescribesLineAndColumn() throws Exception {
+        final TokenBuffer buffer = new Tokenizer("int x\n  = 5;".toCharArray()).tokenizeToBuffer();
+        assertEquals("line 2, column 3", buffer.describe(2));
+    }
+
+    public String largeInput(final int minLength) {
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; input.length() < minLength; i++) {
+            input.append("int value").append(i).append(" = (x+").append(i).append(")==y;\n");
+        }
+        return input.toString();
+    }
+
+    @Test
+    public void testTokenizeParallelMatchesTokenize() throws Exception {
+        final char[] input = largeInput(1 << 20).toCharArray();
+        final List<Token> expected = new Tokenizer(input).tokenize();
+        for (int parallelism = 1; parallelism <= 8; parallelism *= 2) {
+            final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(parallelism);
+            try {
+                // the caller's pool serves every call
+                for (int round = 0; round < 2; round++) {
+                    final List<Token> received = new Tokenizer(input).tokenizeParallel(pool);
+                    assertArrayEquals(expected.toArray(), received.toArray());
+                    for (int pos = 0; pos < expected.size(); pos += 1000) {
+                        assertEquals(expected.get(pos).toString(), received.get(pos).toString());
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        assertArrayEquals(expected.toArray(), new Tokenizer(input).tokenizeParallel().toArray());
+    }
+
+    @Test
+    public void testTokenizeParallelReportsFirstError() throws Exception {
+        final String input = largeInput(1 << 19) + "$" + largeInput(1 << 19) + "%";
+        String expected = null;
+        String received = null;
+        try {
+            new Tokenizer(input.toCharArray()).tokenize();
+        } catch (final TokenizerException e) {
+            expected = e.getMessage();
+        }
+        final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        try {
+            new Tokenizer(input.toCharArray()).tokenizeParallel(pool);
+        } catch (final TokenizerException e) {
+            received = e.getMessage();
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(expected != null);
+        assertEquals(expected, received);
+    }
+
+    // Applies the edit incrementally and checks the result against lexing
+    // the edited text from scratch
+    public IncrementalLexer.Result assertEditMatches(final String before,
+                                                     final int offset,
+                                                     final int removed,
+                                                     final String inserted) throws Exception {
+        final TokenBuffer old = new Tokenizer(before.toCharArray()).tokenizeToBuffer();
+        final String after = before.substring(0, offset) + inserted + before.substring(offset + removed);
+        final TokenBuffer expected = new Tokenizer(after.toCharArray()).tokenizeToBuffer();
+        final IncrementalLexer.Result result = IncrementalLexer.edit(old, offset, removed, inserted);
+        assertEquals(after, new String(result.tokens.source()));
+        assertEquals(expected.size(), result.tokens.size());
+        for (int pos = 0; pos < expected.size(); pos++) {
+            assertEquals(expected.kind(pos), result.tokens.kind(pos));
+            assertEquals(expected.start(pos), result.tokens.start(pos));
+            assertEquals(expected.length(pos), result.tokens.length(pos));
+            assertEquals(expected.get(pos).toString(), result.tokens.get(pos).toString());
+            assertEquals(expected.describe(pos), result.tokens.describe(pos));
+        }
+        assertEquals(old.size() - result.oldEnd, result.tokens.size() - result.newEnd);
+        return result;
+    }
+
+    @Test
+    public void testIncrementalLexerReplacesOneToken() throws Exception {
+        final IncrementalLexer.Result result = assertEditMatches("int x = 5; int y = 6;", 8, 1, "42");
+        assertEquals(3, result.first);
+        assertEquals(4, result.oldEnd);
+        assertEquals(4, result.newEnd);
+        assertEquals(42, result.tokens.value(3));
+    }
+
+    @Test
+    public void testIncrementalLexerExtendsToken() throws Exception {
+        // "x" becomes "xy", and "=" becomes "=="
+        assertEditMatches("int x = 5;", 5, 0, "y");
+        final IncrementalLexer.Result result = assertEditMatches("x = 5;", 2, 0, "=");
+        assertEquals(TokenKind.BOOLEAN_EQUALS, result.tokens.kind(1));
+    }
+
+    @Test
+    public void testIncrementalLexerMergesTokens() throws Exception {
+        final IncrementalLexer.Result result = assertEditMatches("int x y;", 5, 1, "");
+        assertEquals("xy", result.tokens.name(1));
+    }
+
+    @Test
+    public void testIncrementalLexerEditAtEnds() throws Exception {
+        assertEditMatches("int x;", 0, 0, "class Foo<> {} ");
+        assertEditMatches("int x;", 6, 0, " int y;");
+        assertEditMatches("int x;", 0, 6, "");
+        assertEditMatches("", 0, 0, "x");
+    }
+
+    @Test
+    public void testIncrementalLexerRandomEdits() throws Exception {
+        final String[] pieces = { "", " ", "x", "1", "=", "==", "int", "(", ";", "\n", "in", "t" };
+        final Random random = new Random(42);
+        final String input = largeInput(2000);
+        for (int i = 0; i < 500; i++) {
+            final int offset = random.nextInt(input.length() + 1);
+            final int removed = random.nextInt(Math.min(8, input.length() - offset) + 1);
+            assertEditMatches(input, offset, removed, pieces[random.nextInt(pieces.length)]);
+        }
+    }
+
+    @Test
+    public void testIncrementalLexerSharesNames() throws Exception {
+        final TokenBuffer old = new Tokenizer("foo = bar;".toCharArray()).tokenizeToBuffer();
+        final IncrementalLexer.Result result = IncrementalLexer.edit(old, 6, 3, "foo");
+        assertEquals(old.value(0), result.tokens.value(2));
+    }
+
+    @Test(expected = TokenizerException.class)
+    public void testIncrementalLexerInvalidCharacter() throws Exception {
+        final TokenBuffer old = new Tokenizer("int x;".toCharArray()).tokenizeToBuffer();
+        IncrementalLexer.edit(old, 4, 0, "$");
+    }
+
+    public ByteBuffer utf8(final String input) {
+        return ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testByteTokenizerMatchesTokenize() throws Exception {
+        final String input = largeInput(10000) + " caf\u00e9 = \u00fcber + x\u0663;\u2003int";
+        final List<Token> expected = new Tokenizer(input.toCharArray()).tokenize();
+        assertArrayEquals(expected.toArray(), new ByteTokenizer(utf8(input)).tokenize().toArray());
+
+        final TokenBuffer buffer = new ByteTokenizer(utf8(input)).tokenizeToBuffer();
+        assertEquals(expected.size(), buffer.size());
+        for (int pos = 0; pos < buffer.size(); pos++) {
+            assertEquals(expected.get(pos).kind(), buffer.kind(pos));
+            assertEquals(expected.get(pos).toString(), buffer.get(pos).toString());
+        }
+        assertEquals("caf\u00e9", buffer.name(buffer.size() - 7));
+        assertEquals("x\u0663", buffer.name(buffer.size() - 3));
+    }
+
+    @Test
+    public void testByteTokenizerNonAsciiDigits() throws Exception {
+        final TokenBuffer buffer = new ByteTokenizer(utf8("\u0661\u0662")).tokenizeToBuffer();
+        assertEquals(TokenKind.NUMBER, buffer.kind(0));
+        assertEquals(12, buffer.value(0));
+    }
+
+    @Test
+    public void testByteTokenizerInternsAsciiAndDecodedNames() throws Exception {
+        final TokenBuffer buffer = new ByteTokenizer(utf8("foo \u00e9 foo \u00e9")).tokenizeToBuffer();
+        assertEquals(buffer.value(0), buffer.value(2));
+        assertEquals(buffer.value(1), buffer.value(3));
+        assertEquals(2, buffer.names().size());
+    }
+
+    @Test
+    public void testByteTokenizerDescribesLineAndColumn() throws Exception {
+        final TokenBuffer buffer = new ByteTokenizer(utf8("\u00e9\u00e9 x\n  = 5;")).tokenizeToBuffer();
+        assertEquals(9, buffer.start(2));
+        assertEquals("line 1, column 4", buffer.describe(1));
+        assertEquals("line 2, column 3", buffer.describe(2));
+    }
+
+    @Test
+    public void testByteTokenizerInvalidCharacter() throws Exception {
+        try {
+            new ByteTokenizer(utf8("int \u00e9 \u20ac")).tokenize();
+            fail();
+        } catch (final TokenizerException e) {
+            assertEquals("Invalid character \u20ac at line 1, column 7", e.getMessage());
+        }
+    }
+
+    @Test(expected = TokenizerException.class)
+    public void testByteTokenizerMalformedInput() throws Exception {
+        new ByteTokenizer(ByteBuffer.wrap(new byte[] { 'x', (byte)0xC3, '(' })).tokenize();
+    }
+
+    @Test
+    public void testByteTokenizerMappedFile() throws Exception {
+        final File file = File.createTempFile("bytes", ".j2s");
+        file.deleteOnExit();
+        final FileWriter writer = new FileWriter(file);
+        final String input = largeInput((int)SourceLoader.MAP_THRESHOLD);
+        writer.write(input);
+        writer.close();
+        final ByteBuffer bytes = SourceLoader.readBytes(file);
+        assertTrue(!bytes.hasArray());
+        assertEquals(new Tokenizer(input.toCharArray()).tokenizeToBuffer().size(),
+                     new ByteTokenizer(bytes).tokenizeToBuffer().size());
+    }
+
+    @Test
+    public void testLineIndexMapsOffsets() {
+        final LineIndex lines = new LineIndex();
+        lines.addLine(4);
+        lines.addLine(10);
+        lines.addLine(10);
+        assertEquals(3, lines.lines());
+        assertEquals(1, lines.line(0));
+        assertEquals(1, lines.line(3));
+        assertEquals(2, lines.line(4));
+        assertEquals(2, lines.line(9));
+        assertEquals(3, lines.line(25));
+        assertEquals(6, lines.column(9));
+        assertEquals("line 3, column 16", lines.describe(25));
+        assertEquals("Foo.j2s:2:1", new LineIndex("Foo.j2s").edit(0, 0, "\n").describe(1));
+    }
+
+    @Test
+    public void testTokenizerErrorReportsLineAndColumn() throws Exception {
+        try {
+            new Tokenizer("int x;\nint y;\n  $".toCharArray()).tokenize();
+            fail();
+        } catch (final TokenizerException e) {
+            assertEquals("Invalid character $ at line 3, column 3", e.getMessage());
+        }
+        try {
+            new Tokenizer(CharBuffer.wrap("\n\n 99999999999"), "Foo.j2s").tokenize();
+            fail();
+        } catch (final TokenizerException e) {
+            assertEquals("Integer literal out of range at Foo.j2s:3:2", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testTokenizerRecordsLines() throws Exception {
+        final String input = largeInput(1 << 19);
+        final Tokenizer sequential = new Tokenizer(input.toCharArray());
+        final TokenBuffer buffer = sequential.tokenizeToBuffer();
+        final Tokenizer parallel = new Tokenizer(input.toCharArray());
+        final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        try {
+            parallel.tokenizeParallel(pool);
+        } finally {
+            pool.shutdown();
+        }
+        final LineIndex bytes = new ByteTokenizer(utf8(input)).tokenizeToBuffer().lines();
+        int newlines = 0;
+        for (int i = 0; i < input.length(); i++) {
+            if (input.charAt(i) == '\n') {
+                newlines++;
+                assertEquals(newlines + 1, sequential.lines().line(i + 1));
+                assertEquals(newlines + 1, parallel.lines().line(i + 1));
+                assertEquals(newlines + 1, bytes.line(i + 1));
+            }
+        }
+        assertEquals(newlines + 1, buffer.lines().lines());
+        assertEquals(newlines + 1, parallel.lines().lines());
+    }
+
+    @Test
+    public void testIncrementalLexerUpdatesLines() throws Exception {
+        final IncrementalLexer.Result result = assertEditMatches("int x;\nint y;\nint z;", 3, 5, "\n\n\nfoo");
+        assertEquals("line 4, column 1", result.tokens.describe(1));
+        assertEquals("line 5, column 5", result.tokens.describe(5));
+    }
+
+    @Test
+    public void testTokenStreamDescribesLineAndColumn() throws Exception {
+        final TokenStream stream = new TokenStream(new StringReader("int x\n  = 5;"), 4);
+        stream.get(2);
+        assertEquals("line 2, column 3", stream.describe(2));
+        assertEquals(8, stream.start(2));
+        assertEquals(1, stream.length(2));
+    }
+
+    @Test
+    public void testTokensWithValuesHashByValue() {
+        assertEquals(new VariableToken("foo"), new VariableToken("foo"));
+        assertEquals(new VariableToken("foo").hashCode(), new VariableToken("foo").hashCode());
+        assertTrue(!new VariableToken("foo").equals(new VariableToken("bar")));
+        assertTrue(new VariableToken("foo").hashCode() != new VariableToken("bar").hashCode());
+        assertTrue(new NumberToken(1).hashCode() != new NumberToken(2).hashCode());
+        assertTrue(!new StringToken().equals(new AddToken()));
+    }
 }
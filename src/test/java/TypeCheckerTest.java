@@ -10,7 +10,14 @@ import j2script.operators.*;
 import j2script.statements.*;
 import j2script.types.*;
 import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import j2script.TypeChecker;
 import java.util.ArrayList;
 
@@ -2833,4 +2840,938 @@ public class TypeCheckerTest {
                 )));
         TypeChecker.typecheckProgram(program);
     }
+
+    @Test
+    public void testTypeErrorReportsLocation() throws Exception {
+        final String input = "{\n  int x = 5;\n  x = y;\n}";
+        final ByteTokenizer tokenizer = new ByteTokenizer(
+            ByteBuffer.wrap(input.getBytes("UTF-8")), "Test.j2s");
+        final Parser parser = new Parser(tokenizer.tokenizeToBuffer());
+        final Program program = parser.parseMe();
+        try {
+            TypeChecker.typecheckProgram(program, parser.spans());
+            fail();
+        } catch (final TypeErrorException e) {
+            assertEquals("Test.j2s:3:3", e.location);
+            assertTrue(e.getMessage(), e.getMessage().endsWith(" at Test.j2s:3:3"));
+        }
+    }
+
+    @Test
+    public void testDeeplyNestedStatementsTypecheck() throws Exception {
+        final int depth = 100000;
+        final StringBuilder input = new StringBuilder("{ int x = 0; ");
+        for (int i = 0; i < depth; i++) {
+            input.append("if (x < 10) { ");
+        }
+        input.append("x = x + 1;");
+        for (int i = 0; i < depth; i++) {
+            input.append(" } else { x = 0; }");
+        }
+        input.append(" }");
+        final Program program = new Parser(new Tokenizer(input.toString().toCharArray()).tokenizeToBuffer()).parseMe();
+        TypeChecker.typecheckProgram(program);
+    }
+
+    @Test
+    public void testDeeplyNestedExpressionsTypecheck() throws Exception {
+        final int depth = 100000;
+        final StringBuilder input = new StringBuilder("{ int x = 0; x = x");
+        for (int i = 0; i < depth; i++) {
+            input.append(" + 1");
+        }
+        input.append("; x = ");
+        for (int i = 0; i < depth; i++) {
+            input.append("1 + (");
+        }
+        input.append("x");
+        for (int i = 0; i < depth; i++) {
+            input.append(")");
+        }
+        input.append("; }");
+        final Program program = new Parser(new Tokenizer(input.toString().toCharArray()).tokenizeToBuffer()).parseMe();
+        TypeChecker.typecheckProgram(program);
+    }
+
+    @Test(expected = TypeErrorException.class)
+    public void testDeeplyNestedTypeErrorIsReported() throws Exception {
+        final int depth = 100000;
+        final StringBuilder input = new StringBuilder("{ int x = 0; ");
+        for (int i = 0; i < depth; i++) {
+            input.append("if (x < 10) { ");
+        }
+        input.append("x = true;");
+        for (int i = 0; i < depth; i++) {
+            input.append(" } else { x = 0; }");
+        }
+        input.append(" }");
+        final Program program = new Parser(new Tokenizer(input.toString().toCharArray()).tokenizeToBuffer()).parseMe();
+        TypeChecker.typecheckProgram(program);
+    }
+
+    @Test
+    public void testRewriteTypesRewritesClassTypeArguments() {
+        final Map<TypeVariable, Type> replacements = new HashMap<TypeVariable, Type>();
+        replacements.put(new TypeVariable("A"), new IntType());
+        final List<Type> types = new ArrayList<Type>();
+        types.add(new TypeVariable("A"));
+        types.add(new BooleanType());
+        final ClassType rewritten = (ClassType)new TypeRewriter(replacements)
+            .rewriteType(new ClassType(new ClassName("Pair"), types));
+        assertEquals(2, rewritten.types.size());
+        assertEquals(new IntType(), rewritten.types.get(0));
+        assertEquals(new BooleanType(), rewritten.types.get(1));
+    }
+
+    // class Box<A> { A a; constructor(A b) { a = b; } public A get() { return a; } }
+    private static ClassDef boxClass() {
+        final List<VarDec> instanceVars = new ArrayList<>();
+        instanceVars.add(new VarDec(new TypeVariable("A"), new Variable("a")));
+        final List<VarDec> params = new ArrayList<>();
+        params.add(new VarDec(new TypeVariable("A"), new Variable("b")));
+        final List<Statement> body = new ArrayList<>();
+        body.add(new ReturnExpStatement(new VariableExp(new Variable("a"))));
+        final List<MethodDef> methodDefs = new ArrayList<>();
+        methodDefs.add(new MethodDef(new PublicAccess(), new TypeVariable("A"), new MethodName("get"),
+                                     new ArrayList<VarDec>(), new Block(body)));
+        final List<TypeVariable> typeVariables = new ArrayList<>();
+        typeVariables.add(new TypeVariable("A"));
+        return new ClassDef(new ClassName("Box"),
+                            new Constructor(params,
+                                            new VarAssignment(new Variable("a"),
+                                                              new VariableExp(new Variable("b")))),
+                            instanceVars, methodDefs, typeVariables);
+    }
+
+    private static List<Type> typeArguments(final Type type) {
+        final List<Type> types = new ArrayList<Type>();
+        types.add(type);
+        return types;
+    }
+
+    @Test
+    public void testSpecializationsAreSharedAndCounted() throws TypeErrorException {
+        final List<ClassDef> classDefs = new ArrayList<>();
+        classDefs.add(boxClass());
+        final Specializations specializations = new Specializations(TypeChecker.classMapping(classDefs));
+        final ClassName box = new ClassName("Box");
+
+        final SpecializedClass boxOfInt = specializations.get(box, typeArguments(new IntType()));
+        assertEquals(new IntType(), boxOfInt.method(new MethodName("get")).returnType);
+        assertEquals(new IntType(), boxOfInt.constructor().parameters.get(0).type);
+        assertTrue(boxOfInt.method(new MethodName("get")) == boxOfInt.method(new MethodName("get")));
+        assertEquals(null, boxOfInt.method(new MethodName("set")));
+        assertEquals(null, boxOfInt.supertype());
+
+        assertTrue(boxOfInt == specializations.get(new ClassType(box, typeArguments(new IntType()))));
+        assertTrue(boxOfInt != specializations.get(box, typeArguments(new BooleanType())));
+        // the arguments' own arguments count
+        final SpecializedClass boxOfBoxOfInt =
+            specializations.get(box, typeArguments(new ClassType(box, typeArguments(new IntType()))));
+        assertTrue(boxOfBoxOfInt != specializations.get(box, typeArguments(new ClassType(box, typeArguments(new BooleanType())))));
+        assertTrue(boxOfBoxOfInt == specializations.get(box, typeArguments(new ClassType(box, typeArguments(new IntType())))));
+
+        assertEquals(4, specializations.size());
+        assertEquals(4, specializations.misses());
+        assertEquals(2, specializations.hits());
+    }
+
+    @Test(expected = TypeErrorException.class)
+    public void testSpecializationChecksArity() throws TypeErrorException {
+        final List<ClassDef> classDefs = new ArrayList<>();
+        classDefs.add(boxClass());
+        new Specializations(TypeChecker.classMapping(classDefs)).get(new ClassName("Box"), new ArrayList<Type>());
+    }
+
+    // Box, then Box1<A> extends Box<A> up to Box<depth><A>
+    private static List<ClassDef> boxChain(final int depth) {
+        final List<ClassDef> classDefs = new ArrayList<>();
+        classDefs.add(boxClass());
+        String parent = "Box";
+        for (int i = 1; i <= depth; i++) {
+            final List<VarDec> params = new ArrayList<>();
+            params.add(new VarDec(new TypeVariable("A"), new Variable("b")));
+            final List<Exp> superArgs = new ArrayList<>();
+            superArgs.add(new VariableExp(new Variable("b")));
+            final List<Statement> body = new ArrayList<>();
+            body.add(new SuperStatement(superArgs));
+            final List<TypeVariable> typeVariables = new ArrayList<>();
+            typeVariables.add(new TypeVariable("A"));
+            classDefs.add(new ClassDef(new ClassName("Box" + i),
+                                       new Constructor(params, new Block(body)),
+                                       new Extends(new ClassName(parent), typeArguments(new TypeVariable("A"))),
+                                       new ArrayList<VarDec>(), new ArrayList<MethodDef>(), typeVariables));
+            parent = "Box" + i;
+        }
+        return classDefs;
+    }
+
+    @Test
+    public void testMethodInheritedThroughGenericChain() throws TypeErrorException {
+        /*
+          class Box<A> { ... public A get() { return a; } }
+          class Box1<A> extends Box<A> { constructor(A b) { super(b); } }
+          ...
+          class Box50<A> extends Box49<A> { constructor(A b) { super(b); } }
+          Box50<int> c = Box50<int>(3);
+          int x = c.get();
+          int y = c.get() + x;
+        */
+        final List<ClassDef> classDefs = boxChain(50);
+        final ClassName last = new ClassName("Box50");
+        final List<Exp> args = new ArrayList<>();
+        args.add(new NumberExp(3));
+        final Exp get = new VarMethodExp(new Variable("c"), new MethodName("get"), new ArrayList<Exp>());
+        final List<Statement> stmts = new ArrayList<>();
+        stmts.add(new VarDecAssignment(new VarDec(new ClassType(last, typeArguments(new IntType())), new Variable("c")),
+                                       new ClassExp(last, typeArguments(new IntType()), args)));
+        stmts.add(new VarDecAssignment(new VarDec(new IntType(), new Variable("x")), get));
+        stmts.add(new VarDecAssignment(new VarDec(new IntType(), new Variable("y")),
+                                       new BinopExp(get, new PlusOp(), new VariableExp(new Variable("x")))));
+        TypeChecker.typecheckProgram(new Program(classDefs, new Block(stmts)));
+    }
+
+    private static MethodDef returnsOne(final String name, final Type... parameterTypes) {
+        final List<VarDec> params = new ArrayList<>();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            params.add(new VarDec(parameterTypes[i], new Variable("p" + i)));
+        }
+        return new MethodDef(new PublicAccess(), new IntType(), new MethodName(name),
+                             params, new ReturnExpStatement(new NumberExp(1)));
+    }
+
+    @Test(expected = TypeErrorException.class)
+    public void testOverloadsAreNotDuplicates() throws TypeErrorException {
+        // methods are resolved, and emitted, by name alone, so foo(int)
+        // and foo(boolean) would run whichever body JavaScript kept
+        final List<MethodDef> methodDefs = new ArrayList<>();
+        methodDefs.add(returnsOne("methodA", new IntType()));
+        methodDefs.add(returnsOne("methodB", new IntType()));
+        methodDefs.add(returnsOne("methodA", new BooleanType()));
+        TypeChecker.noDuplicateMethodDefs(methodDefs);
+    }
+
+    @Test
+    public void testDistinctNamesAreNotDuplicates() throws TypeErrorException {
+        final List<MethodDef> methodDefs = new ArrayList<>();
+        methodDefs.add(returnsOne("methodA", new IntType()));
+        methodDefs.add(returnsOne("methodB", new IntType()));
+        methodDefs.add(returnsOne("methodC", new IntType(), new IntType()));
+        TypeChecker.noDuplicateMethodDefs(methodDefs);
+    }
+
+    @Test(expected = TypeErrorException.class)
+    public void testDuplicateMethodsWithRenamedParameters() throws TypeErrorException {
+        final List<MethodDef> methodDefs = new ArrayList<>();
+        methodDefs.add(returnsOne("methodA", new IntType(), new BooleanType()));
+        methodDefs.add(returnsOne("methodB", new IntType(), new BooleanType()));
+        final MethodDef first = methodDefs.get(0);
+        final List<VarDec> renamed = new ArrayList<>();
+        renamed.add(new VarDec(new IntType(), new Variable("x")));
+        renamed.add(new VarDec(new BooleanType(), new Variable("y")));
+        methodDefs.add(new MethodDef(first.access, first.returnType, first.name, renamed, first.body));
+        TypeChecker.noDuplicateMethodDefs(methodDefs);
+    }
+
+    @Test
+    public void testMethodsResolveByNameOnly() throws TypeErrorException {
+        // class Sub<A> extends Box<A> { int get(int p0) ... int other() ... }
+        final List<MethodDef> methodDefs = new ArrayList<>();
+        methodDefs.add(returnsOne("get", new IntType()));
+        methodDefs.add(returnsOne("other"));
+        final List<TypeVariable> typeVariables = new ArrayList<>();
+        typeVariables.add(new TypeVariable("A"));
+        final List<ClassDef> classDefs = new ArrayList<>();
+        classDefs.add(boxClass());
+        classDefs.add(new ClassDef(new ClassName("Sub"), null,
+                                   new Extends(new ClassName("Box"), typeArguments(new TypeVariable("A"))),
+                                   new ArrayList<VarDec>(), methodDefs, typeVariables));
+        // class Sub2 extends Sub<boolean> { }
+        classDefs.add(new ClassDef(new ClassName("Sub2"), null,
+                                   new Extends(new ClassName("Sub"), typeArguments(new BooleanType())),
+                                   new ArrayList<VarDec>(), new ArrayList<MethodDef>(), new ArrayList<TypeVariable>()));
+        final Specializations specializations = new Specializations(TypeChecker.classMapping(classDefs));
+        final MethodName get = new MethodName("get");
+
+        // the get of the lowest class that has one, whatever its arity
+        final SpecializedClass sub2 = specializations.get(new ClassName("Sub2"), new ArrayList<Type>());
+        assertTrue(sub2.resolve(get) == specializations.get(new ClassName("Sub"), typeArguments(new BooleanType())).method(get));
+        assertEquals(1, sub2.resolve(get).varDecs.size());
+        assertEquals(null, sub2.resolve(new MethodName("missing")));
+
+        // Box<boolean>'s get, rewritten for it, is still there underneath
+        final SpecializedClass boxOfBoolean = specializations.get(new ClassName("Box"), typeArguments(new BooleanType()));
+        assertEquals(new BooleanType(), boxOfBoolean.resolve(get).returnType);
+        assertTrue(boxOfBoolean.resolve(get) == boxOfBoolean.method(get));
+    }
+
+    @Test
+    public void testInheritedMethodOfOtherArityIsHidden() {
+        // class A { int foo(int p0) } class B extends A { int foo(int p0, int p1) }
+        final ClassDef a = emptyClass("A", null);
+        a.methodDefs.add(returnsOne("foo", new IntType()));
+        final ClassDef b = emptyClass("B", "A");
+        b.methodDefs.add(returnsOne("foo", new IntType(), new IntType()));
+        final List<ClassDef> classDefs = new ArrayList<>();
+        classDefs.add(a);
+        classDefs.add(b);
+        // B b = new B(); int r = b.foo(1);
+        final List<Exp> args = new ArrayList<>();
+        args.add(new NumberExp(1));
+        final List<Statement> stmts = new ArrayList<>();
+        stmts.add(new VarDecAssignment(new VarDec(new ClassType(b.name, new ArrayList<Type>()), new Variable("b")),
+                                       new ClassExp(b.name, new ArrayList<Type>(), new ArrayList<Exp>())));
+        stmts.add(new VarDecAssignment(new VarDec(new IntType(), new Variable("r")),
+                                       new VarMethodExp(new Variable("b"), new MethodName("foo"), args)));
+        assertEquals("Arity mismatch in parameters; expected: 2; received: 1",
+                     errorOf(new Program(classDefs, new Block(stmts)), java.util.concurrent.ForkJoinPool.commonPool()));
+    }
+
+    // keys with few distinct hashes, to exercise collisions
+    private static class Colliding {
+        final int value;
+        Colliding(final int value) { this.value = value; }
+        public int hashCode() { return value % 7; }
+        public boolean equals(final Object other) {
+            return other instanceof Colliding && ((Colliding)other).value == value;
+        }
+    }
+
+    @Test
+    public void testPersistentMapAgreesWithHashMap() {
+        final java.util.Random random = new java.util.Random(20);
+        final Map<Object, Integer> expected = new HashMap<Object, Integer>();
+        PersistentMap<Object, Integer> actual = PersistentMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            final int n = random.nextInt(3000);
+            final Object key = (n % 2 == 0) ? Integer.valueOf(n * 0x10001) : new Colliding(n);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                actual = actual.remove(key);
+            } else {
+                expected.put(key, i);
+                actual = actual.put(key, i);
+            }
+            assertEquals(expected.size(), actual.size());
+        }
+        for (final Object key : expected.keySet()) {
+            assertEquals(expected.get(key), actual.get(key));
+        }
+        assertEquals(expected.keySet(), new java.util.HashSet<Object>(actual.keys()));
+        assertEquals(null, actual.get(new Colliding(5000)));
+    }
+
+    @Test
+    public void testLongMethodBodyTypechecks() throws Exception {
+        // 20000 declarations and assignments in one block took about 18
+        // seconds when each copied the whole environment
+        final StringBuilder input = new StringBuilder("{ int x0 = 0; ");
+        for (int i = 1; i < 20000; i++) {
+            input.append("int x").append(i).append(" = x").append(i - 1).append(" + 1; ");
+            input.append("x").append(i - 1).append(" = x").append(i).append("; ");
+        }
+        input.append("}");
+        final Program program = new Parser(new Tokenizer(input.toString().toCharArray()).tokenizeToBuffer()).parseMe();
+        TypeChecker.typecheckProgram(program);
+    }
+
+    private static Statement parseStatement(final String input) throws Exception {
+        return new Parser(new Tokenizer(input.toCharArray()).tokenizeToBuffer()).parseMe().statement;
+    }
+
+    private static List<VarDec> intFields(final String... names) {
+        final List<VarDec> fields = new ArrayList<>();
+        for (final String name : names) {
+            fields.add(new VarDec(new IntType(), new Variable(name)));
+        }
+        return fields;
+    }
+
+    @Test
+    public void testDefiniteAssignmentJoinsBranches() throws Exception {
+        final Statement body = parseStatement(
+            "{ if (c) { f = 1; g = 1; } else { f = 2; } " +
+            "  if (c) { return; } else { h = 1; } " +
+            "  int x = f; }");
+        final List<Variable> initially = new ArrayList<>();
+        initially.add(new Variable("c"));
+        final DefiniteAssignment assignment =
+            new DefiniteAssignment(intFields("f", "g", "h", "c"), new ArrayList<VarDec>(), initially, body);
+        final List<Statement> statements = ((Block)body).statements;
+        assertTrue(!assignment.isAssignedBefore(statements.get(0), new Variable("f")));
+        assertTrue(assignment.isAssignedBefore(statements.get(1), new Variable("f")));
+        assertTrue(!assignment.isAssignedBefore(statements.get(1), new Variable("g")));
+        // the branch that returns doesn't get to the end
+        assertTrue(assignment.isAssignedBefore(statements.get(2), new Variable("h")));
+        assertTrue(!assignment.isAssignedBefore(statements.get(2), new Variable("x")));
+        assertTrue(assignment.isAssigned(assignment.atEnd(), new Variable("x")));
+        assertEquals(5, assignment.variables().size());
+        assertTrue(!assignment.isAssigned(assignment.atEnd(), new Variable("unknown")));
+    }
+
+    @Test
+    public void testDefiniteAssignmentThroughLoops() throws Exception {
+        final Statement body = parseStatement(
+            "{ while (c) { f = 1; while (c) { g = 1; break; } h = g; } }");
+        final List<Variable> initially = new ArrayList<>();
+        initially.add(new Variable("c"));
+        final DefiniteAssignment assignment =
+            new DefiniteAssignment(intFields("f", "g", "h", "c"), new ArrayList<VarDec>(), initially, body);
+        final WhileStatement outer = (WhileStatement)((Block)body).statements.get(0);
+        final List<Statement> inner = ((Block)outer.stmt).statements;
+        assertTrue(assignment.isAssignedBefore(inner.get(1), new Variable("f")));
+        // the inner loop may not run
+        assertTrue(!assignment.isAssignedBefore(inner.get(2), new Variable("g")));
+        assertTrue(!assignment.isAssigned(assignment.atEnd(), new Variable("f")));
+        assertTrue(assignment.isAssigned(assignment.atEnd(), new Variable("c")));
+    }
+
+    // class Foo { int f; constructor(boolean c) { if (c) { f = 1; } else { <elseBranch> } }
+    //             public int get() { return f; } }
+    private static Program fieldAssignedInBranches(final Statement elseBranch) {
+        final List<VarDec> params = new ArrayList<>();
+        params.add(new VarDec(new BooleanType(), new Variable("c")));
+        final List<MethodDef> methodDefs = new ArrayList<>();
+        methodDefs.add(new MethodDef(new PublicAccess(), new IntType(), new MethodName("get"),
+                                     new ArrayList<VarDec>(),
+                                     new ReturnExpStatement(new VariableExp(new Variable("f")))));
+        final List<ClassDef> classDefs = new ArrayList<>();
+        classDefs.add(new ClassDef(new ClassName("Foo"),
+                                   new Constructor(params,
+                                                   new IfStatement(new VariableExp(new Variable("c")),
+                                                                   new VarAssignment(new Variable("f"), new NumberExp(1)),
+                                                                   elseBranch)),
+                                   intFields("f"), methodDefs, new ArrayList<TypeVariable>()));
+        return new Program(classDefs, new PrintStatement(new NumberExp(0)));
+    }
+
+    @Test
+    public void testFieldAssignedOnBothBranchesIsDefined() throws TypeErrorException {
+        TypeChecker.typecheckProgram(fieldAssignedInBranches(
+            new VarAssignment(new Variable("f"), new NumberExp(2))));
+    }
+
+    @Test(expected = TypeErrorException.class)
+    public void testFieldAssignedOnOneBranchIsNotDefined() throws TypeErrorException {
+        TypeChecker.typecheckProgram(fieldAssignedInBranches(new PrintStatement(new NumberExp(2))));
+    }
+
+    // class Foo { int f; constructor() { } public void set() { f = 1; return; }
+    //             public int get() { return f; } }, with get first if getFirst
+    private static Program fieldAssignedInMethod(final boolean getFirst) {
+        final List<Statement> setBody = new ArrayList<>();
+        setBody.add(new VarAssignment(new Variable("f"), new NumberExp(1)));
+        setBody.add(new ReturnVoidStatement());
+        final MethodDef set = new MethodDef(new PublicAccess(), new VoidType(), new MethodName("set"),
+                                            new ArrayList<VarDec>(), new Block(setBody));
+        final MethodDef get = new MethodDef(new PublicAccess(), new IntType(), new MethodName("get"),
+                                            new ArrayList<VarDec>(),
+                                            new ReturnExpStatement(new VariableExp(new Variable("f"))));
+        final List<MethodDef> methodDefs = new ArrayList<>();
+        methodDefs.add(getFirst ? get : set);
+        methodDefs.add(getFirst ? set : get);
+        final List<ClassDef> classDefs = new ArrayList<>();
+        classDefs.add(new ClassDef(new ClassName("Foo"),
+                                   new Constructor(new ArrayList<VarDec>(), new Block(new ArrayList<Statement>())),
+                                   intFields("f"), methodDefs, new ArrayList<TypeVariable>()));
+        return new Program(classDefs, new PrintStatement(new NumberExp(0)));
+    }
+
+    @Test
+    public void testFieldAssignedOnlyByAnotherMethodIsNotDefined() {
+        // a method sees only what the constructor assigns, whatever order
+        // the methods are declared in
+        assertEquals("Variable f is not defined",
+                     errorOf(fieldAssignedInMethod(true), java.util.concurrent.ForkJoinPool.commonPool()));
+        assertEquals("Variable f is not defined",
+                     errorOf(fieldAssignedInMethod(false), java.util.concurrent.ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    public void testWhileLoopTypechecks() throws Exception {
+        final Program program = new Parser(new Tokenizer(
+            "{ int x = 0; while (x < 10) { int y = x; x = y + 1; if (x < 5) { break; } else { println(x); } } println(x); }"
+            .toCharArray()).tokenizeToBuffer()).parseMe();
+        TypeChecker.typecheckProgram(program);
+    }
+
+    @Test(expected = TypeErrorException.class)
+    public void testWhileConditionMustBeBoolean() throws Exception {
+        final Program program = new Parser(new Tokenizer(
+            "{ int x = 0; while (x) { x = 1; } }".toCharArray()).tokenizeToBuffer()).parseMe();
+        TypeChecker.typecheckProgram(program);
+    }
+
+    // class <name> { int f; constructor() { f = 1; } public int m0() { return <exp0>; } ... }
+    private static ClassDef classReturning(final String name, final Exp... returned) {
+        final List<MethodDef> methodDefs = new ArrayList<>();
+        for (int i = 0; i < returned.length; i++) {
+            methodDefs.add(new MethodDef(new PublicAccess(), new IntType(), new MethodName("m" + i),
+                                         new ArrayList<VarDec>(), new ReturnExpStatement(returned[i])));
+        }
+        return new ClassDef(new ClassName(name),
+                            new Constructor(new ArrayList<VarDec>(),
+                                            new VarAssignment(new Variable("f"), new NumberExp(1))),
+                            intFields("f"), methodDefs, new ArrayList<TypeVariable>());
+    }
+
+    private static Program manyClasses(final int count, final int... broken) {
+        final List<ClassDef> classDefs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Exp returned = new VariableExp(new Variable("f"));
+            for (final int b : broken) {
+                if (b == i) {
+                    returned = new VariableExp(new Variable("bad" + i));
+                }
+            }
+            classDefs.add(classReturning("C" + i, new NumberExp(i), returned));
+        }
+        return new Program(classDefs, new PrintStatement(new NumberExp(0)));
+    }
+
+    private static String errorOf(final Program program,
+                                  final java.util.concurrent.ForkJoinPool pool) {
+        try {
+            TypeChecker.typecheckProgram(program, null, pool);
+            return null;
+        } catch (final TypeErrorException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static String locatedErrorOf(final Parser parser,
+                                         final Program program,
+                                         final java.util.concurrent.ForkJoinPool pool) {
+        try {
+            TypeChecker.typecheckProgram(program, parser.spans(), pool);
+            return null;
+        } catch (final TypeErrorException e) {
+            return e.getMessage();
+        }
+    }
+
+    // The parser names every class after its name token's kind, so the
+    // classes are given names C0, C1, ... here, keeping their bodies
+    private static Program renamedClasses(final Program program) {
+        final List<ClassDef> classDefs = new ArrayList<>();
+        for (int i = 0; i < program.classDefs.size(); i++) {
+            final ClassDef classDef = program.classDefs.get(i);
+            classDefs.add(new ClassDef(new ClassName("C" + i), classDef.constructor, classDef.extendedClass,
+                                       classDef.instanceVars, classDef.methodDefs, classDef.typeVariables));
+        }
+        return new Program(classDefs, program.statement);
+    }
+
+    @Test
+    public void testSkippedBodiesParseWhileCheckingInParallel() throws Exception {
+        // each body is parsed, and its spans recorded, by whichever worker
+        // checks it, while the others look up spans for their errors
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            input.append("class A<> { constructor() { int u = 0; }\n")
+                .append("public int get() { int t = 2 * ").append(i).append("; ")
+                .append(i % 50 == 49 ? "return bad" + i : "return t").append("; } }\n");
+        }
+        input.append("{ int q = 1; }");
+        final byte[] source = input.toString().getBytes("UTF-8");
+        final Parser full = new Parser(new ByteTokenizer(ByteBuffer.wrap(source), "Test.j2s").tokenizeToBuffer());
+        final String expected =
+            locatedErrorOf(full, renamedClasses(full.parseMe()), new java.util.concurrent.ForkJoinPool(1));
+        assertEquals("Variable bad49 is not defined at Test.j2s:100:36", expected);
+        final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                final Parser skeleton =
+                    new Parser(new ByteTokenizer(ByteBuffer.wrap(source), "Test.j2s").tokenizeToBuffer());
+                assertEquals(expected, locatedErrorOf(skeleton, renamedClasses(skeleton.parseSkeleton()), pool));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testFlatSkeletonChecksLikeTheFullProgram() throws Exception {
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            input.append("class A<> { constructor() { int u = 0; }\n")
+                .append("public int get() { int t = 2 * ").append(i).append("; ")
+                .append(i == 13 ? "return bad" + i : "return t").append("; } }\n");
+        }
+        input.append("{ int q = 1; println(q); }");
+        final FlatAst ast = new Parser(new Tokenizer(input.toString().toCharArray()).tokenizeToBuffer()).parseFlat();
+        final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(1);
+        try {
+            assertEquals("Variable bad13 is not defined", errorOf(renamedClasses(ast.toProgram()), pool));
+            assertEquals("Variable bad13 is not defined", errorOf(renamedClasses(ast.toSkeleton()), pool));
+            final FlatAst bad = new Parser(new Tokenizer("{ int q = 1; println(r); }".toCharArray())
+                                           .tokenizeToBuffer()).parseFlat();
+            assertEquals("Variable r is not defined", errorOf(bad.toSkeleton(), pool));
+            final FlatAst good = new Parser(new Tokenizer("{ int q = 1; println(q); }".toCharArray())
+                                            .tokenizeToBuffer()).parseFlat();
+            assertEquals(null, errorOf(good.toSkeleton(), pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // manyClasses() with the first method of class index given a body that
+    // fails with an unchecked exception when it is expanded
+    private static Program withCrashingBody(final Program program, final int index) {
+        final List<ClassDef> classDefs = new ArrayList<>(program.classDefs);
+        final ClassDef classDef = classDefs.get(index);
+        final List<MethodDef> methodDefs = new ArrayList<>(classDef.methodDefs);
+        final MethodDef first = methodDefs.get(0);
+        methodDefs.set(0, new MethodDef(first.access, first.returnType, first.name, first.varDecs,
+                                        new DeferredStatement() {
+                                            public Statement expand() {
+                                                throw new IllegalStateException("Body of " + classDef.name + " crashed");
+                                            }
+                                        }));
+        classDefs.set(index, new ClassDef(classDef.name, classDef.constructor, classDef.extendedClass,
+                                          classDef.instanceVars, methodDefs, classDef.typeVariables));
+        return new Program(classDefs, program.statement);
+    }
+
+    private static String failureOf(final Program program,
+                                    final java.util.concurrent.ForkJoinPool pool) {
+        try {
+            TypeChecker.typecheckProgram(program, null, pool);
+            return null;
+        } catch (final TypeErrorException | IllegalStateException e) {
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+    }
+
+    @Test
+    public void testParallelUncheckedFailuresComeInSourceOrder() throws Exception {
+        final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        try {
+            final Program crashFirst = withCrashingBody(manyClasses(300, 250), 120);
+            final Program typeErrorFirst = withCrashingBody(manyClasses(300, 120), 250);
+            for (int i = 0; i < 20; i++) {
+                assertEquals("IllegalStateException: Body of C120 crashed", failureOf(crashFirst, pool));
+                assertEquals("TypeErrorException: Variable bad120 is not defined", failureOf(typeErrorFirst, pool));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelErrorsComeInSourceOrder() throws Exception {
+        final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        try {
+            final Program program = manyClasses(300, 250, 120, 121);
+            for (int i = 0; i < 20; i++) {
+                assertEquals("Variable bad120 is not defined", errorOf(program, pool));
+            }
+            final List<ClassDef> oneClass = new ArrayList<>();
+            oneClass.add(classReturning("Foo",
+                                        new VariableExp(new Variable("f")),
+                                        new VariableExp(new Variable("g")),
+                                        new BoolExp(true),
+                                        new VariableExp(new Variable("h"))));
+            for (int i = 0; i < 20; i++) {
+                assertEquals("Variable g is not defined",
+                             errorOf(new Program(oneClass, new PrintStatement(new NumberExp(0))), pool));
+            }
+            assertEquals(null, errorOf(manyClasses(300), pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSeparateChecksCanRunAtOnce() throws Exception {
+        final Program good = manyClasses(200);
+        final Program bad = manyClasses(200, 150);
+        final List<Thread> threads = new ArrayList<>();
+        final List<String> failures = java.util.Collections.synchronizedList(new ArrayList<String>());
+        for (int t = 0; t < 4; t++) {
+            final boolean checkGood = (t % 2 == 0);
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10; i++) {
+                    final String error = errorOf(checkGood ? good : bad, java.util.concurrent.ForkJoinPool.commonPool());
+                    final String expected = checkGood ? null : "Variable bad150 is not defined";
+                    if (!(expected == null ? error == null : expected.equals(error))) {
+                        failures.add(error);
+                    }
+                }
+            }));
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(new ArrayList<String>(), failures);
+    }
+
+    // class <name> [extends <parent>] { constructor() { [super();] } }
+    private static ClassDef emptyClass(final String name, final String parent) {
+        if (parent == null) {
+            return new ClassDef(new ClassName(name),
+                                new Constructor(new ArrayList<VarDec>(), new Block(new ArrayList<Statement>())),
+                                new ArrayList<VarDec>(), new ArrayList<MethodDef>(), new ArrayList<TypeVariable>());
+        }
+        final List<Statement> body = new ArrayList<>();
+        body.add(new SuperStatement(new ArrayList<Exp>()));
+        return new ClassDef(new ClassName(name),
+                            new Constructor(new ArrayList<VarDec>(), new Block(body)),
+                            new Extends(new ClassName(parent), new ArrayList<Type>()),
+                            new ArrayList<VarDec>(), new ArrayList<MethodDef>(), new ArrayList<TypeVariable>());
+    }
+
+    @Test
+    public void testClassHierarchyOrdersAndNests() throws TypeErrorException {
+        // A <- B <- C, A <- D, and E on its own, written children first
+        final List<ClassDef> classDefs = new ArrayList<>();
+        classDefs.add(emptyClass("C", "B"));
+        classDefs.add(emptyClass("D", "A"));
+        classDefs.add(emptyClass("B", "A"));
+        classDefs.add(emptyClass("A", null));
+        classDefs.add(emptyClass("E", null));
+        final ClassHierarchy hierarchy = new ClassHierarchy(classDefs, TypeChecker.classMapping(classDefs));
+
+        final List<ClassName> order = new ArrayList<>();
+        for (final ClassDef classDef : hierarchy.topologicalOrder()) {
+            if (classDef.extendedClass != null) {
+                assertTrue(order.contains(classDef.extendedClass.extendsName));
+            }
+            order.add(classDef.name);
+        }
+        assertEquals(5, order.size());
+
+        final String[][] subclasses = { { "A", "A" }, { "B", "A" }, { "C", "A" }, { "C", "B" }, { "D", "A" }, { "E", "E" } };
+        for (final String[] pair : subclasses) {
+            assertTrue(hierarchy.isSubclass(new ClassName(pair[0]), new ClassName(pair[1])));
+        }
+        final String[][] unrelated = { { "A", "B" }, { "B", "C" }, { "D", "B" }, { "C", "D" }, { "E", "A" }, { "A", "E" }, { "A", "Z" } };
+        for (final String[] pair : unrelated) {
+            assertFalse(hierarchy.isSubclass(new ClassName(pair[0]), new ClassName(pair[1])));
+        }
+    }
+
+    @Test
+    public void testCyclicInheritanceIsReported() throws TypeErrorException {
+        // Start leads into the cycle X -> Y -> Z -> X
+        final List<ClassDef> classDefs = new ArrayList<>();
+        classDefs.add(emptyClass("Base", null));
+        classDefs.add(emptyClass("Start", "X"));
+        classDefs.add(emptyClass("X", "Y"));
+        classDefs.add(emptyClass("Y", "Z"));
+        classDefs.add(emptyClass("Z", "X"));
+        assertEquals("Cyclic inheritance on Start",
+                     errorOf(new Program(classDefs, new PrintStatement(new NumberExp(0))),
+                             java.util.concurrent.ForkJoinPool.commonPool()));
+
+        final List<ClassDef> missing = new ArrayList<>();
+        missing.add(emptyClass("Orphan", "Nowhere"));
+        assertEquals("No such class defined: Nowhere",
+                     errorOf(new Program(missing, new PrintStatement(new NumberExp(0))),
+                             java.util.concurrent.ForkJoinPool.commonPool()));
+    }
+
+    // <baseType> b = <classExp>;
+    private static Program assigning(final List<ClassDef> classDefs, final Type baseType, final Exp classExp) {
+        return new Program(classDefs, new VarDecAssignment(new VarDec(baseType, new Variable("b")), classExp));
+    }
+
+    @Test
+    public void testSubtypesThroughDeepChains() throws TypeErrorException {
+        final int depth = 500;
+        final List<ClassDef> classDefs = new ArrayList<>();
+        classDefs.add(emptyClass("C0", null));
+        for (int i = 1; i <= depth; i++) {
+            classDefs.add(emptyClass("C" + i, "C" + (i - 1)));
+        }
+        final ClassType base = new ClassType(new ClassName("C0"), new ArrayList<Type>());
+        final ClassType deepest = new ClassType(new ClassName("C" + depth), new ArrayList<Type>());
+        TypeChecker.typecheckProgram(assigning(classDefs, base,
+                                               new ClassExp(deepest.name, new ArrayList<Type>(), new ArrayList<Exp>())));
+        assertEquals("Base type " + deepest + " is not comparable to " + base,
+                     errorOf(assigning(classDefs, deepest,
+                                       new ClassExp(base.name, new ArrayList<Type>(), new ArrayList<Exp>())),
+                             java.util.concurrent.ForkJoinPool.commonPool()));
+
+        final List<ClassDef> boxes = boxChain(depth);
+        final List<Exp> args = new ArrayList<>();
+        args.add(new NumberExp(3));
+        TypeChecker.typecheckProgram(assigning(boxes, new ClassType(new ClassName("Box"), typeArguments(new IntType())),
+                                               new ClassExp(new ClassName("Box" + depth), typeArguments(new IntType()), args)));
+    }
+
+    @Test
+    public void testAncestorsAreSpecializedAndKept() throws TypeErrorException {
+        final Specializations specializations = new Specializations(TypeChecker.classMapping(boxChain(20)));
+        final SpecializedClass box20 = specializations.get(new ClassName("Box20"), typeArguments(new BooleanType()));
+        final ClassType box = box20.ancestor(new ClassName("Box"));
+        assertEquals(new ClassName("Box"), box.name);
+        assertEquals(typeArguments(new BooleanType()), box.types);
+        assertTrue(box == box20.ancestor(new ClassName("Box")));
+        // the classes on the way were told too
+        final SpecializedClass box10 = specializations.get(new ClassName("Box10"), typeArguments(new BooleanType()));
+        assertTrue(box == box10.ancestor(new ClassName("Box")));
+        assertEquals(typeArguments(new BooleanType()), box20.ancestor(new ClassName("Box20")).types);
+        assertEquals(null, box10.ancestor(new ClassName("Box20")));
+    }
+
+    @Test
+    public void testTypesAreShared() {
+        final ClassName box = new ClassName("Box");
+        assertTrue(Types.intType() == Types.intern(new IntType()));
+        assertTrue(Types.typeVariable("A") == Types.intern(new TypeVariable("A")));
+        final ClassType boxOfInt = Types.classType(box, typeArguments(new IntType()));
+        assertTrue(boxOfInt == Types.classType(box, typeArguments(Types.intType())));
+        assertTrue(boxOfInt == Types.intern(new ClassType(box, typeArguments(new IntType()))));
+        assertTrue(Types.intType() == boxOfInt.types.get(0));
+        assertTrue(boxOfInt != Types.classType(box, typeArguments(new BooleanType())));
+        assertTrue(Types.classType(box, null) == Types.classType(box, new ArrayList<Type>()));
+
+        assertEquals(boxOfInt, new ClassType(box, typeArguments(new IntType())));
+        assertFalse(boxOfInt.equals(new ClassType(box, typeArguments(new BooleanType()))));
+        assertFalse(boxOfInt.equals(new ClassType(box, new ArrayList<Type>())));
+    }
+
+    @Test
+    public void testTypesAreSharedAcrossThreads() throws Exception {
+        final int count = 20000;
+        final ClassType[][] seen = new ClassType[8][count];
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < seen.length; t++) {
+            final ClassType[] mine = seen[t];
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    mine[i] = Types.classType(new ClassName("Shared" + i), typeArguments(new IntType()));
+                }
+            }));
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < count; i++) {
+            for (int t = 1; t < seen.length; t++) {
+                assertTrue(seen[0][i] == seen[t][i]);
+            }
+            assertTrue(seen[0][i] == Types.intern(new ClassType(new ClassName("Shared" + i), typeArguments(new IntType()))));
+        }
+    }
+
+    @Test
+    public void testGenericArgumentsMustMatch() throws TypeErrorException {
+        final List<ClassDef> classDefs = new ArrayList<>();
+        classDefs.add(boxClass());
+        final ClassName box = new ClassName("Box");
+        final List<Exp> args = new ArrayList<>();
+        args.add(new NumberExp(3));
+        TypeChecker.typecheckProgram(assigning(classDefs, new ClassType(box, typeArguments(new IntType())),
+                                               new ClassExp(box, typeArguments(new IntType()), args)));
+        final ClassType boxOfBool = new ClassType(box, typeArguments(new BooleanType()));
+        assertEquals("Base type " + boxOfBool + " is not comparable to " + boxOfBool,
+                     errorOf(assigning(classDefs, boxOfBool,
+                                       new ClassExp(box, typeArguments(new IntType()), args)),
+                             java.util.concurrent.ForkJoinPool.commonPool()));
+    }
+
+    private static String errorOf(final IncrementalTypeChecker checker, final Program program) {
+        try {
+            checker.typecheck(program);
+            return null;
+        } catch (final TypeErrorException e) {
+            return e.getMessage();
+        }
+    }
+
+    // classDef with method index replaced, sharing every other node, as
+    // Parser.reparse() would after an edit to that method's body
+    private static ClassDef withMethod(final ClassDef classDef, final int index, final Statement body) {
+        final List<MethodDef> methodDefs = new ArrayList<>(classDef.methodDefs);
+        final MethodDef old = methodDefs.get(index);
+        methodDefs.set(index, new MethodDef(old.access, old.returnType, old.name, old.varDecs, body));
+        return new ClassDef(classDef.name, classDef.constructor, classDef.instanceVars, methodDefs, classDef.typeVariables);
+    }
+
+    private static Program withClass(final Program program, final int index, final ClassDef classDef) {
+        final List<ClassDef> classDefs = new ArrayList<>(program.classDefs);
+        classDefs.set(index, classDef);
+        return new Program(classDefs, program.statement);
+    }
+
+    @Test
+    public void testIncrementalCheckRedoesOnlyTheEditedMethod() throws TypeErrorException {
+        final Program program = manyClasses(50);
+        final IncrementalTypeChecker checker = new IncrementalTypeChecker();
+        checker.typecheck(program);
+        final int firstRun = checker.recomputations();
+        checker.typecheck(program);
+        assertEquals(firstRun, checker.recomputations());
+
+        // C17's m1 returns true instead of f
+        final ClassDef c17 = program.classDefs.get(17);
+        final Program broken = withClass(program, 17, withMethod(c17, 1, new ReturnExpStatement(new BoolExp(true))));
+        assertEquals(errorOf(broken, java.util.concurrent.ForkJoinPool.commonPool()), errorOf(checker, broken));
+        // the six queries that read C17 itself (signature, superclass,
+        // constructor, methods by place and the class's check) and the one
+        // method check; nothing else in C17 or any other class is redone
+        final int afterEdit = checker.recomputations();
+        assertEquals(7, afterEdit - firstRun);
+
+        final Program fixed = withClass(broken, 17, withMethod(broken.classDefs.get(17), 1,
+                                                                new ReturnExpStatement(new VariableExp(new Variable("f")))));
+        assertEquals(null, errorOf(checker, fixed));
+        assertEquals(7, checker.recomputations() - afterEdit);
+        assertTrue(checker.hits() > 0);
+    }
+
+    @Test
+    public void testIncrementalCheckFollowsSignatureChanges() throws TypeErrorException {
+        // class A { ... public int m0() { return 1; } }  A a = new A();  int x = a.m0();
+        final ClassDef a = classReturning("A", new NumberExp(1));
+        final ClassType aType = new ClassType(new ClassName("A"), new ArrayList<Type>());
+        final List<Statement> main = new ArrayList<>();
+        main.add(new VarDecAssignment(new VarDec(aType, new Variable("a")),
+                                      new ClassExp(aType.name, new ArrayList<Type>(), new ArrayList<Exp>())));
+        main.add(new VarDecAssignment(new VarDec(new IntType(), new Variable("x")),
+                                      new VarMethodExp(new Variable("a"), new MethodName("m0"), new ArrayList<Exp>())));
+        final Statement mainStatement = new Block(main);
+        final List<ClassDef> before = new ArrayList<>();
+        before.add(a);
+        final IncrementalTypeChecker checker = new IncrementalTypeChecker();
+        checker.typecheck(new Program(before, mainStatement));
+
+        // m0 now returns a boolean; the main statement is the same node
+        final List<MethodDef> methodDefs = new ArrayList<>();
+        methodDefs.add(new MethodDef(new PublicAccess(), new BooleanType(), new MethodName("m0"),
+                                     new ArrayList<VarDec>(), new ReturnExpStatement(new BoolExp(true))));
+        final List<ClassDef> after = new ArrayList<>();
+        after.add(new ClassDef(a.name, a.constructor, a.instanceVars, methodDefs, a.typeVariables));
+        final Program changed = new Program(after, mainStatement);
+        final String expected = errorOf(changed, java.util.concurrent.ForkJoinPool.commonPool());
+        assertTrue(expected != null);
+        assertEquals(expected, errorOf(checker, changed));
+
+        // and removing the class is noticed too
+        final Program removed = new Program(new ArrayList<ClassDef>(), mainStatement);
+        assertEquals(errorOf(removed, java.util.concurrent.ForkJoinPool.commonPool()), errorOf(checker, removed));
+        assertEquals(null, errorOf(checker, new Program(before, mainStatement)));
+    }
+
+    @Test
+    public void testIncrementalCheckAgreesWithFullCheck() {
+        final IncrementalTypeChecker checker = new IncrementalTypeChecker();
+        final Program[] programs = {
+            manyClasses(40), manyClasses(40, 30), manyClasses(40, 30, 7), manyClasses(40), manyClasses(41, 40)
+        };
+        for (final Program program : programs) {
+            assertEquals(errorOf(program, java.util.concurrent.ForkJoinPool.commonPool()), errorOf(checker, program));
+            final int recomputations = checker.recomputations();
+            assertEquals(errorOf(program, java.util.concurrent.ForkJoinPool.commonPool()), errorOf(checker, program));
+            assertEquals(recomputations, checker.recomputations());
+        }
+    }
 }